@@ -0,0 +1,128 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.unbiquitous.unbihealth.core.uhp.UhpPin;
+import org.unbiquitous.unbihealth.core.uhp.UhpPin.IOMode;
+import org.unbiquitous.unbihealth.core.uhp.UhpType;
+import org.unbiquitous.uos.core.InitialProperties;
+import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
+import org.unbiquitous.uos.core.applicationManager.CallContext;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.messages.Call;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.Response;
+
+/**
+ * Measures the inline paths of the {@link PinDriver}: decoding and delivering
+ * an incoming update to a number of listeners, and encoding and sending an
+ * outgoing update to a number of connected devices through a gateway that
+ * drops everything.
+ *
+ * @author Luciano Santos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PinDriverBenchmark {
+	@Param({ "1", "10", "100" })
+	public int fanOut;
+
+	private PinDriver driver;
+	private Notify incoming;
+	private Notify incomingPrimitive;
+	private double[] value;
+	private Blackhole blackhole;
+
+	@Setup
+	public void setUp(Blackhole blackhole) {
+		this.blackhole = blackhole;
+		Gateway gateway = (Gateway) Proxy.newProxyInstance(Gateway.class.getClassLoader(),
+				new Class<?>[] { Gateway.class }, (proxy, method, args) -> null);
+		driver = new PinDriver();
+		driver.init(gateway, new InitialProperties(), "bench");
+
+		driver.add(pin("boxed"));
+		driver.add(pin("primitive"));
+		driver.add(pin("out"));
+		for (int i = 0; i < fanOut; ++i) {
+			driver.addPinListener("boxed", new PinListener() {
+				public void valueChanged(UhpPin pin, Object newValue) {
+					PinDriverBenchmark.this.blackhole.consume(newValue);
+				}
+			});
+			driver.addPinListener("primitive", new DoubleArrayPinListener() {
+				public void valueChanged(UhpPin pin, double[] newValue) {
+					PinDriverBenchmark.this.blackhole.consume(newValue);
+				}
+			});
+			connect(new UpDevice("device" + i), "out");
+		}
+
+		incoming = update("boxed", "[0.1, 0.2, 0.3]");
+		incomingPrimitive = update("primitive", "[0.1, 0.2, 0.3]");
+		value = new double[] { 0.1, 0.2, 0.3 };
+	}
+
+	@TearDown
+	public void tearDown() {
+		driver.destroy();
+	}
+
+	@Benchmark
+	public void handleEvent() {
+		driver.handleEvent(incoming);
+	}
+
+	@Benchmark
+	public void handlePrimitiveEvent() {
+		driver.handleEvent(incomingPrimitive);
+	}
+
+	@Benchmark
+	public void pinValueChanged() {
+		driver.pinValueChanged("out", value);
+	}
+
+	private void connect(final UpDevice device, String pinName) {
+		Call call = new Call(PinDriver.DRIVER_NAME, PinDriver.CONNECT_SERVICE_NAME);
+		call.addParameter(PinDriver.PIN_PARAM_NAME, pinName);
+		driver.connect(call, new Response(), new CallContext() {
+			@Override
+			public UpDevice getCallerDevice() {
+				return device;
+			}
+		});
+	}
+
+	private static UhpPin pin(String name) {
+		UhpPin pin = new UhpPin(name);
+		pin.setMode(IOMode.INOUT);
+		pin.setType(UhpType.v3);
+		return pin;
+	}
+
+	private static Notify update(String pinName, String value) {
+		Notify event = new Notify(PinDriver.UPDATE_EVENT_NAME, PinDriver.DRIVER_NAME, null);
+		event.addParameter(PinDriver.PIN_PARAM_NAME, pinName);
+		event.addParameter(PinDriver.VALUE_PARAM_NAME, value);
+		return event;
+	}
+}
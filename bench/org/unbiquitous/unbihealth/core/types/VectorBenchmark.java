@@ -0,0 +1,111 @@
+package org.unbiquitous.unbihealth.core.types;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares allocating and in place vector arithmetic. Run with the gc
+ * profiler (the default jmh.args) and check that gc.alloc.rate.norm is zero
+ * for every benchmark but the allocating ones.
+ *
+ * @author Luciano Santos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorBenchmark {
+	private Vector3 a;
+	private Vector3 b;
+	private Vector3 out;
+	private Vector2 a2;
+	private Vector2 b2;
+	private Vector2 out2;
+
+	@Setup
+	public void setUp() {
+		a = new Vector3(0.1, 0.2, 0.3);
+		b = new Vector3(-0.3, 0.5, 0.7);
+		out = new Vector3();
+		a2 = new Vector2(0.1, 0.2);
+		b2 = new Vector2(-0.3, 0.5);
+		out2 = new Vector2();
+	}
+
+	@Benchmark
+	public Vector3 subtractAllocating() {
+		return a.subtract(b);
+	}
+
+	@Benchmark
+	public Vector3 subtractInto() {
+		return Vector3.subtract(a, b, out);
+	}
+
+	@Benchmark
+	public Vector3 addInPlace() {
+		return out.set(a).addInPlace(b);
+	}
+
+	@Benchmark
+	public Vector3 scaleAdd() {
+		return Vector3.scaleAdd(a, 0.5, b, out);
+	}
+
+	@Benchmark
+	public double dot() {
+		return a.dot(b);
+	}
+
+	@Benchmark
+	public Vector3 cross() {
+		return Vector3.cross(a, b, out);
+	}
+
+	@Benchmark
+	public Vector3 normalize() {
+		return Vector3.normalize(a, out);
+	}
+
+	@Benchmark
+	public Vector3 lerp() {
+		return Vector3.lerp(a, b, 0.25, out);
+	}
+
+	@Benchmark
+	public Vector3 pooled() {
+		VectorPool pool = VectorPool.get();
+		Vector3 tmp = pool.takeVector3();
+		Vector3.cross(a, b, tmp);
+		Vector3.scaleAdd(a, tmp.magnitude(), tmp, out);
+		pool.free(tmp);
+		return out;
+	}
+
+	@Benchmark
+	public Vector2 subtractInto2() {
+		return Vector2.subtract(a2, b2, out2);
+	}
+
+	@Benchmark
+	public Vector2 scaleAdd2() {
+		return Vector2.scaleAdd(a2, 0.5, b2, out2);
+	}
+
+	@Benchmark
+	public Vector2 lerp2() {
+		return Vector2.lerp(a2, b2, 0.25, out2);
+	}
+}
@@ -0,0 +1,110 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares converting a block of {@code v3} samples one at a time, as pin
+ * values (extracted and then converted) or as primitive vectors, against
+ * converting the whole block at once in columnar form.
+ *
+ * @author Luciano Santos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UhpAdapterBatchBenchmark {
+	@Param({ "remap", "magnitude" })
+	public String adapter;
+
+	@Param({ "1024" })
+	public int blockSize;
+
+	private UhpConverter converter;
+	private Object[] values;
+	private double[][] samples;
+	private double[] sampleOut;
+	private double[][] columns;
+	private double[][] out;
+
+	@Setup
+	public void setUp() {
+		List<UhpAdaptation> adaptations;
+		if (UhpAdapters.MAGNITUDE.equals(adapter))
+			adaptations = Arrays.asList(adaptation(UhpAdapters.MAGNITUDE));
+		else
+			adaptations = Arrays.asList(adaptation(UhpAdapters.REMAP, UhpAdapters.FROM_START_PARAM, -10,
+					UhpAdapters.FROM_SIZE_PARAM, 20, UhpAdapters.TO_START_PARAM, -1, UhpAdapters.TO_SIZE_PARAM, 2));
+		converter = new UhpAdapterRegistry().compile(UhpType.v3, adaptations);
+
+		Random random = new Random(42);
+		values = new Object[blockSize];
+		samples = new double[blockSize][];
+		columns = new double[3][blockSize];
+		for (int i = 0; i < blockSize; ++i) {
+			double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+			values[i] = new Object[] { x, y, z };
+			samples[i] = new double[] { x, y, z };
+			columns[0][i] = x;
+			columns[1][i] = y;
+			columns[2][i] = z;
+		}
+		sampleOut = new double[converter.getOutputDimension()];
+		out = new double[converter.getOutputDimension()][blockSize];
+	}
+
+	@Benchmark
+	public double perSampleExtractAndConvert() {
+		double sum = 0;
+		for (Object value : values) {
+			Object converted = converter.convert(UhpType.v3.extractValue(value));
+			sum += (converted instanceof Object[]) ? ((Double) ((Object[]) converted)[0]) : (Double) converted;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double perSampleApply() {
+		double sum = 0;
+		for (double[] sample : samples) {
+			converter.apply(sample, sampleOut);
+			sum += sampleOut[0];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double[][] batchApply() {
+		converter.applyBatch(columns, out, blockSize);
+		return out;
+	}
+
+	private static UhpAdaptation adaptation(String adapter, Object... params) {
+		UhpAdaptation adaptation = new UhpAdaptation();
+		adaptation.setAdapter(adapter);
+		Map<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < params.length; i += 2)
+			map.put((String) params[i], params[i + 1]);
+		adaptation.setParams(map);
+		return adaptation;
+	}
+}
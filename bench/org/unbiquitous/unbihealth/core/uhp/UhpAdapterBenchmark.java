@@ -0,0 +1,103 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a stack of affine adaptations (scales, remaps and selections) of a
+ * {@code v3} pin applied step by step and fused into a single step. The fused
+ * benchmarks should take the same time for every chain length.
+ *
+ * @author Luciano Santos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UhpAdapterBenchmark {
+	@Param({ "1", "2", "4", "8" })
+	public int chainLength;
+
+	private UhpConverter fused;
+	private UhpConverter chained;
+	private double[] in;
+	private double[] out;
+	private Object value;
+
+	@Setup
+	public void setUp() {
+		UhpAdapterRegistry registry = new UhpAdapterRegistry();
+		List<UhpAdaptation> adaptations = new ArrayList<UhpAdaptation>();
+		for (int i = 0; i < chainLength; ++i) {
+			switch (i % 3) {
+			case 0:
+				adaptations.add(adaptation(UhpAdapters.SCALE, UhpAdapters.SCALE_PARAM, 1.01, UhpAdapters.OFFSET_PARAM,
+						0.1));
+				break;
+			case 1:
+				adaptations.add(adaptation(UhpAdapters.REMAP, UhpAdapters.FROM_START_PARAM, -10,
+						UhpAdapters.FROM_SIZE_PARAM, 20, UhpAdapters.TO_START_PARAM, -1, UhpAdapters.TO_SIZE_PARAM, 2,
+						UhpAdapters.CLAMP_PARAM, false));
+				break;
+			default:
+				adaptations.add(adaptation(UhpAdapters.SELECT, UhpAdapters.COMPONENTS_PARAM, Arrays.asList(1, 2, 0)));
+			}
+		}
+		UhpConverter[] steps = new UhpConverter[chainLength];
+		UhpType type = UhpType.v3;
+		for (int i = 0; i < chainLength; ++i) {
+			steps[i] = registry.compile(type, adaptations.get(i));
+			type = steps[i].getTargetType();
+		}
+		chained = (chainLength == 1) ? steps[0] : new UhpAdapterRegistry.Chain(steps);
+		fused = registry.compile(UhpType.v3, adaptations);
+		in = new double[] { 0.1, 0.2, 0.3 };
+		out = new double[3];
+		value = new Object[] { 0.1, 0.2, 0.3 };
+	}
+
+	@Benchmark
+	public double[] chainedApply() {
+		chained.apply(in, out);
+		return out;
+	}
+
+	@Benchmark
+	public double[] fusedApply() {
+		fused.apply(in, out);
+		return out;
+	}
+
+	@Benchmark
+	public Object fusedConvert() {
+		return fused.convert(value);
+	}
+
+	private static UhpAdaptation adaptation(String adapter, Object... params) {
+		UhpAdaptation adaptation = new UhpAdaptation();
+		adaptation.setAdapter(adapter);
+		Map<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < params.length; i += 2)
+			map.put((String) params[i], params[i + 1]);
+		adaptation.setParams(map);
+		return adaptation;
+	}
+}
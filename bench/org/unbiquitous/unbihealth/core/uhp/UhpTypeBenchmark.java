@@ -0,0 +1,138 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unbiquitous.unbihealth.core.uhp.UhpPin.IOMode;
+import org.unbiquitous.unbihealth.core.uhp.UhpType.BaseType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures value extraction for each {@link BaseType}, from already parsed
+ * values, straight from JSON and from the binary encoding, and the JSON
+ * round-trip of pin and type declarations.
+ *
+ * @author Luciano Santos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UhpTypeBenchmark {
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	@Param({ "DISCRETE", "CONTINUOUS", "ARRAY", "STRUCTURED" })
+	public BaseType baseType;
+
+	private UhpType type;
+	private Object value;
+	private String valueJson;
+	private byte[] valueBinary;
+	private UhpPin pin;
+	private String pinJson;
+	private String typeJson;
+
+	@Setup
+	public void setUp() throws IOException {
+		switch (baseType) {
+			case DISCRETE:
+				type = UhpType.discrete(0, 100);
+				value = 42;
+				break;
+			case CONTINUOUS:
+				type = UhpType.continuous(0, 1);
+				value = 0.5;
+				break;
+			case ARRAY:
+				type = UhpType.v3;
+				value = new Object[] { 0.1, 0.2, 0.3 };
+				break;
+			default:
+				Map<String, UhpType> fields = new HashMap<String, UhpType>();
+				fields.put("position", UhpType.v3);
+				fields.put("pressed", UhpType.bit);
+				fields.put("force", UhpType.uniform);
+				type = UhpType.struct(fields);
+				Map<String, Object> struct = new LinkedHashMap<String, Object>();
+				struct.put("position", new Object[] { 0.1, 0.2, 0.3 });
+				struct.put("pressed", 1);
+				struct.put("force", 0.75);
+				value = struct;
+		}
+		valueJson = mapper.writeValueAsString(value);
+		valueBinary = type.getExtractor().encode(value);
+
+		pin = new UhpPin("pin");
+		pin.setMode(IOMode.INOUT);
+		pin.setType(type);
+		pinJson = mapper.writeValueAsString(pin);
+		typeJson = mapper.writeValueAsString(type);
+	}
+
+	@Benchmark
+	public Object extractValue() {
+		return type.extractValue(value);
+	}
+
+	@Benchmark
+	public Object extractJson() throws IOException {
+		return type.getExtractor().extractJson(valueJson);
+	}
+
+	@Benchmark
+	public Object extractPrimitiveJson() throws IOException {
+		return type.getPrimitiveExtractor().extractJson(valueJson);
+	}
+
+	@Benchmark
+	public Object extractBinary() throws IOException {
+		return type.getExtractor().extractBinary(valueBinary);
+	}
+
+	@Benchmark
+	public byte[] encodeBinary() {
+		return type.getExtractor().encode(value);
+	}
+
+	@Benchmark
+	public String writeValue() throws IOException {
+		return mapper.writeValueAsString(value);
+	}
+
+	@Benchmark
+	public String writeType() throws IOException {
+		return mapper.writeValueAsString(type);
+	}
+
+	@Benchmark
+	public UhpType readType() throws IOException {
+		return mapper.readValue(typeJson, UhpType.class);
+	}
+
+	@Benchmark
+	public String writePin() throws IOException {
+		return mapper.writeValueAsString(pin);
+	}
+
+	@Benchmark
+	public UhpPin readPin() throws IOException {
+		return mapper.readValue(pinJson, UhpPin.class);
+	}
+}
@@ -0,0 +1,76 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.unbiquitous.unbihealth.core.uhp.UhpPin;
+
+/**
+ * {@link PinDAO} backed by a {@link ConcurrentHashMap}, so lookups take no
+ * lock, and by an immutable list of the pins, rebuilt on every write, so
+ * listing copies nothing. Writes are serialized among themselves.
+ * 
+ * @author Luciano Santos
+ */
+public class ConcurrentPinDAO implements PinDAO {
+	private final ConcurrentMap<String, UhpPin> pins = new ConcurrentHashMap<String, UhpPin>();
+	private volatile List<UhpPin> snapshot = Collections.emptyList();
+
+	public ConcurrentPinDAO() {
+	}
+
+	public synchronized void clear() {
+		pins.clear();
+		snapshot = Collections.emptyList();
+	}
+
+	public synchronized void put(UhpPin pin) {
+		checkPin(pin);
+		pins.put(pin.getName(), pin);
+		updateSnapshot();
+	}
+
+	public synchronized UhpPin putIfAbsent(UhpPin pin) {
+		checkPin(pin);
+		UhpPin previous = pins.putIfAbsent(pin.getName(), pin);
+		if (previous == null)
+			updateSnapshot();
+		return previous;
+	}
+
+	public synchronized boolean replace(UhpPin expected, UhpPin pin) {
+		checkPin(pin);
+		if ((expected == null) || (pins.get(pin.getName()) != expected))
+			return false;
+		pins.put(pin.getName(), pin);
+		updateSnapshot();
+		return true;
+	}
+
+	public synchronized void remove(String name) {
+		if ((name != null) && (pins.remove(name) != null))
+			updateSnapshot();
+	}
+
+	public List<UhpPin> list() {
+		return snapshot;
+	}
+
+	public UhpPin find(String name) {
+		return (name == null) ? null : pins.get(name);
+	}
+
+	private void updateSnapshot() {
+		snapshot = Collections.unmodifiableList(new ArrayList<UhpPin>(pins.values()));
+	}
+
+	private static void checkPin(UhpPin pin) {
+		if (pin == null)
+			throw new IllegalArgumentException("pin must not be null");
+		if ((pin.getName() == null) || pin.getName().isEmpty())
+			throw new IllegalArgumentException("pin must have non-empty name");
+	}
+}
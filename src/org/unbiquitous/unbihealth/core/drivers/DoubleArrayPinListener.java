@@ -0,0 +1,34 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import org.unbiquitous.unbihealth.core.uhp.UhpPin;
+
+/**
+ * Listener for pins whose type is an array of continuous values, which
+ * receives values as {@code double[]} instead of {@code Object[]} of boxed
+ * values.
+ * 
+ * @author Luciano Santos
+ * 
+ * @see PinDriver#addPinListener(String, PinListener)
+ */
+public interface DoubleArrayPinListener extends PinListener {
+
+	/**
+	 * Called whenever a watched pin's value changed. The given array may be
+	 * shared with other listeners and must not be modified.
+	 * 
+	 * @param pin
+	 *            the changed pin.
+	 * @param newValue
+	 *            the new value.
+	 */
+	void valueChanged(UhpPin pin, double[] newValue);
+
+	@Override
+	default void valueChanged(UhpPin pin, Object newValue) {
+		if (newValue instanceof double[])
+			valueChanged(pin, (double[]) newValue);
+		else
+			valueChanged(pin, (double[]) pin.getType().getPrimitiveExtractor().extract(newValue));
+	}
+}
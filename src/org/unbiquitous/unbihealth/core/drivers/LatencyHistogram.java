@@ -0,0 +1,92 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies in nanoseconds, with one bucket per power
+ * of two. Percentiles are therefore approximate, reported as the upper bound
+ * of the bucket they fall in.
+ *
+ * @author Luciano Santos
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency; negative values are taken as zero.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		count.increment();
+		total.add(nanos);
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos))
+			;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return total.sum();
+	}
+
+	public double getMeanNanos() {
+		long n = count.sum();
+		return (n == 0) ? 0 : (double) total.sum() / n;
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * @param quantile
+	 *            the quantile, between 0 and 1.
+	 * 
+	 * @return an upper bound to the given quantile, or 0 if nothing was
+	 *         recorded.
+	 */
+	public long getPercentileNanos(double quantile) {
+		if ((quantile < 0) || (quantile > 1))
+			throw new IllegalArgumentException("quantile must be between 0 and 1");
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; ++i)
+			n += counts[i] = buckets.get(i);
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(quantile * n));
+		for (int i = 0; i < BUCKETS; ++i) {
+			rank -= counts[i];
+			if (rank <= 0)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i)
+			buckets.set(i, 0);
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+
+	/**
+	 * Bucket 0 holds zeros, and bucket i holds values in [2^(i-1), 2^i).
+	 */
+	private static long upperBound(int bucket) {
+		return (bucket >= BUCKETS - 1) ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+}
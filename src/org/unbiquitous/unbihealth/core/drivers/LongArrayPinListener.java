@@ -0,0 +1,34 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import org.unbiquitous.unbihealth.core.uhp.UhpPin;
+
+/**
+ * Listener for pins whose type is an array of discrete values, which
+ * receives values as {@code long[]} instead of {@code Object[]} of boxed
+ * values.
+ * 
+ * @author Luciano Santos
+ * 
+ * @see PinDriver#addPinListener(String, PinListener)
+ */
+public interface LongArrayPinListener extends PinListener {
+
+	/**
+	 * Called whenever a watched pin's value changed. The given array may be
+	 * shared with other listeners and must not be modified.
+	 * 
+	 * @param pin
+	 *            the changed pin.
+	 * @param newValue
+	 *            the new value.
+	 */
+	void valueChanged(UhpPin pin, long[] newValue);
+
+	@Override
+	default void valueChanged(UhpPin pin, Object newValue) {
+		if (newValue instanceof long[])
+			valueChanged(pin, (long[]) newValue);
+		else
+			valueChanged(pin, (long[]) pin.getType().getPrimitiveExtractor().extract(newValue));
+	}
+}
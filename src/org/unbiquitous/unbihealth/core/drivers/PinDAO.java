@@ -1,40 +1,62 @@
 package org.unbiquitous.unbihealth.core.drivers;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.unbiquitous.unbihealth.core.uhp.UhpPin;
 
-public class PinDAO {
-	private Map<String, UhpPin> pins = new HashMap<String, UhpPin>();
-
-	public PinDAO() {
-	}
-
-	public synchronized void clear() {
-		pins.clear();
-	}
-
-	public synchronized void put(UhpPin pin) {
-		if (pin == null)
-			throw new IllegalArgumentException("pin must not be null");
-		if ((pin.getName() == null) || pin.getName().isEmpty())
-			throw new IllegalArgumentException("pin must have non-empty name");
-
-		pins.put(pin.getName(), pin);
-	}
-
-	public synchronized void remove(String name) {
-		pins.remove(name);
-	}
-
-	public synchronized List<UhpPin> list() {
-		return new ArrayList<UhpPin>(pins.values());
-	}
-
-	public synchronized UhpPin find(String name) {
-		return pins.get(name);
-	}
+/**
+ * Store of the pins declared to a {@link PinDriver}, by name.
+ * 
+ * Implementations must be thread safe. Reads happen on every event, and
+ * writes only when pins are declared or removed, so reads should not wait on
+ * writes.
+ * 
+ * @author Luciano Santos
+ * 
+ * @see ConcurrentPinDAO
+ */
+public interface PinDAO {
+	void clear();
+
+	/**
+	 * Stores the pin, replacing any pin with the same name.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the pin is null or has no name.
+	 */
+	void put(UhpPin pin);
+
+	/**
+	 * Stores the pin only if there is no pin with the same name.
+	 * 
+	 * @return the previously stored pin with that name, or null if the given
+	 *         pin was stored.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the pin is null or has no name.
+	 */
+	UhpPin putIfAbsent(UhpPin pin);
+
+	/**
+	 * Stores the pin only if the pin stored with the same name is still the
+	 * expected one, the very same instance.
+	 * 
+	 * @return whether the pin was stored.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the pin is null or has no name.
+	 */
+	boolean replace(UhpPin expected, UhpPin pin);
+
+	void remove(String name);
+
+	/**
+	 * @return an immutable snapshot of the stored pins.
+	 */
+	List<UhpPin> list();
+
+	/**
+	 * @return the pin with the given name, or null if there is none.
+	 */
+	UhpPin find(String name);
 }
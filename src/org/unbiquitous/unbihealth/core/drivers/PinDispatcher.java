@@ -0,0 +1,67 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+/**
+ * Runs the delivery of incoming pin events to their {@link PinListener}s, or
+ * of outgoing events to connected devices, in which case tasks are keyed by
+ * device instead of pin name, and a device's key is discarded once it is no
+ * longer connected.
+ * 
+ * Implementations must run the tasks of a given key in the order they were
+ * dispatched, one at a time.
+ * 
+ * @author Luciano Santos
+ * 
+ * @see PinDriver#setDispatcher(PinDispatcher)
+ * @see PinDriver#setSender(PinDispatcher)
+ */
+public interface PinDispatcher {
+
+	/**
+	 * Task that is told when a dispatcher discards it instead of running it,
+	 * such as to count it. Dispatchers may call it while holding their own
+	 * locks, so it must be quick.
+	 */
+	interface DiscardableTask extends Runnable {
+		void discarded();
+	}
+
+	/**
+	 * Runs each task on the calling thread, which for incoming events is the
+	 * middleware's message thread.
+	 */
+	PinDispatcher INLINE = new PinDispatcher() {
+		public void dispatch(String pinName, Runnable task) {
+			task.run();
+		}
+
+		public void discard(String pinName) {
+		}
+
+		public void shutdown() {
+		}
+	};
+
+	/**
+	 * Schedules a task for the given pin.
+	 * 
+	 * @param pinName
+	 *            the pin.
+	 * @param task
+	 *            the task.
+	 */
+	void dispatch(String pinName, Runnable task);
+
+	/**
+	 * Releases any resources held for a pin that is no longer declared. Tasks
+	 * already dispatched for it still run, before any dispatched later.
+	 * 
+	 * @param pinName
+	 *            the pin.
+	 */
+	void discard(String pinName);
+
+	/**
+	 * Stops dispatching and releases all resources.
+	 */
+	void shutdown();
+}
@@ -1,14 +1,40 @@
 package org.unbiquitous.unbihealth.core.drivers;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.unbiquitous.unbihealth.core.uhp.UhpAdaptation;
+import org.unbiquitous.unbihealth.core.uhp.UhpAdapterRegistry;
+import org.unbiquitous.unbihealth.core.uhp.UhpConverter;
+import org.unbiquitous.unbihealth.core.uhp.UhpExtractor;
 import org.unbiquitous.unbihealth.core.uhp.UhpPin;
+import org.unbiquitous.unbihealth.core.uhp.UhpType;
+import org.unbiquitous.unbihealth.core.uhp.UhpType.BaseType;
+import org.unbiquitous.unbihealth.core.uhp.UhpType.Precision;
 import org.unbiquitous.uos.core.InitialProperties;
 import org.unbiquitous.uos.core.UOSLogging;
 import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
@@ -24,25 +50,143 @@ import org.unbiquitous.uos.core.messageEngine.messages.Call;
 import org.unbiquitous.uos.core.messageEngine.messages.Notify;
 import org.unbiquitous.uos.core.messageEngine.messages.Response;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * {@link UosDriver} responsible for managing all input and output events at
  * connected applications and pins.
  * 
+ * The driver holds no global lock: listeners and connected devices are kept in
+ * copy-on-write sets, so registration never waits on event dispatch and events
+ * for different pins may be dispatched in parallel. Listeners may thus be
+ * called from several threads, and must be thread safe.
+ * 
  * @author Luciano Santos
  */
 public class PinDriver implements UosEventDriver, UosEventListener {
 	public static final String DRIVER_NAME = "unbihealth.PinDriver";
 	public static final String LIST_SERVICE_NAME = "list";
 	public static final String PINS_FIELD_NAME = "pins";
+	/**
+	 * Version of the pin catalog, given in every list response. Sending it
+	 * back as an optional parameter of the list service makes the pins be
+	 * omitted, with a {@link #NOT_MODIFIED_RESULT} result, if the catalog did
+	 * not change in the meantime.
+	 */
+	public static final String VERSION_PARAM_NAME = "version";
+	public static final String NOT_MODIFIED_RESULT = "not modified";
+	/**
+	 * Optional parameter to the list service, with a catalog version. The
+	 * response then carries the {@link #CHANGES_FIELD_NAME} made since that
+	 * version, in order, or the full {@link #PINS_FIELD_NAME} if they are no
+	 * longer known.
+	 */
+	public static final String SINCE_PARAM_NAME = "since";
+	public static final String CHANGES_FIELD_NAME = "changes";
+	/**
+	 * Event sent to devices registered for it whenever a pin is added,
+	 * removed or updated, with the pin name, the {@link #CHANGE_PARAM_NAME},
+	 * the new catalog {@link #VERSION_PARAM_NAME} and, but for removals, the
+	 * pin {@link #DECLARATION_PARAM_NAME}. Entries of
+	 * {@link #CHANGES_FIELD_NAME} have the same fields.
+	 */
+	public static final String CATALOG_EVENT_NAME = "catalog";
+	public static final String CHANGE_PARAM_NAME = "change";
+	public static final String DECLARATION_PARAM_NAME = "declaration";
+	public static final String ADDED_CHANGE = "added";
+	public static final String REMOVED_CHANGE = "removed";
+	public static final String UPDATED_CHANGE = "updated";
+	/** Number of catalog changes kept for incremental list calls. */
+	public static final int CATALOG_HISTORY_SIZE = 256;
+	public static final String EVENT_KEY_PARAM_NAME = "eventKey";
 	public static final String CONNECT_SERVICE_NAME = "connect";
 	public static final String DISCONNECT_SERVICE_NAME = "disconnect";
 	public static final String UPDATE_EVENT_NAME = "update";
 	public static final String PIN_PARAM_NAME = "pin";
 	public static final String VALUE_PARAM_NAME = "value";
 	public static final String DESTROYED_EVENT_NAME = "destroyed";
+	/**
+	 * Event carrying the values of many pins in a single message, as a JSON
+	 * object from pin names to their values.
+	 */
+	public static final String UPDATE_BATCH_EVENT_NAME = "updateBatch";
+	public static final String VALUES_PARAM_NAME = "values";
+	/**
+	 * Optional parameter to the connect service, telling the calling device
+	 * accepts the updates of that pin in {@link #UPDATE_BATCH_EVENT_NAME}
+	 * events.
+	 */
+	public static final String BATCH_PARAM_NAME = "batch";
+	/**
+	 * Optional parameter to the connect service and to update events, with the
+	 * encoding of values. The connect response echoes the encoding in use, so
+	 * devices that get no echo are talking to a driver that only knows JSON.
+	 */
+	public static final String ENCODING_PARAM_NAME = "encoding";
+	/** Values as JSON text, the default. */
+	public static final String JSON_ENCODING = "json";
+	/**
+	 * Values in the binary form given by {@link UhpExtractor#encode(Object)},
+	 * carried as Base64 text.
+	 */
+	public static final String BINARY_ENCODING = "binary";
+
+	/**
+	 * Initial property with the number of threads for asynchronous dispatch of
+	 * incoming events. If absent or not positive, listeners are called on the
+	 * middleware's message thread.
+	 * 
+	 * @see SerialPinDispatcher
+	 */
+	public static final String DISPATCH_THREADS_PROPERTY = DRIVER_NAME + ".dispatchThreads";
+	/**
+	 * Initial property with the maximum number of pending incoming events per
+	 * pin, for asynchronous dispatch.
+	 */
+	public static final String DISPATCH_CAPACITY_PROPERTY = DRIVER_NAME + ".dispatchCapacity";
+	/**
+	 * Initial property with the name of the
+	 * {@link SerialPinDispatcher.OverflowPolicy} for asynchronous dispatch.
+	 */
+	public static final String DISPATCH_OVERFLOW_PROPERTY = DRIVER_NAME + ".dispatchOverflow";
+
+	public static final int DEFAULT_DISPATCH_CAPACITY = 256;
+
+	/**
+	 * Initial property with the number of threads for sending outgoing events.
+	 * If absent or not positive, events are sent to one device after the
+	 * other on the thread that changed the pin.
+	 * 
+	 * @see #setSender(PinDispatcher)
+	 */
+	public static final String SEND_THREADS_PROPERTY = DRIVER_NAME + ".sendThreads";
+	/**
+	 * Initial property with the maximum number of pending outgoing events per
+	 * device, for asynchronous sending.
+	 */
+	public static final String SEND_CAPACITY_PROPERTY = DRIVER_NAME + ".sendCapacity";
+	/**
+	 * Initial property with the name of the
+	 * {@link SerialPinDispatcher.OverflowPolicy} for asynchronous sending.
+	 * Defaults to dropping the oldest events, so a device that stopped
+	 * responding never stalls the pin's producer.
+	 */
+	public static final String SEND_OVERFLOW_PROPERTY = DRIVER_NAME + ".sendOverflow";
+
+	/**
+	 * Initial property enabling pin metrics: {@code true} to collect them, or
+	 * {@code jmx} to also export them as MBeans.
+	 * 
+	 * @see #enableMetrics(boolean)
+	 */
+	public static final String METRICS_PROPERTY = DRIVER_NAME + ".metrics";
+	public static final String METRICS_DOMAIN = "org.unbiquitous.unbihealth";
 
 	private static Logger logger = UOSLogging.getLogger();
 	private static final UpDriver _driver;
@@ -50,60 +194,173 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 	static {
 		_driver = new UpDriver(DRIVER_NAME);
 
-		_driver.addService(LIST_SERVICE_NAME);
+		_driver.addService(LIST_SERVICE_NAME)
+						.addParameter(VERSION_PARAM_NAME, ParameterType.OPTIONAL)
+						.addParameter(SINCE_PARAM_NAME, ParameterType.OPTIONAL);
 
 		_driver.addService(CONNECT_SERVICE_NAME)
-						.addParameter(PIN_PARAM_NAME, ParameterType.MANDATORY);
+						.addParameter(PIN_PARAM_NAME, ParameterType.MANDATORY)
+						.addParameter(BATCH_PARAM_NAME, ParameterType.OPTIONAL)
+						.addParameter(ENCODING_PARAM_NAME, ParameterType.OPTIONAL);
 
 		_driver.addService(DISCONNECT_SERVICE_NAME)
 						.addParameter(PIN_PARAM_NAME, ParameterType.MANDATORY);
 
 		_driver.addEvent(UPDATE_EVENT_NAME)
 						.addParameter(PIN_PARAM_NAME, ParameterType.MANDATORY)
-						.addParameter(VALUE_PARAM_NAME, ParameterType.MANDATORY);
+						.addParameter(VALUE_PARAM_NAME, ParameterType.MANDATORY)
+						.addParameter(ENCODING_PARAM_NAME, ParameterType.OPTIONAL);
+
+		_driver.addEvent(UPDATE_BATCH_EVENT_NAME)
+						.addParameter(VALUES_PARAM_NAME, ParameterType.MANDATORY);
+
+		_driver.addEvent(CATALOG_EVENT_NAME)
+						.addParameter(PIN_PARAM_NAME, ParameterType.MANDATORY)
+						.addParameter(CHANGE_PARAM_NAME, ParameterType.MANDATORY)
+						.addParameter(VERSION_PARAM_NAME, ParameterType.MANDATORY)
+						.addParameter(DECLARATION_PARAM_NAME, ParameterType.OPTIONAL);
 	}
 
 	private static final ObjectMapper mapper = new ObjectMapper();
 
 	private Gateway gateway;
 	private String instanceId;
-	private PinDAO pinDao = new PinDAO();
-	private Map<String, Set<UpDevice>> driverListeners = new HashMap<String, Set<UpDevice>>();
-	private Map<String, Set<PinListener>> pinListeners = new HashMap<String, Set<PinListener>>();
+	private final PinDAO pinDao;
+	private final AtomicLong catalogVersion = new AtomicLong();
+	private volatile String catalogEpoch = Long.toHexString(System.currentTimeMillis());
+	private volatile PinCatalog catalog;
+	private final ArrayDeque<CatalogChange> catalogChanges = new ArrayDeque<CatalogChange>();
+	private Set<UpDevice> catalogDevices = new CopyOnWriteArraySet<UpDevice>();
+	private ConcurrentMap<String, Set<Connection>> driverListeners = new ConcurrentHashMap<String, Set<Connection>>();
+	private ConcurrentMap<String, Set<PinListener>> pinListeners = new ConcurrentHashMap<String, Set<PinListener>>();
+	private volatile PinDispatcher dispatcher = PinDispatcher.INLINE;
+	private volatile PinDispatcher sender = PinDispatcher.INLINE;
+	private volatile UhpAdapterRegistry adapters = new UhpAdapterRegistry();
+	private ConcurrentMap<String, UpdateConflator> conflators = new ConcurrentHashMap<String, UpdateConflator>();
+	private ConcurrentMap<String, PinHistory> histories = new ConcurrentHashMap<String, PinHistory>();
+	private ScheduledExecutorService conflationScheduler;
+	/** Sender of conflated updates while the sender sends inline. */
+	private volatile SerialPinDispatcher conflationSender;
+	private ExecutorService conflationSenderExecutor;
+	private volatile ConcurrentMap<String, PinMetrics> metrics;
+	private volatile boolean metricsExported;
+
+	public PinDriver() {
+		this(new ConcurrentPinDAO());
+	}
 
 	/**
-	 * Declares a pin to the PinDriver, with an optional listener.
+	 * Creates a driver keeping its pins in the given store.
+	 * 
+	 * @param pinDao
+	 *            the pin store.
+	 */
+	public PinDriver(PinDAO pinDao) {
+		if (pinDao == null)
+			throw new IllegalArgumentException("null pin store");
+		this.pinDao = pinDao;
+	}
+
+	/**
+	 * Declares a pin to the PinDriver.
 	 * 
 	 * @param pin
 	 *            the pin.
 	 * 
+	 * @return the immutable copy of the pin kept by the driver.
+	 * 
 	 * @see {@link PinDriver#add(UhpPin, PinListener)}
 	 */
-	public synchronized void add(UhpPin pin) {
-		add(pin, null);
+	public UhpPin add(UhpPin pin) {
+		return add(pin, null);
 	}
 
 	/**
-	 * Declares a pin to the PinDriver, with an optional listener.
+	 * Declares a pin to the PinDriver, with an optional listener. The driver
+	 * keeps an immutable copy of the pin, so later changes to it are not seen,
+	 * and listeners are given that copy, not the pin itself. Immutable pins,
+	 * such as those made by a {@link UhpPin.Builder}, are kept as they are.
 	 * 
 	 * @param pin
 	 *            the pin.
 	 * @param listener
 	 *            the listener.
+	 * 
+	 * @return the immutable copy of the pin kept by the driver.
 	 */
-	public synchronized void add(UhpPin pin, PinListener listener) {
+	public UhpPin add(UhpPin pin, PinListener listener) {
 		if ((pin == null) || (pin.getName() == null) || pin.getName().isEmpty())
 			throw new IllegalArgumentException("pin must not be null and must have non empty name");
-		if (pinDao.find(pin.getName()) != null)
-			throw new IllegalArgumentException("pin already declared");
 		if (pin.getMode() == null)
 			throw new IllegalArgumentException("pin with no mode set");
 		if ((pin.getType() == null) || (!pin.getType().isValid()))
 			throw new IllegalArgumentException("pin with invalid type");
 
-		pinDao.put(pin);
+		// Publishes an immutable copy, so it can be read lock free, and
+		// compiles its value extractor up front, out of the event path.
+		pin = UhpPin.immutableCopy(pin);
+		pin.getType().getExtractor();
+		if (pinDao.putIfAbsent(pin) != null)
+			throw new IllegalArgumentException("pin already declared");
+		catalogChanged(ADDED_CHANGE, pin.getName(), pin);
 		if (listener != null)
 			addPinListener(pin.getName(), listener);
+		return pin;
+	}
+
+	/**
+	 * Replaces the declaration of a pin, such as its description or type,
+	 * keeping its listeners and connected devices. Devices registered for
+	 * {@link #CATALOG_EVENT_NAME} are told of the change. Bindings from or to
+	 * the pin are compiled again for its new type.
+	 * 
+	 * @param pin
+	 *            the new declaration, with the name of a declared pin.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the pin is not valid, was not declared, or its new type
+	 *             does not suit some of its listeners or bindings.
+	 * @throws IllegalStateException
+	 *             if the pin was updated by another thread meanwhile.
+	 */
+	public void update(UhpPin pin) {
+		if ((pin == null) || (pin.getName() == null) || pin.getName().isEmpty())
+			throw new IllegalArgumentException("pin must not be null and must have non empty name");
+		if (pin.getMode() == null)
+			throw new IllegalArgumentException("pin with no mode set");
+		if ((pin.getType() == null) || (!pin.getType().isValid()))
+			throw new IllegalArgumentException("pin with invalid type");
+		UhpPin current = pinDao.find(pin.getName());
+		if (current == null)
+			throw new IllegalArgumentException("informed pin wasn't found");
+		Set<PinListener> listeners = pinListeners.get(pin.getName());
+		if (listeners != null) {
+			for (PinListener listener : listeners) {
+				if (!acceptsType(listener, pin.getType()))
+					throw new IllegalArgumentException("listener does not accept the pin type");
+			}
+		}
+		Map<AdaptingListener, UhpConverter> bindings = rebind(current, pin);
+
+		PinHistory history = histories.get(pin.getName());
+		if ((history != null) && !history.getType().equals(pin.getType()))
+			history = new PinHistory(pin.getType(), history.getCapacity());
+		else
+			history = null;
+
+		pin = UhpPin.immutableCopy(pin);
+		pin.getType().getExtractor();
+		// Nothing is changed unless the pin checked above is still declared.
+		if (!pinDao.replace(current, pin)) {
+			if (pinDao.find(pin.getName()) == null)
+				throw new IllegalArgumentException("informed pin wasn't found");
+			throw new IllegalStateException("pin was updated concurrently");
+		}
+		if (history != null)
+			histories.put(pin.getName(), history);
+		for (Map.Entry<AdaptingListener, UhpConverter> binding : bindings.entrySet())
+			binding.getKey().converter = binding.getValue();
+		catalogChanged(UPDATED_CHANGE, pin.getName(), pin);
 	}
 
 	/**
@@ -112,17 +369,26 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 	 * 
 	 * @param pinName
 	 */
-	public synchronized void remove(String pinName) {
+	public void remove(String pinName) {
 		if ((pinName == null) || pinName.isEmpty())
 			throw new IllegalArgumentException("pin name must not be null or empty");
 		if (pinDao.find(pinName) == null)
 			throw new IllegalArgumentException("informed pin wasn't found");
 
 		pinDao.remove(pinName);
+		catalogChanged(REMOVED_CHANGE, pinName, null);
 		pinListeners.remove(pinName);
+		dispatcher.discard(pinName);
+		clearConflation(pinName);
+		histories.remove(pinName);
+		removeMetrics(pinName);
 
-		fireDriverEvent(pinName, DESTROYED_EVENT_NAME, null);
-		driverListeners.remove(pinName);
+		Set<Connection> connections = driverListeners.remove(pinName);
+		fireDriverEvent(pinName, DESTROYED_EVENT_NAME, null, connections);
+		if (connections != null) {
+			for (Connection connection : connections)
+				discardLane(connection.device);
+		}
 	}
 
 	/**
@@ -131,17 +397,22 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 	 * @param pinName
 	 * @param listener
 	 */
-	public synchronized void addPinListener(String pinName, PinListener listener) {
+	public void addPinListener(String pinName, PinListener listener) {
 		if (listener == null)
 			throw new IllegalArgumentException("null listener");
 		UhpPin pin = pinDao.find(pinName);
 		if (pin == null)
 			throw new IllegalArgumentException("informed pin does not exist");
-		Set<PinListener> listeners = pinListeners.getOrDefault(pinName, new HashSet<PinListener>());
-		if (listeners.contains(listener))
+		if (!acceptsType(listener, pin.getType()))
+			throw new IllegalArgumentException("listener does not accept values of this pin's type");
+		Set<PinListener> listeners = setFor(pinListeners, pinName);
+		if (!listeners.add(listener))
 			throw new IllegalArgumentException("listener already associated to this pin");
-		listeners.add(listener);
-		pinListeners.put(pinName, listeners);
+		if (pinDao.find(pinName) != pin) {
+			// The pin was removed (or replaced) concurrently.
+			listeners.remove(listener);
+			throw new IllegalArgumentException("informed pin does not exist");
+		}
 	}
 
 	/**
@@ -150,12 +421,121 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 	 * @param pinName
 	 * @param listener
 	 */
-	public synchronized void removePinListener(String pinName, PinListener listener) {
+	public void removePinListener(String pinName, PinListener listener) {
 		UhpPin pin = pinDao.find(pinName);
 		if (pin == null)
 			throw new IllegalArgumentException("informed pin does not exist");
-		Set<PinListener> listeners = pinListeners.getOrDefault(pinName, new HashSet<PinListener>());
-		listeners.remove(listener);
+		Set<PinListener> listeners = pinListeners.get(pinName);
+		if (listeners != null)
+			listeners.remove(listener);
+	}
+
+	/**
+	 * Feeds the values of a pin into another pin, possibly of a different
+	 * type, through a sequence of adaptations: every incoming value of the
+	 * source pin is converted and delivered to the listeners of the target pin,
+	 * as if it had come for the target pin. The adaptations are compiled here,
+	 * once, by the {@link #getAdapters() adapter registry}. With no
+	 * adaptations, the registry {@link UhpAdapterRegistry#resolve resolves} a
+	 * conversion between the pin types.
+	 * 
+	 * Adapted values the target pin does not take, such as ones out of its
+	 * range, are dropped. Bindings must not form cycles.
+	 * 
+	 * @param sourcePinName
+	 *            the pin whose values are converted.
+	 * @param targetPinName
+	 *            the pin to feed.
+	 * @param adaptations
+	 *            the adaptations, applied in order.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any pin does not exist, the adaptations are invalid for
+	 *             the source type, or produce values of another shape than the
+	 *             target type, or no conversion was resolved.
+	 */
+	public void bind(String sourcePinName, String targetPinName, UhpAdaptation... adaptations) {
+		UhpPin source = pinDao.find(sourcePinName);
+		UhpPin target = pinDao.find(targetPinName);
+		if ((source == null) || (target == null))
+			throw new IllegalArgumentException("informed pin does not exist");
+		UhpAdaptation[] copy = (adaptations == null) ? new UhpAdaptation[0] : adaptations.clone();
+		UhpConverter converter = compile(source.getType(), target.getType(), copy);
+		addPinListener(sourcePinName, new AdaptingListener(targetPinName, copy, converter));
+	}
+
+	private UhpConverter compile(UhpType sourceType, UhpType targetType, UhpAdaptation[] adaptations) {
+		UhpConverter converter;
+		if (adaptations.length == 0) {
+			converter = adapters.resolve(sourceType, targetType);
+			if (converter == null)
+				throw new IllegalArgumentException("no conversion between the pin types");
+		} else
+			converter = adapters.compile(sourceType, Arrays.asList(adaptations));
+		if (!converter.isCompatibleWith(targetType))
+			throw new IllegalArgumentException("adapted values do not suit the target pin");
+		return converter;
+	}
+
+	/**
+	 * Compiles again the bindings from or to a pin whose type is changing.
+	 * 
+	 * @return the new converter of each binding from or to the pin.
+	 */
+	private Map<AdaptingListener, UhpConverter> rebind(UhpPin current, UhpPin pin) {
+		Map<AdaptingListener, UhpConverter> result = new HashMap<AdaptingListener, UhpConverter>();
+		if (current.getType().equals(pin.getType()))
+			return result;
+		for (Map.Entry<String, Set<PinListener>> entry : pinListeners.entrySet()) {
+			for (PinListener listener : entry.getValue()) {
+				if (!(listener instanceof AdaptingListener))
+					continue;
+				AdaptingListener binding = (AdaptingListener) listener;
+				boolean fromPin = entry.getKey().equals(pin.getName());
+				boolean toPin = binding.targetPinName.equals(pin.getName());
+				if (!fromPin && !toPin)
+					continue;
+				UhpPin source = fromPin ? pin : pinDao.find(entry.getKey());
+				UhpPin target = toPin ? pin : pinDao.find(binding.targetPinName);
+				if ((source == null) || (target == null))
+					continue;
+				result.put(binding, compile(source.getType(), target.getType(), binding.adaptations));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Stops feeding a pin from another.
+	 * 
+	 * @param sourcePinName
+	 * @param targetPinName
+	 * 
+	 * @see #bind(String, String, UhpAdaptation...)
+	 */
+	public void unbind(String sourcePinName, String targetPinName) {
+		Set<PinListener> listeners = pinListeners.get(sourcePinName);
+		if (listeners == null)
+			return;
+		for (PinListener listener : listeners) {
+			if ((listener instanceof AdaptingListener)
+					&& ((AdaptingListener) listener).targetPinName.equals(targetPinName))
+				listeners.remove(listener);
+		}
+	}
+
+	public void setAdapters(UhpAdapterRegistry adapters) {
+		if (adapters == null)
+			throw new IllegalArgumentException("null adapter registry");
+		this.adapters = adapters;
+	}
+
+	/**
+	 * @return the registry resolving the adaptations of
+	 *         {@link #bind(String, String, UhpAdaptation...)}.
+	 */
+	public UhpAdapterRegistry getAdapters() {
+		return adapters;
 	}
 
 	/**
@@ -164,10 +544,386 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 	 * @param pinName
 	 * @param newValue
 	 */
-	public synchronized void pinValueChanged(String pinName, Object newValue) {
+	public void pinValueChanged(String pinName, Object newValue) {
+		UhpPin pin = pinDao.find(pinName);
+		if (pin == null)
+			throw new IllegalArgumentException("informed pin does not exist");
+		recordChanged(pin, newValue);
+		UpdateConflator conflator = conflators.get(pinName);
+		if (conflator != null)
+			offer(conflator, pinName, newValue);
+		else
+			fireDriverEvent(pinName, UPDATE_EVENT_NAME, newValue);
+	}
+
+	/**
+	 * Handles external changes to many pins at once. Devices that accept
+	 * batches receive a single {@link #UPDATE_BATCH_EVENT_NAME} event with the
+	 * values of all the pins they are connected to, others receive an update
+	 * per pin. Conflated pins are sent on their own schedule.
+	 * 
+	 * @param newValues
+	 *            the new values, by pin name.
+	 * 
+	 * @see #setConflation(String, long, TimeUnit)
+	 */
+	public void pinValuesChanged(Map<String, Object> newValues) {
+		for (String pinName : newValues.keySet()) {
+			if (pinDao.find(pinName) == null)
+				throw new IllegalArgumentException("informed pin " + pinName + " does not exist");
+		}
+
+		Map<UpDevice, Batch> batches = new LinkedHashMap<UpDevice, Batch>();
+		for (Map.Entry<String, Object> entry : newValues.entrySet()) {
+			String pinName = entry.getKey();
+			UhpPin pin = pinDao.find(pinName);
+			if (pin == null)
+				continue;
+			recordChanged(pin, entry.getValue());
+			UpdateConflator conflator = conflators.get(pinName);
+			if (conflator != null) {
+				offer(conflator, pinName, entry.getValue());
+				continue;
+			}
+			Set<Connection> connections = driverListeners.get(pinName);
+			if ((connections == null) || connections.isEmpty())
+				continue;
+			OutgoingUpdate update = new OutgoingUpdate(pin, entry.getValue(), connections);
+			String batchEntry = (update.json == null) ? null : update.jsonName + ':' + update.json;
+			for (Connection connection : connections) {
+				if (!connection.batch) {
+					update.sendTo(connection);
+					continue;
+				}
+				if (batchEntry == null)
+					continue;
+				Batch batch = batches.get(connection.device);
+				if (batch == null) {
+					batch = new Batch();
+					batches.put(connection.device, batch);
+				} else
+					batch.values.append(',');
+				batch.values.append(batchEntry);
+				if (update.metrics != null) {
+					update.metrics.sent(1, update.jsonSize);
+					batch.metrics.add(update.metrics);
+				}
+			}
+		}
+		for (Map.Entry<UpDevice, Batch> entry : batches.entrySet()) {
+			Batch batch = entry.getValue();
+			Notify n = new Notify(UPDATE_BATCH_EVENT_NAME, DRIVER_NAME, instanceId);
+			n.addParameter(VALUES_PARAM_NAME, batch.values.append('}').toString());
+			sendSafely(n, entry.getKey(), null, batch.metrics);
+		}
+	}
+
+	/**
+	 * Values of many pins for a device, and the metrics of those pins.
+	 */
+	private static final class Batch {
+		final StringBuilder values = new StringBuilder("{");
+		final List<PinMetrics> metrics = new ArrayList<PinMetrics>();
+	}
+
+	private void offer(UpdateConflator conflator, String pinName, Object value) {
+		if (!conflator.offer(value)) {
+			PinMetrics m = metricsFor(pinName);
+			if (m != null)
+				m.conflated();
+		}
+	}
+
+	/**
+	 * Makes changes to a pin be sent in latest-value-wins mode: values changed
+	 * in a burst are collapsed into a single update with the latest one, sent
+	 * at most once per interval. Useful for consumers that only care about
+	 * the current value, such as displays. Updates are handed by a thread
+	 * shared by all conflated pins to the sender or, if it sends inline, to
+	 * sender lanes of the driver's own, so a slow device never delays the
+	 * updates of other pins.
+	 * 
+	 * @param pinName
+	 *            the pin.
+	 * @param interval
+	 *            the minimum interval between updates; with zero, updates are
+	 *            sent as fast as they can, collapsing any values changed while
+	 *            the previous update was being handed to the sender.
+	 * @param unit
+	 *            the interval unit.
+	 */
+	public void setConflation(String pinName, long interval, TimeUnit unit) {
+		if (pinDao.find(pinName) == null)
+			throw new IllegalArgumentException("informed pin does not exist");
+		UpdateConflator conflator = new UpdateConflator(conflationScheduler(), interval, unit,
+				value -> fireConflated(pinName, value));
+		UpdateConflator previous = conflators.put(pinName, conflator);
+		if (previous != null)
+			previous.cancel();
+	}
+
+	/**
+	 * Makes every change to a pin be sent right away, which is the default.
+	 * 
+	 * @param pinName
+	 *            the pin.
+	 */
+	public void clearConflation(String pinName) {
+		UpdateConflator previous = conflators.remove(pinName);
+		if (previous != null)
+			previous.cancel();
+	}
+
+	/**
+	 * Starts keeping the latest values of a pin, both incoming and changed
+	 * locally, with the time they were received or changed. Values are
+	 * recorded by the thread that receives or changes them, before being
+	 * handed to listeners or devices; local changes are validated against the
+	 * pin type first, and only recorded if valid. Neither recording nor
+	 * reading takes locks. Replaces any previous history of the pin.
+	 * 
+	 * @param pinName
+	 *            the pin, which must be a scalar or an array of scalars.
+	 * @param capacity
+	 *            the maximum number of values kept.
+	 * 
+	 * @see #getHistory(String)
+	 */
+	public void enableHistory(String pinName, int capacity) {
+		UhpPin pin = pinDao.find(pinName);
+		if (pin == null)
+			throw new IllegalArgumentException("informed pin does not exist");
+		histories.put(pinName, new PinHistory(pin.getType(), capacity));
+	}
+
+	/**
+	 * Stops keeping the values of a pin, discarding the ones kept so far.
+	 * 
+	 * @param pinName
+	 *            the pin.
+	 */
+	public void disableHistory(String pinName) {
+		histories.remove(pinName);
+	}
+
+	/**
+	 * @return the history of the given pin, or null if it is not kept.
+	 */
+	public PinHistory getHistory(String pinName) {
+		if (pinDao.find(pinName) == null)
+			throw new IllegalArgumentException("informed pin does not exist");
+		return histories.get(pinName);
+	}
+
+	/**
+	 * Records a value changed locally, which unlike incoming values has not
+	 * been extracted, and so validated, yet.
+	 */
+	private void recordChanged(UhpPin pin, Object value) {
+		PinHistory history = histories.get(pin.getName());
+		if (history == null)
+			return;
+		Object extracted;
+		try {
+			extracted = pin.getType().getPrimitiveExtractor().extract(value);
+		} catch (RuntimeException e) {
+			logger.log(Level.SEVERE, "Invalid value of pin " + pin.getName() + ", not recorded.", e);
+			return;
+		}
+		record(history, extracted);
+	}
+
+	private static void record(PinHistory history, Object value) {
+		try {
+			history.append(System.currentTimeMillis(), value);
+		} catch (RuntimeException e) {
+			logger.log(Level.SEVERE, "Failed while recording pin history.", e);
+		}
+	}
+
+	private synchronized ScheduledExecutorService conflationScheduler() {
+		if (conflationScheduler == null) {
+			conflationScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "unbihealth-pin-conflation");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return conflationScheduler;
+	}
+
+	/**
+	 * @return the sender of conflated updates: the sender, unless it sends
+	 *         inline, in which case the updates would be sent by the
+	 *         conflation thread, so one slow device would delay the updates
+	 *         of every conflated pin.
+	 */
+	private PinDispatcher conflationSender() {
+		PinDispatcher s = sender;
+		if (s != PinDispatcher.INLINE)
+			return s;
+		SerialPinDispatcher c = conflationSender;
+		if (c != null)
+			return c;
+		synchronized (this) {
+			if (conflationSender == null) {
+				conflationSenderExecutor = Executors.newCachedThreadPool(r -> {
+					Thread thread = new Thread(r, "unbihealth-pin-conflation-send");
+					thread.setDaemon(true);
+					return thread;
+				});
+				conflationSender = new SerialPinDispatcher(conflationSenderExecutor, DEFAULT_DISPATCH_CAPACITY,
+						SerialPinDispatcher.OverflowPolicy.DROP_OLDEST);
+			}
+			return conflationSender;
+		}
+	}
+
+	/**
+	 * Sets how incoming events are delivered to pin listeners. Defaults to
+	 * {@link PinDispatcher#INLINE}, or to a {@link SerialPinDispatcher} as
+	 * configured by the initial properties.
+	 * 
+	 * @param dispatcher
+	 *            the dispatcher.
+	 */
+	public void setDispatcher(PinDispatcher dispatcher) {
+		if (dispatcher == null)
+			throw new IllegalArgumentException("dispatcher must not be null");
+		PinDispatcher previous = this.dispatcher;
+		this.dispatcher = dispatcher;
+		if (previous != dispatcher)
+			previous.shutdown();
+	}
+
+	public PinDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Sets how outgoing events are sent to connected devices. Tasks are
+	 * dispatched by device, so a {@link SerialPinDispatcher} keeps the
+	 * events of each device in order while sending to different devices
+	 * concurrently. Defaults to {@link PinDispatcher#INLINE}, or to a
+	 * {@link SerialPinDispatcher} as configured by the initial properties.
+	 * 
+	 * @param sender
+	 *            the dispatcher for outgoing events.
+	 */
+	public void setSender(PinDispatcher sender) {
+		if (sender == null)
+			throw new IllegalArgumentException("sender must not be null");
+		PinDispatcher previous = this.sender;
+		this.sender = sender;
+		if (previous != sender)
+			previous.shutdown();
+	}
+
+	public PinDispatcher getSender() {
+		return sender;
+	}
+
+	/**
+	 * Starts collecting {@link PinMetrics} for all pins. While disabled,
+	 * metrics cost a single volatile read per event.
+	 * 
+	 * @param exported
+	 *            whether to also register each pin's metrics as an MBean in
+	 *            the platform MBean server, named after
+	 *            {@link #METRICS_DOMAIN}, the driver instance and the pin.
+	 */
+	public synchronized void enableMetrics(boolean exported) {
+		disableMetrics();
+		metricsExported = exported;
+		metrics = new ConcurrentHashMap<String, PinMetrics>();
+	}
+
+	/**
+	 * Stops collecting metrics, discarding the ones collected so far.
+	 */
+	public synchronized void disableMetrics() {
+		ConcurrentMap<String, PinMetrics> previous = metrics;
+		metrics = null;
+		if (previous != null) {
+			for (String pinName : previous.keySet())
+				unregisterMetrics(pinName);
+		}
+	}
+
+	public boolean isMetricsEnabled() {
+		return metrics != null;
+	}
+
+	/**
+	 * @return the metrics of the given pin, or null if metrics are disabled.
+	 */
+	public PinMetrics getMetrics(String pinName) {
 		if (pinDao.find(pinName) == null)
 			throw new IllegalArgumentException("informed pin does not exist");
-		fireDriverEvent(pinName, UPDATE_EVENT_NAME, newValue);
+		return metricsFor(pinName);
+	}
+
+	/**
+	 * @return the metrics of all the pins that had any traffic, by pin name;
+	 *         empty if metrics are disabled.
+	 */
+	public Map<String, PinMetrics> getMetrics() {
+		ConcurrentMap<String, PinMetrics> current = metrics;
+		if (current == null)
+			return Collections.emptyMap();
+		return Collections.unmodifiableMap(new HashMap<String, PinMetrics>(current));
+	}
+
+	private PinMetrics metricsFor(String pinName) {
+		ConcurrentMap<String, PinMetrics> current = metrics;
+		if (current == null)
+			return null;
+		PinMetrics m = current.get(pinName);
+		if (m == null) {
+			PinMetrics newMetrics = new PinMetrics(pinName, () -> {
+				PinDispatcher d = dispatcher;
+				return (d instanceof SerialPinDispatcher) ? ((SerialPinDispatcher) d).getDropped(pinName) : 0;
+			});
+			m = current.putIfAbsent(pinName, newMetrics);
+			if (m == null) {
+				m = newMetrics;
+				if (metricsExported)
+					registerMetrics(m);
+			}
+		}
+		return m;
+	}
+
+	private void removeMetrics(String pinName) {
+		ConcurrentMap<String, PinMetrics> current = metrics;
+		if ((current != null) && (current.remove(pinName) != null))
+			unregisterMetrics(pinName);
+	}
+
+	private ObjectName metricsName(String pinName) throws MalformedObjectNameException {
+		return new ObjectName(METRICS_DOMAIN + ":type=PinMetrics,driver=" + ObjectName.quote(String.valueOf(instanceId))
+				+ ",pin=" + ObjectName.quote(pinName));
+	}
+
+	private void registerMetrics(PinMetrics m) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(m, metricsName(m.getPinName()));
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to export metrics of pin " + m.getPinName() + ".", e);
+		}
+	}
+
+	private void unregisterMetrics(String pinName) {
+		if (!metricsExported)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = metricsName(pinName);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed to unexport metrics of pin " + pinName + ".", e);
+		}
 	}
 
 	// UOS interface...
@@ -184,11 +940,32 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 		this.instanceId = instanceId;
 		try {
 			gateway.register(this, null, DRIVER_NAME, UPDATE_EVENT_NAME);
+			gateway.register(this, null, DRIVER_NAME, UPDATE_BATCH_EVENT_NAME);
 		} catch (NotifyException e) {
 			logger.log(Level.SEVERE, "Failed to register for update events.", e);
 		}
 		pinDao.clear();
+		synchronized (catalogChanges) {
+			catalogEpoch = Long.toHexString(System.currentTimeMillis());
+			catalogVersion.incrementAndGet();
+			catalogChanges.clear();
+		}
+		catalogDevices.clear();
+		pinListeners.clear();
 		driverListeners.clear();
+		histories.clear();
+		clearConflations();
+		setDispatcher(createDispatcher(properties, DISPATCH_THREADS_PROPERTY, DISPATCH_CAPACITY_PROPERTY,
+				DISPATCH_OVERFLOW_PROPERTY, SerialPinDispatcher.OverflowPolicy.BLOCK));
+		setSender(createDispatcher(properties, SEND_THREADS_PROPERTY, SEND_CAPACITY_PROPERTY,
+				SEND_OVERFLOW_PROPERTY, SerialPinDispatcher.OverflowPolicy.DROP_OLDEST));
+		Object metricsMode = (properties == null) ? null : properties.get(METRICS_PROPERTY);
+		if ("jmx".equals(String.valueOf(metricsMode)))
+			enableMetrics(true);
+		else if (Boolean.parseBoolean(String.valueOf(metricsMode)))
+			enableMetrics(false);
+		else
+			disableMetrics();
 	}
 
 	public void destroy() {
@@ -197,24 +974,156 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 		} catch (NotifyException e) {
 			logger.log(Level.SEVERE, "Failed to unregister for update events.", e);
 		}
+		setDispatcher(PinDispatcher.INLINE);
+		setSender(PinDispatcher.INLINE);
+		disableMetrics();
+		clearConflations();
+		synchronized (this) {
+			if (conflationScheduler != null) {
+				conflationScheduler.shutdown();
+				conflationScheduler = null;
+			}
+			if (conflationSender != null) {
+				conflationSender.shutdown();
+				conflationSenderExecutor.shutdown();
+				conflationSender = null;
+				conflationSenderExecutor = null;
+			}
+		}
+	}
+
+	/**
+	 * Cancels the pending values and scheduled sends of all conflated pins.
+	 */
+	private void clearConflations() {
+		for (String pinName : conflators.keySet())
+			clearConflation(pinName);
+	}
+
+	private static PinDispatcher createDispatcher(InitialProperties properties, String threadsProperty,
+			String capacityProperty, String overflowProperty, SerialPinDispatcher.OverflowPolicy defaultPolicy) {
+		if (properties == null)
+			return PinDispatcher.INLINE;
+		try {
+			Object threads = properties.get(threadsProperty);
+			if ((threads == null) || (Integer.parseInt(threads.toString()) < 1))
+				return PinDispatcher.INLINE;
+			Object capacity = properties.get(capacityProperty);
+			Object policy = properties.get(overflowProperty);
+			return new SerialPinDispatcher(Integer.parseInt(threads.toString()),
+					(capacity == null) ? DEFAULT_DISPATCH_CAPACITY : Integer.parseInt(capacity.toString()),
+					(policy == null) ? defaultPolicy : SerialPinDispatcher.OverflowPolicy.valueOf(policy.toString()));
+		} catch (IllegalArgumentException e) {
+			logger.log(Level.SEVERE, "Invalid dispatch configuration, dispatching inline.", e);
+			return PinDispatcher.INLINE;
+		}
 	}
 
 	/**
 	 * This service lists all available pins.
 	 * 
+	 * The serialized catalog is kept until a pin is added or removed, so
+	 * repeated calls cost no serialization, and callers that send back the
+	 * {@link #VERSION_PARAM_NAME} they got are only told the catalog was
+	 * {@link #NOT_MODIFIED_RESULT}.
+	 * 
 	 * @param gateway
 	 * @param properties
 	 * @param instanceId
 	 */
 	public void list(Call call, Response response, CallContext context) {
 		try {
-			List<UhpPin> pins = pinDao.list();
-			response.addParameter(PINS_FIELD_NAME, mapper.valueToTree(pins));
+			String since = call.getParameterString(SINCE_PARAM_NAME);
+			if (since != null) {
+				ArrayNode changes = mapper.createArrayNode();
+				String version = changesSince(since, changes);
+				if (version != null) {
+					response.addParameter(VERSION_PARAM_NAME, version);
+					response.addParameter(CHANGES_FIELD_NAME, changes);
+					return;
+				}
+			}
+			PinCatalog current = catalog();
+			response.addParameter(VERSION_PARAM_NAME, current.version);
+			if (current.version.equals(call.getParameterString(VERSION_PARAM_NAME)))
+				response.addParameter("result", NOT_MODIFIED_RESULT);
+			else
+				response.addParameter(PINS_FIELD_NAME, current.pins);
 		} catch (Throwable t) {
 			response.setError(t.toString());
 		}
 	}
 
+	/**
+	 * Collects the catalog changes made after the given version.
+	 * 
+	 * @return the current version, or null if the changes since the given
+	 *         version are not known.
+	 */
+	private String changesSince(String since, ArrayNode changes) {
+		int separator = since.lastIndexOf('-');
+		if (separator < 0)
+			return null;
+		long number;
+		try {
+			number = Long.parseLong(since.substring(separator + 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		synchronized (catalogChanges) {
+			long current = catalogVersion.get();
+			if (!catalogEpoch.equals(since.substring(0, separator)) || (number > current))
+				return null;
+			if ((number < current) && (catalogChanges.isEmpty() || (catalogChanges.peekFirst().number > number + 1)))
+				return null;
+			for (CatalogChange change : catalogChanges) {
+				if (change.number > number)
+					changes.add(change.json);
+			}
+			return version(catalogEpoch, current);
+		}
+	}
+
+	private void catalogChanged(String change, String pinName, UhpPin pin) {
+		CatalogChange entry;
+		synchronized (catalogChanges) {
+			long number = catalogVersion.incrementAndGet();
+			entry = new CatalogChange(number, version(catalogEpoch, number), change, pinName, pin);
+			if (catalogChanges.size() == CATALOG_HISTORY_SIZE)
+				catalogChanges.removeFirst();
+			catalogChanges.addLast(entry);
+		}
+		if (catalogDevices.isEmpty())
+			return;
+		Notify n = new Notify(CATALOG_EVENT_NAME, DRIVER_NAME, instanceId);
+		n.addParameter(PIN_PARAM_NAME, pinName);
+		n.addParameter(CHANGE_PARAM_NAME, change);
+		n.addParameter(VERSION_PARAM_NAME, entry.version);
+		if (pin != null)
+			n.addParameter(DECLARATION_PARAM_NAME, pin.toString());
+		for (UpDevice device : catalogDevices)
+			sendSafely(n, device, null, null);
+	}
+
+	private static String version(String epoch, long number) {
+		return epoch + "-" + number;
+	}
+
+	private PinCatalog catalog() {
+		long version = catalogVersion.get();
+		String epoch = catalogEpoch;
+		PinCatalog current = catalog;
+		if ((current != null) && (current.number == version) && current.epoch.equals(epoch))
+			return current;
+		List<UhpPin> pins = pinDao.list();
+		current = new PinCatalog(epoch, version, mapper.valueToTree(pins));
+		// Only cached if no pin changed while serializing; otherwise the next
+		// call serializes again.
+		if (catalogVersion.get() == version)
+			catalog = current;
+		return current;
+	}
+
 	/**
 	 * This service connects a device to a pin.
 	 * 
@@ -222,7 +1131,7 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 	 * @param properties
 	 * @param instanceId
 	 */
-	public synchronized void connect(Call call, Response response, CallContext context) {
+	public void connect(Call call, Response response, CallContext context) {
 		UpDevice device = context.getCallerDevice();
 		if (device == null)
 			throw new NullPointerException("device");
@@ -237,13 +1146,49 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 			response.setError("informed pin does not exist");
 			return;
 		}
-		Set<UpDevice> devices = driverListeners.getOrDefault(pinName, new HashSet<UpDevice>());
-		if (devices.contains(device)) {
+		String encoding = call.getParameterString(ENCODING_PARAM_NAME);
+		if ((encoding != null) && !JSON_ENCODING.equals(encoding) && !BINARY_ENCODING.equals(encoding)) {
+			response.setError("unsupported encoding");
+			return;
+		}
+		Connection connection = new Connection(device, Boolean.parseBoolean(call.getParameterString(BATCH_PARAM_NAME)),
+				BINARY_ENCODING.equals(encoding));
+		Set<Connection> connections = setFor(driverListeners, pinName);
+		if (!connections.add(connection)) {
 			response.setError("device already connected to this pin");
 			return;
 		}
-		devices.add(device);
-		driverListeners.put(pinName, devices);
+		if (pinDao.find(pinName) != pin) {
+			// The pin was removed (or replaced) concurrently.
+			connections.remove(connection);
+			response.setError("informed pin does not exist");
+			return;
+		}
+		response.addParameter("result", "ok");
+		response.addParameter(ENCODING_PARAM_NAME, (encoding == null) ? JSON_ENCODING : encoding);
+	}
+
+	/**
+	 * Disconnects the calling device from a pin, so it is no longer sent the
+	 * pin's updates. The options given when connecting are dropped with the
+	 * connection.
+	 */
+	public void disconnect(Call call, Response response, CallContext context) {
+		UpDevice device = context.getCallerDevice();
+		if (device == null)
+			throw new NullPointerException("device");
+
+		String pinName = call.getParameterString(PIN_PARAM_NAME);
+		if ((pinName == null) || pinName.isEmpty()) {
+			response.setError("no pin informed");
+			return;
+		}
+		Set<Connection> connections = driverListeners.get(pinName);
+		if ((connections == null) || !connections.remove(new Connection(device, false, false))) {
+			response.setError("device not connected to this pin");
+			return;
+		}
+		discardLane(device);
 		response.addParameter("result", "ok");
 	}
 
@@ -253,43 +1198,529 @@ public class PinDriver implements UosEventDriver, UosEventListener {
 	 * @param event
 	 *            the captured event.
 	 */
-	public synchronized void handleEvent(Notify event) {
+	public void handleEvent(Notify event) {
+		if (UPDATE_BATCH_EVENT_NAME.equals(event.getEventKey())) {
+			handleBatch(event);
+			return;
+		}
+
 		UhpPin pin = pinDao.find((String) event.getParameter(PIN_PARAM_NAME));
 		if (pin == null)
 			return;
+		PinMetrics m = metricsFor(pin.getName());
+		Object value = event.getParameter(VALUE_PARAM_NAME);
+		String text = (value == null) ? null : value.toString();
+		if (m != null)
+			m.received(PinMetrics.utf8Length(text));
 		Set<PinListener> listeners = pinListeners.get(pin.getName());
-		if (listeners == null)
+		PinHistory history = histories.get(pin.getName());
+		if ((listeners == null) && (history == null))
 			return;
 
+		long start = (m == null) ? 0 : System.nanoTime();
+		Object newValue;
+		boolean primitive = (listeners == null) || hasPrimitiveListener(listeners);
 		try {
-			JsonNode src = mapper.readTree(event.getParameter(VALUE_PARAM_NAME).toString());
-			Object newValue = pin.getType().extractValue(src);
-			for (PinListener listener : listeners)
-				listener.valueChanged(pin, newValue);
+			if (text == null)
+				throw new IllegalArgumentException("no value informed");
+			UhpExtractor extractor = primitive ? pin.getType().getPrimitiveExtractor() : pin.getType().getExtractor();
+			if (BINARY_ENCODING.equals(event.getParameter(ENCODING_PARAM_NAME)))
+				newValue = extractor.extractBinary(Base64.getDecoder().decode(text));
+			else
+				newValue = extractor.extractJson(text);
 		} catch (Exception e) {
+			if (m != null)
+				m.extractionFailed();
 			logger.log(Level.SEVERE, "Failed while handling incoming event.", e);
+			return;
 		}
+		if (m != null)
+			m.decoded(System.nanoTime() - start);
+		if (history != null)
+			record(history, newValue);
+		if (listeners != null)
+			dispatch(pin, listeners, newValue, primitive, m);
 	}
 
-	private void fireDriverEvent(String pinName, String eventKey, Object newValue) {
+	/**
+	 * @return the size of the text read by the parser since the given offset.
+	 */
+	private static long sizeSince(String text, long offset, JsonParser parser) {
+		return PinMetrics.utf8Length(text, (int) offset, (int) parser.getCurrentLocation().getCharOffset());
+	}
+
+	/**
+	 * Reads a batch of values straight from its JSON object, skipping pins
+	 * that are unknown or have no listeners. An invalid value only discards
+	 * that pin's update.
+	 */
+	private void handleBatch(Notify event) {
+		Object values = event.getParameter(VALUES_PARAM_NAME);
+		if (values == null)
+			return;
+		String text = values.toString();
 		try {
-			Set<UpDevice> listeners = driverListeners.get(pinName);
-			if (listeners != null) {
-				Notify n = new Notify(eventKey, DRIVER_NAME, instanceId);
-				n.addParameter(PIN_PARAM_NAME, pinName);
-				if (UPDATE_EVENT_NAME.equals(eventKey))
-					n.addParameter(VALUE_PARAM_NAME, mapper.writeValueAsString(newValue));
-				for (UpDevice device : listeners)
-					gateway.notify(n, device);
+			JsonParser parser = mapper.getFactory().createParser(text);
+			try {
+				if (parser.nextToken() != JsonToken.START_OBJECT)
+					throw new IllegalArgumentException("expected a json object of values");
+				JsonStreamContext batchContext = parser.getParsingContext();
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String pinName = parser.getCurrentName();
+					parser.nextToken();
+					UhpPin pin = pinDao.find(pinName);
+					PinMetrics m = (pin == null) ? null : metricsFor(pinName);
+					long offset = (m == null) ? 0 : parser.getTokenLocation().getCharOffset();
+					long start = (m == null) ? 0 : System.nanoTime();
+					Set<PinListener> listeners = (pin == null) ? null : pinListeners.get(pinName);
+					PinHistory history = (pin == null) ? null : histories.get(pinName);
+					if ((listeners == null) && (history == null)) {
+						parser.skipChildren();
+						if (m != null)
+							m.received(sizeSince(text, offset, parser));
+						continue;
+					}
+					boolean primitive = (listeners == null) || hasPrimitiveListener(listeners);
+					Object newValue;
+					try {
+						if (primitive)
+							newValue = pin.getType().getPrimitiveExtractor().extract(parser);
+						else
+							newValue = pin.getType().getExtractor().extract(parser);
+					} catch (RuntimeException e) {
+						logger.log(Level.SEVERE, "Failed while handling incoming value for pin " + pinName + ".", e);
+						// Moves past the rest of the invalid value.
+						while (parser.getParsingContext() != batchContext)
+							parser.nextToken();
+						if (m != null) {
+							m.received(sizeSince(text, offset, parser));
+							m.extractionFailed();
+						}
+						continue;
+					}
+					if (m != null) {
+						m.received(sizeSince(text, offset, parser));
+						m.decoded(System.nanoTime() - start);
+					}
+					if (history != null)
+						record(history, newValue);
+					if (listeners != null)
+						dispatch(pin, listeners, newValue, primitive, m);
+				}
+			} finally {
+				parser.close();
 			}
 		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Failed while handling incoming event.", e);
+		}
+	}
+
+	private void dispatch(UhpPin pin, Set<PinListener> listeners, Object newValue, boolean primitive,
+			PinMetrics m) {
+		if (m == null) {
+			dispatcher.dispatch(pin.getName(), () -> notifyListeners(pin, listeners, newValue, primitive));
+			return;
+		}
+		dispatcher.dispatch(pin.getName(), () -> {
+			long start = System.nanoTime();
+			notifyListeners(pin, listeners, newValue, primitive);
+			m.listened(System.nanoTime() - start);
+		});
+	}
+
+	/**
+	 * Notifies each listener on its own, so a failing listener does not keep
+	 * the others from the value.
+	 */
+	private static void notifyListeners(UhpPin pin, Set<PinListener> listeners, Object value, boolean primitive) {
+		Object boxedValue = primitive ? null : value;
+		for (PinListener listener : listeners) {
+			try {
+				if (isPrimitive(listener))
+					listener.valueChanged(pin, value);
+				else {
+					if (boxedValue == null)
+						boxedValue = pin.getType().getExtractor().extract(value);
+					listener.valueChanged(pin, boxedValue);
+				}
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Failed while handling incoming event.", e);
+			}
+		}
+	}
+
+	private static boolean isPrimitive(PinListener listener) {
+		return (listener instanceof DoubleArrayPinListener) || (listener instanceof FloatArrayPinListener)
+				|| (listener instanceof LongArrayPinListener);
+	}
+
+	private static boolean hasPrimitiveListener(Set<PinListener> listeners) {
+		for (PinListener listener : listeners) {
+			if (isPrimitive(listener))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean acceptsType(PinListener listener, UhpType type) {
+		BaseType elementBase = null;
+		boolean single = false;
+		if ((type.getBaseType() == BaseType.ARRAY) && (type.getElementType() != null)) {
+			elementBase = type.getElementType().getBaseType();
+			single = type.getElementType().getContPrecision() == Precision.SINGLE;
+		}
+		if (listener instanceof DoubleArrayPinListener)
+			return (elementBase == BaseType.CONTINUOUS) && !single;
+		if (listener instanceof FloatArrayPinListener)
+			return (elementBase == BaseType.CONTINUOUS) && single;
+		if (listener instanceof LongArrayPinListener)
+			return elementBase == BaseType.DISCRETE;
+		return true;
+	}
+
+	private static <T> Set<T> setFor(ConcurrentMap<String, Set<T>> map, String pinName) {
+		Set<T> set = map.get(pinName);
+		if (set == null) {
+			Set<T> newSet = new CopyOnWriteArraySet<T>();
+			set = map.putIfAbsent(pinName, newSet);
+			if (set == null)
+				set = newSet;
+		}
+		return set;
+	}
+
+	/**
+	 * A new value of a pin on its way out, encoded once for each encoding in
+	 * use by the connections it is sent to, before any of them is sent. A
+	 * value that fails to encode is only dropped for the connections that
+	 * need that encoding.
+	 */
+	private final class OutgoingUpdate {
+		final String pinName;
+		final PinMetrics metrics;
+		private final List<PinMetrics> counted;
+		/** The pin name and value as JSON, or null if not needed or invalid. */
+		String jsonName;
+		String json;
+		long jsonSize;
+		private Notify jsonNotify;
+		private Notify binaryNotify;
+		private int binarySize;
+
+		OutgoingUpdate(UhpPin pin, Object value, Collection<Connection> connections) {
+			this.pinName = pin.getName();
+			this.metrics = metricsFor(pinName);
+			this.counted = (metrics == null) ? null : Collections.singletonList(metrics);
+			boolean needsJson = false, needsBinary = false;
+			for (Connection connection : connections) {
+				if (connection.binary && !connection.batch)
+					needsBinary = true;
+				else
+					needsJson = true;
+			}
+			if (needsJson) {
+				try {
+					jsonName = mapper.writeValueAsString(pinName);
+					json = mapper.writeValueAsString(value);
+					jsonNotify = updateNotify(json);
+					jsonSize = PinMetrics.utf8Length(json);
+				} catch (Exception e) {
+					json = null;
+					logger.log(Level.SEVERE, "Failed to encode outgoing value of pin " + pinName + ".", e);
+				}
+			}
+			if (needsBinary) {
+				try {
+					String text = Base64.getEncoder().encodeToString(pin.getType().getExtractor().encode(value));
+					binaryNotify = updateNotify(text);
+					binaryNotify.addParameter(ENCODING_PARAM_NAME, BINARY_ENCODING);
+					// Base64 is ASCII, a byte per char.
+					binarySize = text.length();
+				} catch (Exception e) {
+					logger.log(Level.SEVERE, "Failed to encode outgoing value of pin " + pinName + ".", e);
+				}
+			}
+		}
+
+		/**
+		 * Sends the update as a single event, unless its encoding failed.
+		 */
+		void sendTo(Connection connection) {
+			sendTo(connection, sender);
+		}
+
+		void sendTo(Connection connection, PinDispatcher through) {
+			Notify n = connection.binary ? binaryNotify : jsonNotify;
+			if (n == null)
+				return;
+			if (metrics != null)
+				metrics.sent(1, connection.binary ? binarySize : jsonSize);
+			sendSafely(n, connection.device, metrics, counted, through);
+		}
+
+		private Notify updateNotify(String text) {
+			Notify n = new Notify(UPDATE_EVENT_NAME, DRIVER_NAME, instanceId);
+			n.addParameter(PIN_PARAM_NAME, pinName);
+			n.addParameter(VALUE_PARAM_NAME, text);
+			return n;
+		}
+	}
+
+	/**
+	 * Hands a fully built event to the sender, so that a failure to do so only
+	 * affects that device. The event must not be changed afterwards, as it may
+	 * be shared by many devices and sent concurrently.
+	 * 
+	 * @param timed
+	 *            the metrics recording the notify latency, if any.
+	 * @param counted
+	 *            the metrics counting the event if it is dropped, if any.
+	 */
+	private void sendSafely(Notify n, UpDevice device, PinMetrics timed, List<PinMetrics> counted) {
+		sendSafely(n, device, timed, counted, sender);
+	}
+
+	private void sendSafely(Notify n, UpDevice device, PinMetrics timed, List<PinMetrics> counted,
+			PinDispatcher through) {
+		SendTask task = new SendTask(gateway, n, device, timed, counted);
+		try {
+			through.dispatch(laneOf(device), task);
+		} catch (RuntimeException e) {
+			task.discarded();
 			logger.log(Level.SEVERE, "Failed while firing outgoing event.", e);
 		}
 	}
 
+	private static final class SendTask implements PinDispatcher.DiscardableTask {
+		private final Gateway gateway;
+		private final Notify n;
+		private final UpDevice device;
+		private final PinMetrics timed;
+		private final List<PinMetrics> counted;
+
+		SendTask(Gateway gateway, Notify n, UpDevice device, PinMetrics timed, List<PinMetrics> counted) {
+			this.gateway = gateway;
+			this.n = n;
+			this.device = device;
+			this.timed = timed;
+			this.counted = counted;
+		}
+
+		public void run() {
+			long start = (timed == null) ? 0 : System.nanoTime();
+			try {
+				gateway.notify(n, device);
+			} catch (Exception e) {
+				logger.log(Level.SEVERE, "Failed while firing outgoing event.", e);
+			}
+			if (timed != null)
+				timed.notified(System.nanoTime() - start);
+		}
+
+		public void discarded() {
+			if (counted != null) {
+				for (PinMetrics m : counted)
+					m.outgoingDropped();
+			}
+		}
+	}
+
+	/**
+	 * @return the sender key of a device: its name or, for unnamed devices,
+	 *         its identity, so unnamed devices do not share a lane.
+	 */
+	private static String laneOf(UpDevice device) {
+		String name = device.getName();
+		if (name != null)
+			return "name:" + name;
+		return "device@" + Integer.toHexString(System.identityHashCode(device));
+	}
+
+	/**
+	 * Discards the sender lane of a device that is no longer connected to any
+	 * pin nor registered for catalog events. Events already handed to the
+	 * lane are still sent.
+	 */
+	private void discardLane(UpDevice device) {
+		if (catalogDevices.contains(device))
+			return;
+		Connection connection = new Connection(device, false, false);
+		for (Set<Connection> connections : driverListeners.values()) {
+			if (connections.contains(connection))
+				return;
+		}
+		sender.discard(laneOf(device));
+		SerialPinDispatcher c = conflationSender;
+		if (c != null)
+			c.discard(laneOf(device));
+	}
+
+	/**
+	 * Hands a conflated value to the sender lanes of the connected devices,
+	 * on the conflation thread, which never sends it itself.
+	 */
+	private void fireConflated(String pinName, Object newValue) {
+		Set<Connection> listeners = driverListeners.get(pinName);
+		UhpPin pin = pinDao.find(pinName);
+		if ((listeners == null) || listeners.isEmpty() || (pin == null))
+			return;
+		OutgoingUpdate update = new OutgoingUpdate(pin, newValue, listeners);
+		PinDispatcher through = conflationSender();
+		for (Connection connection : listeners)
+			update.sendTo(connection, through);
+	}
+
+	private void fireDriverEvent(String pinName, String eventKey, Object newValue) {
+		fireDriverEvent(pinName, eventKey, newValue, driverListeners.get(pinName));
+	}
+
+	private void fireDriverEvent(String pinName, String eventKey, Object newValue, Set<Connection> listeners) {
+		if ((listeners == null) || listeners.isEmpty())
+			return;
+		if (UPDATE_EVENT_NAME.equals(eventKey)) {
+			UhpPin pin = pinDao.find(pinName);
+			// Dropped if the pin was removed concurrently.
+			if (pin == null)
+				return;
+			OutgoingUpdate update = new OutgoingUpdate(pin, newValue, listeners);
+			for (Connection connection : listeners)
+				update.sendTo(connection);
+			return;
+		}
+		Notify n = new Notify(eventKey, DRIVER_NAME, instanceId);
+		n.addParameter(PIN_PARAM_NAME, pinName);
+		for (Connection connection : listeners)
+			sendSafely(n, connection.device, null, null);
+	}
+
+	/**
+	 * Registers the calling device for {@link #CATALOG_EVENT_NAME} events.
+	 * Update events are sent to devices connected to the pins instead.
+	 */
 	public void registerListener(Call call, Response response, CallContext context) {
+		if (!CATALOG_EVENT_NAME.equals(call.getParameterString(EVENT_KEY_PARAM_NAME)))
+			return;
+		UpDevice device = context.getCallerDevice();
+		if (device == null)
+			throw new NullPointerException("device");
+		catalogDevices.add(device);
 	}
 
 	public void unregisterListener(Call call, Response response, CallContext context) {
+		String eventKey = call.getParameterString(EVENT_KEY_PARAM_NAME);
+		UpDevice device = context.getCallerDevice();
+		if (((eventKey == null) || CATALOG_EVENT_NAME.equals(eventKey)) && catalogDevices.remove(device))
+			discardLane(device);
+	}
+
+	/**
+	 * Device connected to a pin, with the options it connected with. A device
+	 * has at most one connection to each pin, so connections compare by
+	 * device.
+	 */
+	private static final class Connection {
+		final UpDevice device;
+		final boolean batch;
+		final boolean binary;
+
+		Connection(UpDevice device, boolean batch, boolean binary) {
+			this.device = device;
+			this.batch = batch;
+			this.binary = binary;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Connection) && device.equals(((Connection) obj).device);
+		}
+
+		@Override
+		public int hashCode() {
+			return device.hashCode();
+		}
+	}
+
+	/**
+	 * Entry of the catalog change history.
+	 */
+	private static final class CatalogChange {
+		final long number;
+		final String version;
+		final ObjectNode json;
+
+		CatalogChange(long number, String version, String change, String pinName, UhpPin pin) {
+			this.number = number;
+			this.version = version;
+			this.json = mapper.createObjectNode();
+			json.put(PIN_PARAM_NAME, pinName);
+			json.put(CHANGE_PARAM_NAME, change);
+			json.put(VERSION_PARAM_NAME, version);
+			if (pin != null)
+				json.set(DECLARATION_PARAM_NAME, mapper.valueToTree(pin));
+		}
+	}
+
+	/**
+	 * Serialized pin list, as of a given catalog version.
+	 */
+	private static final class PinCatalog {
+		final String epoch;
+		final long number;
+		final String version;
+		final JsonNode pins;
+
+		PinCatalog(String epoch, long number, JsonNode pins) {
+			this.epoch = epoch;
+			this.number = number;
+			this.version = version(epoch, number);
+			this.pins = pins;
+		}
+	}
+
+	/**
+	 * Converts values of a pin and dispatches them to the listeners of another.
+	 * Values the target pin does not take, such as ones out of its range, are
+	 * dropped here, and so are values of a source type the binding was not
+	 * compiled for, while the pin is being updated.
+	 */
+	private final class AdaptingListener implements PinListener {
+		final String targetPinName;
+		final UhpAdaptation[] adaptations;
+		volatile UhpConverter converter;
+
+		AdaptingListener(String targetPinName, UhpAdaptation[] adaptations, UhpConverter converter) {
+			this.targetPinName = targetPinName;
+			this.adaptations = adaptations;
+			this.converter = converter;
+		}
+
+		public void valueChanged(UhpPin pin, Object newValue) {
+			UhpPin target = pinDao.find(targetPinName);
+			Set<PinListener> listeners = pinListeners.get(targetPinName);
+			PinHistory history = histories.get(targetPinName);
+			if ((target == null) || (((listeners == null) || listeners.isEmpty()) && (history == null)))
+				return;
+			UhpConverter converter = this.converter;
+			if (!converter.getSourceType().equals(pin.getType()))
+				return;
+			boolean primitive = (listeners == null) || hasPrimitiveListener(listeners);
+			UhpType type = target.getType();
+			UhpExtractor extractor = primitive ? type.getPrimitiveExtractor() : type.getExtractor();
+			Object value;
+			try {
+				value = extractor.extract(converter.convert(newValue));
+			} catch (RuntimeException e) {
+				PinMetrics m = metricsFor(targetPinName);
+				if (m != null)
+					m.extractionFailed();
+				logger.log(Level.SEVERE, "Failed to adapt value of pin " + pin.getName() + " to pin "
+						+ targetPinName + ".", e);
+				return;
+			}
+			if (history != null)
+				record(history, value);
+			if ((listeners != null) && !listeners.isEmpty())
+				dispatch(target, listeners, value, primitive, metricsFor(targetPinName));
+		}
 	}
 }
@@ -0,0 +1,442 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.unbiquitous.unbihealth.core.uhp.UhpType;
+import org.unbiquitous.unbihealth.core.uhp.UhpType.BaseType;
+import org.unbiquitous.unbihealth.core.uhp.UhpType.Precision;
+
+/**
+ * Latest values of a pin, each with the time (in milliseconds) it was
+ * received or changed, kept in a ring buffer of primitives: one {@code long}
+ * per component, holding discrete values as they are and continuous ones as
+ * their raw bits. Only scalars and arrays of scalars are supported.
+ *
+ * Values are written by a single thread at a time, without locks: an append
+ * made while another thread is writing is queued, and written by that
+ * thread before it returns, so appending never blocks. The writer claims the
+ * next slot, writes it and then publishes it. Readers take no lock either.
+ * One slot more than the capacity is kept, so a write under way never
+ * touches a value being read; a read lapped by the writer is retried, and
+ * after {@value #MAX_READ_ATTEMPTS} attempts only the values it read whole
+ * are returned.
+ *
+ * Times never go back: a value appended with an earlier time than the
+ * previous one takes the previous time.
+ *
+ * @author Luciano Santos
+ *
+ * @see PinDriver#enableHistory(String, int)
+ */
+public class PinHistory {
+	/**
+	 * Number of attempts of a read before it returns only the values it read
+	 * whole.
+	 */
+	static final int MAX_READ_ATTEMPTS = 4;
+
+	private final UhpType type;
+	private final int capacity;
+	private final int slots;
+	private final int dimension;
+	private final boolean discrete;
+	private final boolean single;
+	private final boolean array;
+	private final AtomicLongArray times;
+	private final AtomicLongArray values;
+	/** Number of published values. */
+	private final AtomicLong head = new AtomicLong();
+	/** Number of values claimed by the writer, ahead of head while writing. */
+	private final AtomicLong claimed = new AtomicLong();
+	/** Whether a thread is writing, and so the only one to touch lastTime. */
+	private final AtomicBoolean writing = new AtomicBoolean();
+	/** Appends made while another thread was writing. */
+	private final Queue<Pending> pending = new ConcurrentLinkedQueue<Pending>();
+	private long lastTime = Long.MIN_VALUE;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the type is not a scalar or array of scalars, or the
+	 *             capacity is not positive.
+	 */
+	PinHistory(UhpType type, int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		if ((type == null) || !type.isValid())
+			throw new IllegalArgumentException("invalid type");
+		UhpType element = type;
+		int dimension = 1;
+		if (type.getBaseType() == BaseType.ARRAY) {
+			element = type.getElementType();
+			dimension = type.getDimension();
+		}
+		if ((element.getBaseType() != BaseType.DISCRETE) && (element.getBaseType() != BaseType.CONTINUOUS))
+			throw new IllegalArgumentException("history only takes scalars or arrays of scalars");
+		this.type = type;
+		this.capacity = capacity;
+		this.slots = capacity + 1;
+		this.dimension = dimension;
+		this.discrete = element.getBaseType() == BaseType.DISCRETE;
+		this.single = element.getContPrecision() == Precision.SINGLE;
+		this.array = type.getBaseType() == BaseType.ARRAY;
+		this.times = new AtomicLongArray(slots);
+		this.values = new AtomicLongArray(slots * dimension);
+	}
+
+	public UhpType getType() {
+		return type;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of components of each value.
+	 */
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * @return the number of values kept, at most the capacity.
+	 */
+	public int size() {
+		return (int) Math.min(head.get(), capacity);
+	}
+
+	/**
+	 * Appends a value, replacing the oldest one if the history is full.
+	 *
+	 * @param time
+	 *            the time of the value, in milliseconds.
+	 * @param value
+	 *            a number, for scalars, or an {@code Object[]} of numbers,
+	 *            {@code double[]}, {@code float[]} or {@code long[]}, for
+	 *            arrays, as produced by the extractors of the type.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value does not have the shape of the type.
+	 */
+	public void append(long time, Object value) {
+		checkValue(value);
+		if (writing.compareAndSet(false, true)) {
+			try {
+				write(time, value);
+			} finally {
+				release();
+			}
+		} else {
+			pending.add(new Pending(time, value));
+			// The writer may have finished before seeing it.
+			if (writing.compareAndSet(false, true))
+				release();
+		}
+	}
+
+	/**
+	 * Writes the queued values and stops writing, unless a value is queued
+	 * after that and this thread becomes the writer again.
+	 */
+	private void release() {
+		do {
+			Pending p;
+			while ((p = pending.poll()) != null)
+				write(p.time, p.value);
+			writing.set(false);
+		} while (!pending.isEmpty() && writing.compareAndSet(false, true));
+	}
+
+	/**
+	 * Writes the next slot. All the stores are volatile, so none becomes
+	 * visible before the claim, which tells readers the slot is being
+	 * overwritten.
+	 */
+	private void write(long time, Object value) {
+		long seq = head.get();
+		claimed.set(seq + 1);
+		if (time < lastTime)
+			time = lastTime;
+		lastTime = time;
+		int slot = (int) (seq % slots);
+		int base = slot * dimension;
+		if (value instanceof Number)
+			values.set(base, toBits((Number) value));
+		else if (value instanceof double[]) {
+			double[] v = (double[]) value;
+			for (int i = 0; i < dimension; ++i)
+				values.set(base + i, toBits(v[i]));
+		} else if (value instanceof float[]) {
+			float[] v = (float[]) value;
+			for (int i = 0; i < dimension; ++i)
+				values.set(base + i, toBits(v[i]));
+		} else if (value instanceof long[]) {
+			long[] v = (long[]) value;
+			for (int i = 0; i < dimension; ++i)
+				values.set(base + i, discrete ? v[i] : Double.doubleToRawLongBits(v[i]));
+		} else {
+			Object[] v = (Object[]) value;
+			for (int i = 0; i < dimension; ++i)
+				values.set(base + i, toBits((Number) v[i]));
+		}
+		times.set(slot, time);
+		head.set(seq + 1);
+	}
+
+	/**
+	 * @param from
+	 *            the earliest time, inclusive.
+	 *
+	 * @return the values from the given time on, oldest first.
+	 */
+	public Samples since(long from) {
+		return range(from, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param from
+	 *            the earliest time, inclusive.
+	 * @param to
+	 *            the latest time, exclusive.
+	 *
+	 * @return the values between the given times, oldest first.
+	 */
+	public Samples range(long from, long to) {
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; ++attempt) {
+			Samples samples = read(from, to);
+			if (samples != null)
+				return samples;
+		}
+		return readWhole(from, to);
+	}
+
+	/**
+	 * @return the values between the given times, or null if the read was
+	 *         lapped by the writer.
+	 */
+	private Samples read(long from, long to) {
+		long end = head.get();
+		long start = Math.max(0, end - capacity);
+		long first = search(start, end, from);
+		long last = (to <= from) ? first : search(first, end, to);
+		int count = (int) (last - first);
+		long[] sampleTimes = new long[count];
+		long[] sampleValues = new long[count * dimension];
+		for (int i = 0; i < count; ++i) {
+			int slot = (int) ((first + i) % slots);
+			sampleTimes[i] = times.get(slot);
+			for (int c = 0; c < dimension; ++c)
+				sampleValues[i * dimension + c] = values.get(slot * dimension + c);
+		}
+		// Values before claimed - slots may have been overwritten.
+		if (claimed.get() - slots > start)
+			return null;
+		return new Samples(count, sampleTimes, sampleValues);
+	}
+
+	/**
+	 * Copies all the values kept and returns those between the given times
+	 * that were not overwritten while copying them, which may be fewer than
+	 * the ones kept when the read is lapped by the writer.
+	 */
+	private Samples readWhole(long from, long to) {
+		long end = head.get();
+		long start = Math.max(0, end - capacity);
+		int kept = (int) (end - start);
+		long[] keptTimes = new long[kept];
+		long[] keptValues = new long[kept * dimension];
+		for (int i = 0; i < kept; ++i) {
+			int slot = (int) ((start + i) % slots);
+			keptTimes[i] = times.get(slot);
+			for (int c = 0; c < dimension; ++c)
+				keptValues[i * dimension + c] = values.get(slot * dimension + c);
+		}
+		int first = (int) Math.min(Math.max(0, claimed.get() - slots - start), kept);
+		while ((first < kept) && (keptTimes[first] < from))
+			++first;
+		int last = first;
+		while ((last < kept) && (keptTimes[last] < to))
+			++last;
+		int count = last - first;
+		long[] sampleTimes = new long[count];
+		long[] sampleValues = new long[count * dimension];
+		System.arraycopy(keptTimes, first, sampleTimes, 0, count);
+		System.arraycopy(keptValues, first * dimension, sampleValues, 0, count * dimension);
+		return new Samples(count, sampleTimes, sampleValues);
+	}
+
+	/**
+	 * @return the first position in [lo, hi) with a time not before the
+	 *         given one, or hi if there is none.
+	 */
+	private long search(long lo, long hi, long time) {
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (times.get((int) (mid % slots)) < time)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private void checkValue(Object value) {
+		if (value instanceof Number) {
+			if (!array)
+				return;
+		} else if (array) {
+			int length = -1;
+			if (value instanceof double[])
+				length = ((double[]) value).length;
+			else if (value instanceof float[])
+				length = ((float[]) value).length;
+			else if (value instanceof long[])
+				length = ((long[]) value).length;
+			else if (value instanceof Object[]) {
+				Object[] v = (Object[]) value;
+				for (Object e : v) {
+					if (!(e instanceof Number))
+						throw new IllegalArgumentException("expected numeric array elements");
+				}
+				length = v.length;
+			}
+			if (length == dimension)
+				return;
+		}
+		throw new IllegalArgumentException("value does not have the shape of the pin type");
+	}
+
+	private long toBits(Number value) {
+		if (discrete)
+			return value.longValue();
+		return Double.doubleToRawLongBits(value.doubleValue());
+	}
+
+	private long toBits(double value) {
+		if (discrete)
+			return (long) value;
+		return Double.doubleToRawLongBits(value);
+	}
+
+	private static final class Pending {
+		final long time;
+		final Object value;
+
+		Pending(long time, Object value) {
+			this.time = time;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Copy of the values of a history between two times, oldest first.
+	 */
+	public final class Samples {
+		private final int count;
+		private final long[] sampleTimes;
+		private final long[] sampleValues;
+
+		private Samples(int count, long[] sampleTimes, long[] sampleValues) {
+			this.count = count;
+			this.sampleTimes = sampleTimes;
+			this.sampleValues = sampleValues;
+		}
+
+		public int size() {
+			return count;
+		}
+
+		public boolean isEmpty() {
+			return count == 0;
+		}
+
+		/**
+		 * @return the time of the i-th value, in milliseconds.
+		 */
+		public long time(int i) {
+			checkIndex(i);
+			return sampleTimes[i];
+		}
+
+		/**
+		 * @return the given component of the i-th value, as a double.
+		 */
+		public double doubleValue(int i, int component) {
+			long bits = bits(i, component);
+			return discrete ? bits : Double.longBitsToDouble(bits);
+		}
+
+		/**
+		 * @return the given component of the i-th value, as a long.
+		 */
+		public long longValue(int i, int component) {
+			long bits = bits(i, component);
+			return discrete ? bits : (long) Double.longBitsToDouble(bits);
+		}
+
+		/**
+		 * @return the i-th value as produced by the extractor of the type: a
+		 *         {@link Long}, {@link Double} or, for single precision,
+		 *         {@link Float}, for scalars, or an {@code Object[]} of them,
+		 *         for arrays.
+		 */
+		public Object value(int i) {
+			if (!array)
+				return box(bits(i, 0));
+			Object[] result = new Object[dimension];
+			for (int c = 0; c < dimension; ++c)
+				result[c] = box(bits(i, c));
+			return result;
+		}
+
+		/**
+		 * @return the times of all the values.
+		 */
+		public long[] times() {
+			return sampleTimes.clone();
+		}
+
+		/**
+		 * @return the given component of all the values, such as to convert
+		 *         them in batch with a
+		 *         {@link org.unbiquitous.unbihealth.core.uhp.UhpConverter}.
+		 */
+		public double[] column(int component) {
+			checkComponent(component);
+			double[] result = new double[count];
+			for (int i = 0; i < count; ++i) {
+				long bits = sampleValues[i * dimension + component];
+				result[i] = discrete ? bits : Double.longBitsToDouble(bits);
+			}
+			return result;
+		}
+
+		private long bits(int i, int component) {
+			checkIndex(i);
+			checkComponent(component);
+			return sampleValues[i * dimension + component];
+		}
+
+		private Object box(long bits) {
+			if (discrete)
+				return bits;
+			if (single)
+				return (float) Double.longBitsToDouble(bits);
+			return Double.longBitsToDouble(bits);
+		}
+
+		private void checkIndex(int i) {
+			if ((i < 0) || (i >= count))
+				throw new IndexOutOfBoundsException("index " + i + ", size " + count);
+		}
+
+		private void checkComponent(int component) {
+			if ((component < 0) || (component >= dimension))
+				throw new IndexOutOfBoundsException("component " + component + ", dimension " + dimension);
+		}
+	}
+}
@@ -8,6 +8,9 @@ import org.unbiquitous.unbihealth.core.uhp.UhpPin;
  * @author Luciano Santos
  * 
  * @see PinDriver#addPinListener(String, PinListener)
+ * @see DoubleArrayPinListener
+ * @see FloatArrayPinListener
+ * @see LongArrayPinListener
  */
 public interface PinListener {
 
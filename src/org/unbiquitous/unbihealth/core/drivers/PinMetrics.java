@@ -0,0 +1,221 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latencies of the traffic of a single pin.
+ * 
+ * Sizes are those of the payloads, JSON or base64 binary text, in UTF-8
+ * bytes; framing added by the middleware is not counted. Incoming events count
+ * from their arrival, even if they fail extraction; decode latency covers
+ * extraction, listener latency covers calling all the listeners of one event
+ * and notify latency covers each single update sent to a device. Events sent
+ * in batches count as outgoing, but have no notify latency of their own.
+ * 
+ * Dropped events are those discarded by the incoming dispatcher or by the
+ * sender, because a queue was full, and the outgoing updates collapsed by
+ * conflation.
+ * 
+ * @author Luciano Santos
+ * 
+ * @see PinDriver#enableMetrics(boolean)
+ */
+public class PinMetrics implements PinMetricsMXBean {
+	private final String pinName;
+	private final LongSupplier dropped;
+	private final LongAdder eventsIn = new LongAdder();
+	private final LongAdder eventsOut = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder extractionFailures = new LongAdder();
+	private final LongAdder outgoingDropped = new LongAdder();
+	private final LongAdder conflated = new LongAdder();
+	private final LatencyHistogram decode = new LatencyHistogram();
+	private final LatencyHistogram listener = new LatencyHistogram();
+	private final LatencyHistogram notify = new LatencyHistogram();
+
+	PinMetrics(String pinName, LongSupplier dropped) {
+		this.pinName = pinName;
+		this.dropped = dropped;
+	}
+
+	void received(long size) {
+		eventsIn.increment();
+		bytesIn.add(size);
+	}
+
+	void decoded(long nanos) {
+		decode.record(nanos);
+	}
+
+	void extractionFailed() {
+		extractionFailures.increment();
+	}
+
+	void listened(long nanos) {
+		listener.record(nanos);
+	}
+
+	void sent(int events, long size) {
+		eventsOut.add(events);
+		bytesOut.add(events * size);
+	}
+
+	void notified(long nanos) {
+		notify.record(nanos);
+	}
+
+	void outgoingDropped() {
+		outgoingDropped.increment();
+	}
+
+	void conflated() {
+		conflated.increment();
+	}
+
+	/**
+	 * @return the number of bytes of the given text in UTF-8.
+	 */
+	static long utf8Length(CharSequence text, int start, int end) {
+		long length = end - start;
+		for (int i = start; i < end; ++i) {
+			char c = text.charAt(i);
+			if (c >= 0x800) {
+				// Surrogate pairs take four bytes, two per char.
+				if (!Character.isSurrogate(c))
+					length += 2;
+				else
+					++length;
+			} else if (c >= 0x80)
+				++length;
+		}
+		return length;
+	}
+
+	static long utf8Length(CharSequence text) {
+		return (text == null) ? 0 : utf8Length(text, 0, text.length());
+	}
+
+	public String getPinName() {
+		return pinName;
+	}
+
+	public long getEventsIn() {
+		return eventsIn.sum();
+	}
+
+	public long getEventsOut() {
+		return eventsOut.sum();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	public long getExtractionFailures() {
+		return extractionFailures.sum();
+	}
+
+	/**
+	 * @return the number of events dropped for any reason: the sum of
+	 *         {@link #getIncomingDropped()}, {@link #getOutgoingDropped()} and
+	 *         {@link #getConflated()}.
+	 */
+	public long getDropped() {
+		return getIncomingDropped() + getOutgoingDropped() + getConflated();
+	}
+
+	/**
+	 * @return the number of incoming events discarded by the dispatcher,
+	 *         because the pin's queue was full.
+	 */
+	public long getIncomingDropped() {
+		return dropped.getAsLong();
+	}
+
+	/**
+	 * @return the number of outgoing events discarded by the sender, because
+	 *         a device's queue was full, or failing to be handed to it.
+	 */
+	public long getOutgoingDropped() {
+		return outgoingDropped.sum();
+	}
+
+	/**
+	 * @return the number of outgoing values replaced by a later value before
+	 *         being sent, because the pin is conflated.
+	 */
+	public long getConflated() {
+		return conflated.sum();
+	}
+
+	public LatencyHistogram getDecodeLatency() {
+		return decode;
+	}
+
+	public LatencyHistogram getListenerLatency() {
+		return listener;
+	}
+
+	public LatencyHistogram getNotifyLatency() {
+		return notify;
+	}
+
+	public double getDecodeMeanNanos() {
+		return decode.getMeanNanos();
+	}
+
+	public long getDecodeP99Nanos() {
+		return decode.getPercentileNanos(0.99);
+	}
+
+	public long getDecodeMaxNanos() {
+		return decode.getMaxNanos();
+	}
+
+	public double getListenerMeanNanos() {
+		return listener.getMeanNanos();
+	}
+
+	public long getListenerP99Nanos() {
+		return listener.getPercentileNanos(0.99);
+	}
+
+	public long getListenerMaxNanos() {
+		return listener.getMaxNanos();
+	}
+
+	public double getNotifyMeanNanos() {
+		return notify.getMeanNanos();
+	}
+
+	public long getNotifyP99Nanos() {
+		return notify.getPercentileNanos(0.99);
+	}
+
+	public long getNotifyMaxNanos() {
+		return notify.getMaxNanos();
+	}
+
+	/**
+	 * Zeroes all counters and latencies, except for incoming dropped events,
+	 * which are kept by the dispatcher.
+	 */
+	public void reset() {
+		eventsIn.reset();
+		eventsOut.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		extractionFailures.reset();
+		outgoingDropped.reset();
+		conflated.reset();
+		decode.reset();
+		listener.reset();
+		notify.reset();
+	}
+}
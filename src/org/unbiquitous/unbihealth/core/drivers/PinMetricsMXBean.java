@@ -0,0 +1,48 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+/**
+ * JMX view of a {@link PinMetrics}. Latencies are in nanoseconds.
+ *
+ * @author Luciano Santos
+ */
+public interface PinMetricsMXBean {
+	String getPinName();
+
+	long getEventsIn();
+
+	long getEventsOut();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	long getExtractionFailures();
+
+	long getDropped();
+
+	long getIncomingDropped();
+
+	long getOutgoingDropped();
+
+	long getConflated();
+
+	double getDecodeMeanNanos();
+
+	long getDecodeP99Nanos();
+
+	long getDecodeMaxNanos();
+
+	double getListenerMeanNanos();
+
+	long getListenerP99Nanos();
+
+	long getListenerMaxNanos();
+
+	double getNotifyMeanNanos();
+
+	long getNotifyP99Nanos();
+
+	long getNotifyMaxNanos();
+
+	void reset();
+}
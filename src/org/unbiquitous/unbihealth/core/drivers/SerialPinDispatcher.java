@@ -0,0 +1,298 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.UOSLogging;
+
+/**
+ * {@link PinDispatcher} that gives each pin an ordered serial lane on a
+ * shared executor, so listeners of a pin still see its values in order, but
+ * slow listeners never stall the thread that dispatched the event.
+ * 
+ * Each lane holds a bounded queue of pending tasks. What happens when it is
+ * full is defined by an {@link OverflowPolicy}. Discarded tasks that are
+ * {@link PinDispatcher.DiscardableTask}s are told so.
+ * 
+ * @author Luciano Santos
+ */
+public class SerialPinDispatcher implements PinDispatcher {
+	public enum OverflowPolicy {
+		/** Waits for room in the queue, stalling the dispatching thread. */
+		BLOCK,
+		/** Discards the oldest pending task to make room for the new one. */
+		DROP_OLDEST,
+		/** Discards the new task. */
+		DROP_NEWEST
+	}
+
+	/**
+	 * Maximum number of tasks a lane runs before yielding its thread to other
+	 * lanes.
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	private static Logger logger = UOSLogging.getLogger();
+
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+
+	/**
+	 * Creates a dispatcher running on its own fixed pool of daemon threads.
+	 * 
+	 * @param threads
+	 *            the number of threads.
+	 * @param capacity
+	 *            the maximum number of pending tasks per pin.
+	 * @param policy
+	 *            what to do when a pin's queue is full.
+	 */
+	public SerialPinDispatcher(int threads, int capacity, OverflowPolicy policy) {
+		this(Executors.newFixedThreadPool(checkThreads(threads), new DispatchThreadFactory()), capacity, policy,
+				true);
+	}
+
+	/**
+	 * Creates a dispatcher running on the given executor, which is not shut
+	 * down by {@link #shutdown()}.
+	 * 
+	 * @param executor
+	 *            the executor.
+	 * @param capacity
+	 *            the maximum number of pending tasks per pin.
+	 * @param policy
+	 *            what to do when a pin's queue is full.
+	 */
+	public SerialPinDispatcher(Executor executor, int capacity, OverflowPolicy policy) {
+		this(executor, capacity, policy, false);
+	}
+
+	private SerialPinDispatcher(Executor executor, int capacity, OverflowPolicy policy, boolean owned) {
+		if (executor == null)
+			throw new IllegalArgumentException("executor must not be null");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		if (policy == null)
+			throw new IllegalArgumentException("overflow policy must not be null");
+		this.executor = executor;
+		this.ownExecutor = owned ? (ExecutorService) executor : null;
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	private static int checkThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("number of threads must be positive");
+		return threads;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the number of tasks discarded for the given pin, because its
+	 *         queue was full.
+	 */
+	public long getDropped(String pinName) {
+		Lane lane = lanes.get(pinName);
+		return (lane == null) ? 0 : lane.dropped;
+	}
+
+	public void dispatch(String pinName, Runnable task) {
+		while (true) {
+			Lane lane = lanes.get(pinName);
+			if (lane == null) {
+				Lane newLane = new Lane(pinName);
+				lane = lanes.putIfAbsent(pinName, newLane);
+				if (lane == null)
+					lane = newLane;
+			}
+			// A closed lane has left the map, so the next one replaces it.
+			if (lane.offer(task))
+				return;
+		}
+	}
+
+	/**
+	 * Closes the lane of the given pin once it has run its pending tasks, so
+	 * that it is never run alongside the lane that replaces it.
+	 */
+	public void discard(String pinName) {
+		Lane lane = lanes.get(pinName);
+		if (lane != null)
+			lane.discard();
+	}
+
+	public void shutdown() {
+		lanes.clear();
+		if (ownExecutor != null)
+			ownExecutor.shutdown();
+	}
+
+	private final class Lane implements Runnable {
+		private final String key;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notFull = lock.newCondition();
+		private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+		private boolean scheduled = false;
+		/** Whether the lane is to be closed once idle. */
+		private boolean discarded = false;
+		/** Whether the lane has left the map, taking no more tasks. */
+		private boolean closed = false;
+		private volatile long dropped = 0;
+
+		Lane(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * @return false if the lane is closed, and so did not take the task.
+		 */
+		boolean offer(Runnable task) {
+			boolean schedule = false;
+			lock.lock();
+			try {
+				if (closed)
+					return false;
+				// Still in use, so it is kept after all.
+				discarded = false;
+				while (queue.size() >= capacity) {
+					if (policy == OverflowPolicy.DROP_NEWEST) {
+						discard(task);
+						return true;
+					} else if (policy == OverflowPolicy.DROP_OLDEST) {
+						discard(queue.poll());
+					} else {
+						try {
+							notFull.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							discard(task);
+							return true;
+						}
+					}
+				}
+				queue.add(task);
+				if (!scheduled)
+					scheduled = schedule = true;
+			} finally {
+				lock.unlock();
+			}
+			if (schedule)
+				schedule();
+			return true;
+		}
+
+		/**
+		 * Closes the lane now if it is idle, or else once it runs out of
+		 * tasks.
+		 */
+		void discard() {
+			lock.lock();
+			try {
+				if (scheduled)
+					discarded = true;
+				else
+					close();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Takes the lane out of the map, with the lock held.
+		 */
+		private void close() {
+			closed = true;
+			lanes.remove(key, this);
+		}
+
+		public void run() {
+			for (int i = 0; i < BATCH_SIZE; ++i) {
+				Runnable task;
+				lock.lock();
+				try {
+					task = queue.poll();
+					if (task == null) {
+						scheduled = false;
+						if (discarded)
+							close();
+						return;
+					}
+					notFull.signal();
+				} finally {
+					lock.unlock();
+				}
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.log(Level.SEVERE, "Failed while dispatching pin event.", e);
+				}
+			}
+			// Yields to other lanes, but keeps the lane scheduled.
+			schedule();
+		}
+
+		/**
+		 * Counts a discarded task, with the lock held.
+		 */
+		private void discard(Runnable task) {
+			++dropped;
+			if (task instanceof DiscardableTask) {
+				try {
+					((DiscardableTask) task).discarded();
+				} catch (RuntimeException e) {
+					logger.log(Level.SEVERE, "Failed while discarding pin event.", e);
+				}
+			}
+		}
+
+		private void schedule() {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				lock.lock();
+				try {
+					Runnable task;
+					while ((task = queue.poll()) != null)
+						discard(task);
+					scheduled = false;
+					if (discarded)
+						close();
+					notFull.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				logger.log(Level.SEVERE, "Failed to schedule pin events, discarding them.", e);
+			}
+		}
+	}
+
+	private static final class DispatchThreadFactory implements ThreadFactory {
+		private static final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "unbihealth-pin-dispatch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
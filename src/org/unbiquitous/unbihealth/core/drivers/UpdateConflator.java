@@ -0,0 +1,92 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.unbiquitous.uos.core.UOSLogging;
+
+/**
+ * Collapses bursts of outgoing values of a pin into a single update with the
+ * latest value, sent at most once per interval.
+ *
+ * With a zero interval, values are still sent asynchronously, and any values
+ * produced while a send is under way are collapsed into the next one.
+ *
+ * Values are handed to the sender on the scheduler's thread, which is shared
+ * by many pins, so the sender must only hand them over to be sent.
+ *
+ * @author Luciano Santos
+ *
+ * @see PinDriver#setConflation(String, long, TimeUnit)
+ */
+class UpdateConflator {
+	private static final Object NONE = new Object();
+	private static Logger logger = UOSLogging.getLogger();
+
+	private final ScheduledExecutorService scheduler;
+	private final long intervalNanos;
+	private final Consumer<Object> sender;
+	private final AtomicReference<Object> pending = new AtomicReference<Object>(NONE);
+	private volatile long lastSend;
+	private volatile ScheduledFuture<?> flush;
+	private final AtomicLong collapsed = new AtomicLong();
+
+	UpdateConflator(ScheduledExecutorService scheduler, long interval, TimeUnit unit, Consumer<Object> sender) {
+		if (interval < 0)
+			throw new IllegalArgumentException("interval must not be negative");
+		this.scheduler = scheduler;
+		this.intervalNanos = unit.toNanos(interval);
+		this.sender = sender;
+		this.lastSend = System.nanoTime() - intervalNanos;
+	}
+
+	/**
+	 * Offers a new value, replacing any value not yet sent.
+	 *
+	 * @return false if a value not yet sent was replaced.
+	 */
+	boolean offer(Object value) {
+		if (pending.getAndSet(value) != NONE) {
+			collapsed.incrementAndGet();
+			return false;
+		}
+		long delay = Math.max(0, lastSend + intervalNanos - System.nanoTime());
+		flush = scheduler.schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+		return true;
+	}
+
+	/**
+	 * Discards any value not yet sent.
+	 */
+	void cancel() {
+		ScheduledFuture<?> f = flush;
+		if (f != null)
+			f.cancel(false);
+		pending.set(NONE);
+	}
+
+	/**
+	 * @return the number of values replaced before being sent.
+	 */
+	long getCollapsed() {
+		return collapsed.get();
+	}
+
+	private void flush() {
+		lastSend = System.nanoTime();
+		Object value = pending.getAndSet(NONE);
+		if (value == NONE)
+			return;
+		try {
+			sender.accept(value);
+		} catch (RuntimeException e) {
+			logger.log(Level.SEVERE, "Failed while sending conflated value.", e);
+		}
+	}
+}
@@ -1,7 +1,7 @@
 package org.unbiquitous.unbihealth.core.types;
 
 /**
- * Holds 3 dimensional vectorial data.
+ * Holds 2 dimensional vectorial data.
  * 
  * @author Luciano Santos
  */
@@ -37,6 +37,64 @@ public class Vector2 {
 		return subtract(this, other);
 	}
 
+	public double dot(Vector2 other) {
+		return dot(this, other);
+	}
+
+	/**
+	 * @return the z component of the 3 dimensional cross product of this and
+	 *         the other vector.
+	 */
+	public double cross(Vector2 other) {
+		return cross(this, other);
+	}
+
+	/**
+	 * @return a new vector with the same direction and magnitude 1, or zero if
+	 *         this vector is zero.
+	 */
+	public Vector2 normalized() {
+		return normalize(this, new Vector2());
+	}
+
+	// In place operations, which modify and return this vector.
+
+	public Vector2 set(double x, double y) {
+		this.x = x;
+		this.y = y;
+		return this;
+	}
+
+	public Vector2 set(Vector2 other) {
+		return set(other.x, other.y);
+	}
+
+	public Vector2 multiplyInPlace(double d) {
+		return multiply(this, d, this);
+	}
+
+	public Vector2 addInPlace(Vector2 other) {
+		return add(this, other, this);
+	}
+
+	public Vector2 subtractInPlace(Vector2 other) {
+		return subtract(this, other, this);
+	}
+
+	/**
+	 * Adds {@code other * d} to this vector.
+	 */
+	public Vector2 scaleAddInPlace(double d, Vector2 other) {
+		return scaleAdd(this, d, other, this);
+	}
+
+	/**
+	 * Scales this vector to magnitude 1, leaving it unchanged if it is zero.
+	 */
+	public Vector2 normalize() {
+		return normalize(this, this);
+	}
+
 	public Vector3 toVector3() {
 		return new Vector3(x, y, 0);
 	}
@@ -46,15 +104,67 @@ public class Vector2 {
 	}
 
 	public static Vector2 multiply(final Vector2 v, double d) {
-		return new Vector2(v.x * d, v.y * d);
+		return multiply(v, d, new Vector2());
 	}
 
 	public static Vector2 add(final Vector2 v1, final Vector2 v2) {
-		return new Vector2(v1.x + v2.x, v1.y + v2.y);
+		return add(v1, v2, new Vector2());
 	}
 
 	public static Vector2 subtract(final Vector2 v1, final Vector2 v2) {
-		return add(v1, multiply(v2, -1));
+		return subtract(v1, v2, new Vector2());
+	}
+
+	public static Vector2 lerp(final Vector2 v1, final Vector2 v2, double t) {
+		return lerp(v1, v2, t, new Vector2());
+	}
+
+	public static double dot(final Vector2 v1, final Vector2 v2) {
+		return v1.x * v2.x + v1.y * v2.y;
+	}
+
+	/**
+	 * @return the z component of the 3 dimensional cross product of v1 and
+	 *         v2.
+	 */
+	public static double cross(final Vector2 v1, final Vector2 v2) {
+		return v1.x * v2.y - v1.y * v2.x;
+	}
+
+	// Destination argument operations, which store the result in out (that
+	// may also be one of the operands) and return it.
+
+	public static Vector2 multiply(final Vector2 v, double d, Vector2 out) {
+		return out.set(v.x * d, v.y * d);
+	}
+
+	public static Vector2 add(final Vector2 v1, final Vector2 v2, Vector2 out) {
+		return out.set(v1.x + v2.x, v1.y + v2.y);
+	}
+
+	public static Vector2 subtract(final Vector2 v1, final Vector2 v2, Vector2 out) {
+		return out.set(v1.x - v2.x, v1.y - v2.y);
+	}
+
+	/**
+	 * Computes {@code v1 + v2 * d}.
+	 */
+	public static Vector2 scaleAdd(final Vector2 v1, double d, final Vector2 v2, Vector2 out) {
+		return out.set(v1.x + v2.x * d, v1.y + v2.y * d);
+	}
+
+	public static Vector2 normalize(final Vector2 v, Vector2 out) {
+		double m = v.magnitude();
+		if (m == 0)
+			return out.set(0, 0);
+		return multiply(v, 1 / m, out);
+	}
+
+	/**
+	 * Linearly interpolates from v1 (t = 0) to v2 (t = 1).
+	 */
+	public static Vector2 lerp(final Vector2 v1, final Vector2 v2, double t, Vector2 out) {
+		return out.set(v1.x + (v2.x - v1.x) * t, v1.y + (v2.y - v1.y) * t);
 	}
 
 	public static Vector2 zero() {
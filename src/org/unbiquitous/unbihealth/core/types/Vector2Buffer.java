@@ -0,0 +1,306 @@
+package org.unbiquitous.unbihealth.core.types;
+
+import java.util.Arrays;
+
+/**
+ * Growable sequence of 2 dimensional vectors, stored as one contiguous
+ * {@code double[]} column per component instead of one {@link Vector2} object
+ * per element.
+ *
+ * @author Luciano Santos
+ *
+ * @see Vector3Buffer
+ */
+public class Vector2Buffer {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private double[] xs;
+	private double[] ys;
+	private int size = 0;
+
+	public Vector2Buffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public Vector2Buffer(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("negative capacity");
+		xs = new double[capacity];
+		ys = new double[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return xs.length;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * The backing column for the x component. Only the first {@link #size()}
+	 * positions are meaningful, and the array is replaced when the buffer
+	 * grows.
+	 */
+	public double[] xs() {
+		return xs;
+	}
+
+	/**
+	 * @see #xs()
+	 */
+	public double[] ys() {
+		return ys;
+	}
+
+	public double x(int i) {
+		checkIndex(i);
+		return xs[i];
+	}
+
+	public double y(int i) {
+		checkIndex(i);
+		return ys[i];
+	}
+
+	public Vector2 get(int i, Vector2 out) {
+		checkIndex(i);
+		return out.set(xs[i], ys[i]);
+	}
+
+	public Vector2 get(int i) {
+		return get(i, new Vector2());
+	}
+
+	public void set(int i, double x, double y) {
+		checkIndex(i);
+		xs[i] = x;
+		ys[i] = y;
+	}
+
+	public void set(int i, Vector2 v) {
+		set(i, v.x, v.y);
+	}
+
+	/**
+	 * @return the index of the appended element.
+	 */
+	public int append(double x, double y) {
+		if (size == xs.length)
+			grow(size + 1);
+		xs[size] = x;
+		ys[size] = y;
+		return size++;
+	}
+
+	public int append(Vector2 v) {
+		return append(v.x, v.y);
+	}
+
+	/**
+	 * Appends a 2 element array value, as extracted for {@code UhpType.v2}
+	 * pins: a {@code double[]}, a {@code float[]} (for single precision) or an
+	 * {@code Object[]} of numbers.
+	 *
+	 * @return the index of the appended element.
+	 */
+	public int append(Object value) {
+		if (value instanceof double[]) {
+			double[] v = (double[]) value;
+			checkValueLength(v.length);
+			return append(v[0], v[1]);
+		}
+		if (value instanceof float[]) {
+			float[] v = (float[]) value;
+			checkValueLength(v.length);
+			return append(v[0], v[1]);
+		}
+		if (value instanceof Object[]) {
+			Object[] v = (Object[]) value;
+			checkValueLength(v.length);
+			for (Object e : v) {
+				if (!(e instanceof Number))
+					throw new IllegalArgumentException("expected numeric array elements");
+			}
+			return append(((Number) v[0]).doubleValue(), ((Number) v[1]).doubleValue());
+		}
+		throw new IllegalArgumentException("expected a double[], float[] or Object[] value");
+	}
+
+	/**
+	 * @return the element at i as a {@code UhpType.v2} value.
+	 */
+	public double[] toValue(int i) {
+		checkIndex(i);
+		return new double[] { xs[i], ys[i] };
+	}
+
+	/**
+	 * @return a view of the element at i.
+	 */
+	public Element element(int i) {
+		return new Element().at(i);
+	}
+
+	/**
+	 * Adds v to every element.
+	 */
+	public Vector2Buffer addInPlace(Vector2 v) {
+		double x = v.x, y = v.y;
+		for (int i = 0; i < size; ++i) {
+			xs[i] += x;
+			ys[i] += y;
+		}
+		return this;
+	}
+
+	/**
+	 * Adds each element of other to the element at the same index.
+	 */
+	public Vector2Buffer addInPlace(Vector2Buffer other) {
+		if (other.size != size)
+			throw new IllegalArgumentException("buffers have different sizes");
+		double[] oxs = other.xs, oys = other.ys;
+		for (int i = 0; i < size; ++i) {
+			xs[i] += oxs[i];
+			ys[i] += oys[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Multiplies every element by d.
+	 */
+	public Vector2Buffer multiplyInPlace(double d) {
+		for (int i = 0; i < size; ++i) {
+			xs[i] *= d;
+			ys[i] *= d;
+		}
+		return this;
+	}
+
+	/**
+	 * Computes the magnitude of every element.
+	 *
+	 * @param out
+	 *            where to store the magnitudes, or null (or a shorter array)
+	 *            to allocate a new one.
+	 *
+	 * @return the magnitudes.
+	 */
+	public double[] magnitudes(double[] out) {
+		if ((out == null) || (out.length < size))
+			out = new double[size];
+		for (int i = 0; i < size; ++i)
+			out[i] = Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i]);
+		return out;
+	}
+
+	public Vector2 mean(Vector2 out) {
+		checkNotEmpty();
+		double x = 0, y = 0;
+		for (int i = 0; i < size; ++i) {
+			x += xs[i];
+			y += ys[i];
+		}
+		return out.set(x / size, y / size);
+	}
+
+	/**
+	 * @return the component wise minimum.
+	 */
+	public Vector2 min(Vector2 out) {
+		checkNotEmpty();
+		double x = xs[0], y = ys[0];
+		for (int i = 1; i < size; ++i) {
+			x = Math.min(x, xs[i]);
+			y = Math.min(y, ys[i]);
+		}
+		return out.set(x, y);
+	}
+
+	/**
+	 * @return the component wise maximum.
+	 */
+	public Vector2 max(Vector2 out) {
+		checkNotEmpty();
+		double x = xs[0], y = ys[0];
+		for (int i = 1; i < size; ++i) {
+			x = Math.max(x, xs[i]);
+			y = Math.max(y, ys[i]);
+		}
+		return out.set(x, y);
+	}
+
+	private void grow(int minCapacity) {
+		int capacity = Math.max(minCapacity, Math.max(DEFAULT_CAPACITY, xs.length * 2));
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+	}
+
+	private void checkIndex(int i) {
+		if ((i < 0) || (i >= size))
+			throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+	}
+
+	private void checkNotEmpty() {
+		if (size == 0)
+			throw new IllegalStateException("empty buffer");
+	}
+
+	private static void checkValueLength(int length) {
+		if (length != 2)
+			throw new IllegalArgumentException("expected array of size 2");
+	}
+
+	/**
+	 * Movable view of one element of the buffer, reading and writing straight
+	 * through to the columns.
+	 */
+	public class Element {
+		private int index;
+
+		private Element() {
+		}
+
+		public Element at(int i) {
+			checkIndex(i);
+			index = i;
+			return this;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		public double x() {
+			return xs[index];
+		}
+
+		public double y() {
+			return ys[index];
+		}
+
+		public Element x(double x) {
+			xs[index] = x;
+			return this;
+		}
+
+		public Element y(double y) {
+			ys[index] = y;
+			return this;
+		}
+
+		public Vector2 get(Vector2 out) {
+			return out.set(xs[index], ys[index]);
+		}
+	}
+}
@@ -39,16 +39,123 @@ public class Vector3 {
 		return subtract(this, other);
 	}
 
+	public double dot(Vector3 other) {
+		return dot(this, other);
+	}
+
+	public Vector3 cross(Vector3 other) {
+		return cross(this, other);
+	}
+
+	/**
+	 * @return a new vector with the same direction and magnitude 1, or zero if
+	 *         this vector is zero.
+	 */
+	public Vector3 normalized() {
+		return normalize(this, new Vector3());
+	}
+
+	// In place operations, which modify and return this vector.
+
+	public Vector3 set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+
+	public Vector3 set(Vector3 other) {
+		return set(other.x, other.y, other.z);
+	}
+
+	public Vector3 multiplyInPlace(double d) {
+		return multiply(this, d, this);
+	}
+
+	public Vector3 addInPlace(Vector3 other) {
+		return add(this, other, this);
+	}
+
+	public Vector3 subtractInPlace(Vector3 other) {
+		return subtract(this, other, this);
+	}
+
+	/**
+	 * Adds {@code other * d} to this vector.
+	 */
+	public Vector3 scaleAddInPlace(double d, Vector3 other) {
+		return scaleAdd(this, d, other, this);
+	}
+
+	/**
+	 * Scales this vector to magnitude 1, leaving it unchanged if it is zero.
+	 */
+	public Vector3 normalize() {
+		return normalize(this, this);
+	}
+
 	public static Vector3 multiply(final Vector3 v, double d) {
-		return new Vector3(v.x * d, v.y * d, v.z * d);
+		return multiply(v, d, new Vector3());
 	}
 
 	public static Vector3 add(final Vector3 v1, final Vector3 v2) {
-		return new Vector3(v1.x + v2.x, v1.y + v2.y, v1.z + v2.z);
+		return add(v1, v2, new Vector3());
 	}
 
 	public static Vector3 subtract(final Vector3 v1, final Vector3 v2) {
-		return add(v1, multiply(v2, -1));
+		return subtract(v1, v2, new Vector3());
+	}
+
+	public static Vector3 cross(final Vector3 v1, final Vector3 v2) {
+		return cross(v1, v2, new Vector3());
+	}
+
+	public static Vector3 lerp(final Vector3 v1, final Vector3 v2, double t) {
+		return lerp(v1, v2, t, new Vector3());
+	}
+
+	public static double dot(final Vector3 v1, final Vector3 v2) {
+		return v1.x * v2.x + v1.y * v2.y + v1.z * v2.z;
+	}
+
+	// Destination argument operations, which store the result in out (that
+	// may also be one of the operands) and return it.
+
+	public static Vector3 multiply(final Vector3 v, double d, Vector3 out) {
+		return out.set(v.x * d, v.y * d, v.z * d);
+	}
+
+	public static Vector3 add(final Vector3 v1, final Vector3 v2, Vector3 out) {
+		return out.set(v1.x + v2.x, v1.y + v2.y, v1.z + v2.z);
+	}
+
+	public static Vector3 subtract(final Vector3 v1, final Vector3 v2, Vector3 out) {
+		return out.set(v1.x - v2.x, v1.y - v2.y, v1.z - v2.z);
+	}
+
+	/**
+	 * Computes {@code v1 + v2 * d}.
+	 */
+	public static Vector3 scaleAdd(final Vector3 v1, double d, final Vector3 v2, Vector3 out) {
+		return out.set(v1.x + v2.x * d, v1.y + v2.y * d, v1.z + v2.z * d);
+	}
+
+	public static Vector3 cross(final Vector3 v1, final Vector3 v2, Vector3 out) {
+		return out.set(v1.y * v2.z - v1.z * v2.y, v1.z * v2.x - v1.x * v2.z, v1.x * v2.y - v1.y * v2.x);
+	}
+
+	public static Vector3 normalize(final Vector3 v, Vector3 out) {
+		double m = v.magnitude();
+		if (m == 0)
+			return out.set(0, 0, 0);
+		return multiply(v, 1 / m, out);
+	}
+
+	/**
+	 * Linearly interpolates from v1 (t = 0) to v2 (t = 1).
+	 */
+	public static Vector3 lerp(final Vector3 v1, final Vector3 v2, double t, Vector3 out) {
+		return out.set(v1.x + (v2.x - v1.x) * t, v1.y + (v2.y - v1.y) * t, v1.z + (v2.z - v1.z) * t);
 	}
 
 	public static Vector3 zero() {
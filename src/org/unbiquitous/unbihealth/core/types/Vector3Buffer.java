@@ -0,0 +1,343 @@
+package org.unbiquitous.unbihealth.core.types;
+
+import java.util.Arrays;
+
+/**
+ * Growable sequence of 3 dimensional vectors, stored as one contiguous
+ * {@code double[]} column per component instead of one {@link Vector3} object
+ * per element.
+ *
+ * Elements may be accessed without copying through {@link #x(int)} and its
+ * siblings, through a movable {@link Element} view or directly through the
+ * backing columns. Values of pins typed {@code UhpType.v3} ({@code double[]},
+ * {@code float[]} or {@code Object[]} of numbers) can be appended with
+ * {@link #append(Object)} and produced with {@link #toValue(int)}.
+ *
+ * @author Luciano Santos
+ */
+public class Vector3Buffer {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private double[] xs;
+	private double[] ys;
+	private double[] zs;
+	private int size = 0;
+
+	public Vector3Buffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public Vector3Buffer(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("negative capacity");
+		xs = new double[capacity];
+		ys = new double[capacity];
+		zs = new double[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return xs.length;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * The backing column for the x component. Only the first {@link #size()}
+	 * positions are meaningful, and the array is replaced when the buffer
+	 * grows.
+	 */
+	public double[] xs() {
+		return xs;
+	}
+
+	/**
+	 * @see #xs()
+	 */
+	public double[] ys() {
+		return ys;
+	}
+
+	/**
+	 * @see #xs()
+	 */
+	public double[] zs() {
+		return zs;
+	}
+
+	public double x(int i) {
+		checkIndex(i);
+		return xs[i];
+	}
+
+	public double y(int i) {
+		checkIndex(i);
+		return ys[i];
+	}
+
+	public double z(int i) {
+		checkIndex(i);
+		return zs[i];
+	}
+
+	public Vector3 get(int i, Vector3 out) {
+		checkIndex(i);
+		return out.set(xs[i], ys[i], zs[i]);
+	}
+
+	public Vector3 get(int i) {
+		return get(i, new Vector3());
+	}
+
+	public void set(int i, double x, double y, double z) {
+		checkIndex(i);
+		xs[i] = x;
+		ys[i] = y;
+		zs[i] = z;
+	}
+
+	public void set(int i, Vector3 v) {
+		set(i, v.x, v.y, v.z);
+	}
+
+	/**
+	 * @return the index of the appended element.
+	 */
+	public int append(double x, double y, double z) {
+		if (size == xs.length)
+			grow(size + 1);
+		xs[size] = x;
+		ys[size] = y;
+		zs[size] = z;
+		return size++;
+	}
+
+	public int append(Vector3 v) {
+		return append(v.x, v.y, v.z);
+	}
+
+	/**
+	 * Appends a 3 element array value, as extracted for {@code UhpType.v3}
+	 * pins: a {@code double[]}, a {@code float[]} (for single precision) or an
+	 * {@code Object[]} of numbers.
+	 *
+	 * @return the index of the appended element.
+	 */
+	public int append(Object value) {
+		if (value instanceof double[]) {
+			double[] v = (double[]) value;
+			checkValueLength(v.length);
+			return append(v[0], v[1], v[2]);
+		}
+		if (value instanceof float[]) {
+			float[] v = (float[]) value;
+			checkValueLength(v.length);
+			return append(v[0], v[1], v[2]);
+		}
+		if (value instanceof Object[]) {
+			Object[] v = (Object[]) value;
+			checkValueLength(v.length);
+			for (Object e : v) {
+				if (!(e instanceof Number))
+					throw new IllegalArgumentException("expected numeric array elements");
+			}
+			return append(((Number) v[0]).doubleValue(), ((Number) v[1]).doubleValue(),
+					((Number) v[2]).doubleValue());
+		}
+		throw new IllegalArgumentException("expected a double[], float[] or Object[] value");
+	}
+
+	/**
+	 * @return the element at i as a {@code UhpType.v3} value.
+	 */
+	public double[] toValue(int i) {
+		checkIndex(i);
+		return new double[] { xs[i], ys[i], zs[i] };
+	}
+
+	/**
+	 * @return a view of the element at i.
+	 */
+	public Element element(int i) {
+		return new Element().at(i);
+	}
+
+	/**
+	 * Adds v to every element.
+	 */
+	public Vector3Buffer addInPlace(Vector3 v) {
+		double x = v.x, y = v.y, z = v.z;
+		for (int i = 0; i < size; ++i) {
+			xs[i] += x;
+			ys[i] += y;
+			zs[i] += z;
+		}
+		return this;
+	}
+
+	/**
+	 * Adds each element of other to the element at the same index.
+	 */
+	public Vector3Buffer addInPlace(Vector3Buffer other) {
+		if (other.size != size)
+			throw new IllegalArgumentException("buffers have different sizes");
+		double[] oxs = other.xs, oys = other.ys, ozs = other.zs;
+		for (int i = 0; i < size; ++i) {
+			xs[i] += oxs[i];
+			ys[i] += oys[i];
+			zs[i] += ozs[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Multiplies every element by d.
+	 */
+	public Vector3Buffer multiplyInPlace(double d) {
+		for (int i = 0; i < size; ++i) {
+			xs[i] *= d;
+			ys[i] *= d;
+			zs[i] *= d;
+		}
+		return this;
+	}
+
+	/**
+	 * Computes the magnitude of every element.
+	 *
+	 * @param out
+	 *            where to store the magnitudes, or null (or a shorter array)
+	 *            to allocate a new one.
+	 *
+	 * @return the magnitudes.
+	 */
+	public double[] magnitudes(double[] out) {
+		if ((out == null) || (out.length < size))
+			out = new double[size];
+		for (int i = 0; i < size; ++i)
+			out[i] = Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i]);
+		return out;
+	}
+
+	public Vector3 mean(Vector3 out) {
+		checkNotEmpty();
+		double x = 0, y = 0, z = 0;
+		for (int i = 0; i < size; ++i) {
+			x += xs[i];
+			y += ys[i];
+			z += zs[i];
+		}
+		return out.set(x / size, y / size, z / size);
+	}
+
+	/**
+	 * @return the component wise minimum.
+	 */
+	public Vector3 min(Vector3 out) {
+		checkNotEmpty();
+		double x = xs[0], y = ys[0], z = zs[0];
+		for (int i = 1; i < size; ++i) {
+			x = Math.min(x, xs[i]);
+			y = Math.min(y, ys[i]);
+			z = Math.min(z, zs[i]);
+		}
+		return out.set(x, y, z);
+	}
+
+	/**
+	 * @return the component wise maximum.
+	 */
+	public Vector3 max(Vector3 out) {
+		checkNotEmpty();
+		double x = xs[0], y = ys[0], z = zs[0];
+		for (int i = 1; i < size; ++i) {
+			x = Math.max(x, xs[i]);
+			y = Math.max(y, ys[i]);
+			z = Math.max(z, zs[i]);
+		}
+		return out.set(x, y, z);
+	}
+
+	private void grow(int minCapacity) {
+		int capacity = Math.max(minCapacity, Math.max(DEFAULT_CAPACITY, xs.length * 2));
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		zs = Arrays.copyOf(zs, capacity);
+	}
+
+	private void checkIndex(int i) {
+		if ((i < 0) || (i >= size))
+			throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+	}
+
+	private void checkNotEmpty() {
+		if (size == 0)
+			throw new IllegalStateException("empty buffer");
+	}
+
+	private static void checkValueLength(int length) {
+		if (length != 3)
+			throw new IllegalArgumentException("expected array of size 3");
+	}
+
+	/**
+	 * Movable view of one element of the buffer, reading and writing straight
+	 * through to the columns.
+	 */
+	public class Element {
+		private int index;
+
+		private Element() {
+		}
+
+		public Element at(int i) {
+			checkIndex(i);
+			index = i;
+			return this;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		public double x() {
+			return xs[index];
+		}
+
+		public double y() {
+			return ys[index];
+		}
+
+		public double z() {
+			return zs[index];
+		}
+
+		public Element x(double x) {
+			xs[index] = x;
+			return this;
+		}
+
+		public Element y(double y) {
+			ys[index] = y;
+			return this;
+		}
+
+		public Element z(double z) {
+			zs[index] = z;
+			return this;
+		}
+
+		public Vector3 get(Vector3 out) {
+			return out.set(xs[index], ys[index], zs[index]);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.unbiquitous.unbihealth.core.types;
+
+/**
+ * Small per thread pool of scratch {@link Vector2} and {@link Vector3}
+ * instances, so that hot loops may use temporary vectors without allocating.
+ *
+ * A pool must only be used by its own thread. Vectors taken from it must be
+ * given back with {@link #free(Vector2)} or {@link #free(Vector3)} once they
+ * are no longer referenced, and are not cleared in between uses.
+ *
+ * <pre>
+ * VectorPool pool = VectorPool.get();
+ * Vector3 tmp = pool.takeVector3();
+ * try {
+ * 	Vector3.subtract(a, b, tmp);
+ * 	...
+ * } finally {
+ * 	pool.free(tmp);
+ * }
+ * </pre>
+ *
+ * @author Luciano Santos
+ */
+public final class VectorPool {
+	public static final int CAPACITY = 32;
+
+	private static final ThreadLocal<VectorPool> local = new ThreadLocal<VectorPool>() {
+		@Override
+		protected VectorPool initialValue() {
+			return new VectorPool();
+		}
+	};
+
+	private final Vector2[] vectors2 = new Vector2[CAPACITY];
+	private int size2 = 0;
+	private final Vector3[] vectors3 = new Vector3[CAPACITY];
+	private int size3 = 0;
+
+	private VectorPool() {
+	}
+
+	/**
+	 * @return the calling thread's pool.
+	 */
+	public static VectorPool get() {
+		return local.get();
+	}
+
+	public Vector2 takeVector2() {
+		if (size2 == 0)
+			return new Vector2();
+		Vector2 v = vectors2[--size2];
+		vectors2[size2] = null;
+		return v;
+	}
+
+	public void free(Vector2 v) {
+		if ((v != null) && (size2 < CAPACITY))
+			vectors2[size2++] = v;
+	}
+
+	public Vector3 takeVector3() {
+		if (size3 == 0)
+			return new Vector3();
+		Vector3 v = vectors3[--size3];
+		vectors3[size3] = null;
+		return v;
+	}
+
+	public void free(Vector3 v) {
+		if ((v != null) && (size3 < CAPACITY))
+			vectors3[size3++] = v;
+	}
+}
@@ -1,7 +1,66 @@
 package org.unbiquitous.unbihealth.core.uhp;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Adapts data from a source type to a target type.
+ * 
+ * An adapter is named by {@link UhpAdaptation#getAdapter()} and compiles the
+ * adaptation parameters, once, into a {@link UhpConverter} for a given source
+ * type.
+ * 
+ * @author Luciano Santos
+ * 
+ * @see UhpAdapters
+ * @see UhpAdapterRegistry
  */
 public interface UhpAdapter {
+	/**
+	 * @return the name of the adapter, as used in {@link UhpAdaptation}s.
+	 */
+	String getName();
+
+	/**
+	 * Compiles a converter from the given source type.
+	 * 
+	 * @param sourceType
+	 *            the type of the values to convert.
+	 * @param params
+	 *            the adaptation parameters, which may be null.
+	 * 
+	 * @return the converter.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the adapter does not apply to the source type, or the
+	 *             parameters are invalid.
+	 */
+	UhpConverter compile(UhpType sourceType, Map<String, Object> params);
+
+	/**
+	 * Proposes conversions that need no parameters, from the given source
+	 * type towards the given target type, for
+	 * {@link UhpAdapterRegistry#resolve(UhpType, UhpType)}. The proposed
+	 * conversions need not reach the target type, as they may be followed by
+	 * others.
+	 * 
+	 * @param sourceType
+	 *            the type of the values to convert.
+	 * @param targetType
+	 *            the type finally sought.
+	 * 
+	 * @return the proposed converters, none by default.
+	 */
+	default List<UhpConverter> suggest(UhpType sourceType, UhpType targetType) {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @return the cost of a conversion by this adapter, when resolving paths
+	 *         between types. Defaults to 1.
+	 */
+	default double getCost() {
+		return 1;
+	}
 }
@@ -0,0 +1,344 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Set of {@link UhpAdapter}s by name, resolving {@link UhpAdaptation}s into
+ * {@link UhpConverter}s. A new registry has all the {@link UhpAdapters}.
+ *
+ * A registry may also find a conversion between two types by itself, with
+ * {@link #resolve(UhpType, UhpType)}, searching the conversions
+ * {@link UhpAdapter#suggest suggested} by its adapters as a graph between
+ * types. Resolved conversions are cached by source and target type until the
+ * set of adapters changes.
+ *
+ * Registries are thread safe.
+ *
+ * @author Luciano Santos
+ */
+public class UhpAdapterRegistry {
+	/**
+	 * Maximum number of conversions in a resolved path.
+	 */
+	public static final int MAX_PATH_LENGTH = 4;
+
+	private static final Object NO_PATH = new Object();
+
+	private final ConcurrentMap<String, UhpAdapter> adapters = new ConcurrentHashMap<String, UhpAdapter>();
+	private final ConcurrentMap<List<UhpType>, Object> resolved = new ConcurrentHashMap<List<UhpType>, Object>();
+	/** Number of changes to the adapters, so stale resolutions are not kept. */
+	private final AtomicLong generation = new AtomicLong();
+
+	public UhpAdapterRegistry() {
+		for (UhpAdapter adapter : UhpAdapters.all)
+			register(adapter);
+	}
+
+	/**
+	 * Registers an adapter, replacing any adapter with the same name.
+	 *
+	 * @param adapter
+	 *            the adapter.
+	 */
+	public void register(UhpAdapter adapter) {
+		if ((adapter == null) || (adapter.getName() == null) || adapter.getName().isEmpty())
+			throw new IllegalArgumentException("adapter must not be null and must have non empty name");
+		adapters.put(adapter.getName(), adapter);
+		adaptersChanged();
+	}
+
+	public void unregister(String name) {
+		if (adapters.remove(name) != null)
+			adaptersChanged();
+	}
+
+	/**
+	 * Forgets the resolutions made so far. Resolutions under way when the
+	 * adapters changed see the new generation, and are not kept.
+	 */
+	private void adaptersChanged() {
+		generation.incrementAndGet();
+		resolved.clear();
+	}
+
+	/**
+	 * @return the adapter with the given name, or null if there is none.
+	 */
+	public UhpAdapter find(String name) {
+		return (name == null) ? null : adapters.get(name);
+	}
+
+	public Collection<UhpAdapter> list() {
+		return adapters.values();
+	}
+
+	/**
+	 * Resolves an adaptation into a converter from the given source type.
+	 *
+	 * @param sourceType
+	 *            the type of the values to convert.
+	 * @param adaptation
+	 *            the adaptation.
+	 *
+	 * @return the compiled converter.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the adapter is unknown, does not apply to the source type
+	 *             or the parameters are invalid.
+	 */
+	public UhpConverter compile(UhpType sourceType, UhpAdaptation adaptation) {
+		if (adaptation == null)
+			throw new IllegalArgumentException("null adaptation");
+		UhpAdapter adapter = find(adaptation.getAdapter());
+		if (adapter == null)
+			throw new IllegalArgumentException("unknown adapter " + adaptation.getAdapter());
+		return adapter.compile(sourceType, adaptation.getParams());
+	}
+
+	/**
+	 * Resolves a sequence of adaptations, each applied to the result of the
+	 * previous one, into a single converter.
+	 *
+	 * Runs of affine steps (scales, remaps and selections) are fused into a
+	 * single matrix and offset, so converting costs the same however many of
+	 * them are stacked, and allocates no intermediate values.
+	 *
+	 * @see #compile(UhpType, UhpAdaptation)
+	 */
+	public UhpConverter compile(UhpType sourceType, List<UhpAdaptation> adaptations) {
+		if ((adaptations == null) || adaptations.isEmpty())
+			throw new IllegalArgumentException("no adaptations informed");
+		UhpConverter[] steps = new UhpConverter[adaptations.size()];
+		UhpType type = sourceType;
+		for (int i = 0; i < steps.length; ++i) {
+			steps[i] = compile(type, adaptations.get(i));
+			type = steps[i].getTargetType();
+		}
+		return fuse(steps);
+	}
+
+	/**
+	 * Finds the cheapest conversion from a source type into a target type,
+	 * such that every converted value is valid for the target type. Types
+	 * whose values already fit the target type convert with no change.
+	 *
+	 * Only the first resolution between two types searches; later ones are a
+	 * lookup.
+	 *
+	 * @param sourceType
+	 *            the type of the values to convert.
+	 * @param targetType
+	 *            the type to convert to.
+	 *
+	 * @return the converter, or null if there is no conversion of up to
+	 *         {@link #MAX_PATH_LENGTH} steps.
+	 */
+	public UhpConverter resolve(UhpType sourceType, UhpType targetType) {
+		if ((sourceType == null) || (targetType == null))
+			throw new IllegalArgumentException("null type");
+		List<UhpType> key = Arrays.asList(UhpType.intern(sourceType), UhpType.intern(targetType));
+		Object result = resolved.get(key);
+		if (result == null) {
+			long searched = generation.get();
+			UhpConverter converter = search(key.get(0), key.get(1));
+			result = (converter == null) ? NO_PATH : converter;
+			Object previous = resolved.putIfAbsent(key, result);
+			if (previous != null)
+				result = previous;
+			else if (generation.get() != searched)
+				resolved.remove(key, result);
+		}
+		return (result == NO_PATH) ? null : (UhpConverter) result;
+	}
+
+	/**
+	 * Searches conversion paths by increasing cost.
+	 */
+	private UhpConverter search(UhpType sourceType, UhpType targetType) {
+		if (UhpAdapters.fits(sourceType, targetType))
+			return UhpAdapters.identity(sourceType, targetType);
+		PriorityQueue<Path> queue = new PriorityQueue<Path>();
+		Map<UhpType, Double> costs = new HashMap<UhpType, Double>();
+		queue.add(new Path(null, null, 0, 0));
+		costs.put(sourceType, 0.0);
+		int sequence = 0;
+		while (!queue.isEmpty()) {
+			Path path = queue.poll();
+			UhpType type = (path.step == null) ? sourceType : path.step.getTargetType();
+			if ((path.step != null) && UhpAdapters.fits(type, targetType))
+				return fuse(path.steps());
+			if (path.length == MAX_PATH_LENGTH)
+				continue;
+			for (UhpAdapter adapter : adapters.values()) {
+				List<UhpConverter> suggested;
+				try {
+					suggested = adapter.suggest(type, targetType);
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+				double cost = path.cost + adapter.getCost();
+				for (UhpConverter step : suggested) {
+					Double known = costs.get(step.getTargetType());
+					if ((known != null) && (known <= cost))
+						continue;
+					costs.put(step.getTargetType(), cost);
+					queue.add(new Path(path, step, cost, ++sequence));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Fuses consecutive affine steps.
+	 *
+	 * @return the single remaining step, or a chain of the remaining steps.
+	 */
+	static UhpConverter fuse(UhpConverter[] steps) {
+		List<UhpConverter> fused = new ArrayList<UhpConverter>(steps.length);
+		for (UhpConverter step : steps) {
+			int last = fused.size() - 1;
+			if ((last >= 0) && (fused.get(last) instanceof UhpAdapters.Affine)
+					&& (step instanceof UhpAdapters.Affine)) {
+				UhpAdapters.Affine affine = UhpAdapters.Affine.fuse((UhpAdapters.Affine) fused.get(last),
+						(UhpAdapters.Affine) step);
+				if (affine != null) {
+					fused.set(last, affine);
+					continue;
+				}
+			}
+			fused.add(step);
+		}
+		if (fused.size() == 1)
+			return fused.get(0);
+		return new Chain(fused.toArray(new UhpConverter[fused.size()]));
+	}
+
+	/**
+	 * Conversion path being searched, as a linked list of steps back to the
+	 * source.
+	 */
+	private static final class Path implements Comparable<Path> {
+		final Path previous;
+		final UhpConverter step;
+		final double cost;
+		final int length;
+		final int sequence;
+
+		Path(Path previous, UhpConverter step, double cost, int sequence) {
+			this.previous = previous;
+			this.step = step;
+			this.cost = cost;
+			this.length = (previous == null) ? 0 : previous.length + 1;
+			this.sequence = sequence;
+		}
+
+		UhpConverter[] steps() {
+			UhpConverter[] result = new UhpConverter[length];
+			for (Path p = this; p.step != null; p = p.previous)
+				result[p.length - 1] = p.step;
+			return result;
+		}
+
+		public int compareTo(Path other) {
+			if (cost != other.cost)
+				return (cost < other.cost) ? -1 : 1;
+			if (length != other.length)
+				return length - other.length;
+			return sequence - other.sequence;
+		}
+	}
+
+	/**
+	 * Applies the steps one after the other, keeping the intermediate values
+	 * in per thread buffers.
+	 */
+	static final class Chain extends UhpConverter {
+		private final UhpConverter[] steps;
+		private final ThreadLocal<double[][]> buffers;
+		/** Intermediate columns of each step, grown to the largest block. */
+		private final ThreadLocal<double[][][]> columns;
+
+		Chain(final UhpConverter[] steps) {
+			super(steps[0].getSourceType(), steps[steps.length - 1].getTargetType());
+			this.steps = steps;
+			this.buffers = ThreadLocal.withInitial(() -> {
+				double[][] result = new double[steps.length - 1][];
+				for (int i = 0; i < result.length; ++i)
+					result[i] = new double[steps[i].getOutputDimension()];
+				return result;
+			});
+			this.columns = ThreadLocal.withInitial(() -> {
+				double[][][] result = new double[steps.length - 1][][];
+				for (int i = 0; i < result.length; ++i)
+					result[i] = new double[steps[i].getOutputDimension()][0];
+				return result;
+			});
+		}
+
+		@Override
+		public void apply(double[] in, double[] out) {
+			double[][] intermediates = buffers.get();
+			double[] current = in;
+			for (int i = 0; i < intermediates.length; ++i) {
+				steps[i].apply(current, intermediates[i]);
+				current = intermediates[i];
+			}
+			steps[steps.length - 1].apply(current, out);
+		}
+
+		@Override
+		public void applyBatch(double[][] in, double[][] out, int count) {
+			checkBatch(in, out, count);
+			double[][][] intermediates = columns(count);
+			double[][] current = in;
+			for (int i = 0; i < intermediates.length; ++i) {
+				steps[i].applyBatch(current, intermediates[i], count);
+				current = intermediates[i];
+			}
+			steps[steps.length - 1].applyBatch(current, out, count);
+		}
+
+		@Override
+		public void applyBatch(long[][] in, double[][] out, int count) {
+			checkBatch(in, out, count);
+			double[][][] intermediates = columns(count);
+			steps[0].applyBatch(in, intermediates[0], count);
+			double[][] current = intermediates[0];
+			for (int i = 1; i < intermediates.length; ++i) {
+				steps[i].applyBatch(current, intermediates[i], count);
+				current = intermediates[i];
+			}
+			steps[steps.length - 1].applyBatch(current, out, count);
+		}
+
+		/**
+		 * @return the intermediate columns of this thread, holding at least
+		 *         the given number of samples.
+		 */
+		private double[][][] columns(int count) {
+			double[][][] result = columns.get();
+			for (double[][] step : result) {
+				for (int c = 0; c < step.length; ++c) {
+					if (step[c].length < count)
+						step[c] = new double[count];
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "Chain" + Arrays.toString(steps);
+		}
+	}
+}
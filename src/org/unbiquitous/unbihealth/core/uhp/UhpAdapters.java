@@ -0,0 +1,543 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.unbiquitous.unbihealth.core.uhp.UhpType.BaseType;
+
+/**
+ * The built in {@link UhpAdapter}s, for scalars and arrays of scalars.
+ *
+ * <ul>
+ * <li>{@value #SCALE}: multiplies each component by {@value #SCALE_PARAM} and
+ * adds {@value #OFFSET_PARAM}, either a number for all components or a list
+ * with one number per component.</li>
+ * <li>{@value #REMAP}: linearly maps each component from the range given by
+ * {@value #FROM_START_PARAM} and {@value #FROM_SIZE_PARAM} (by default, the
+ * source range) to the range given by {@value #TO_START_PARAM} and
+ * {@value #TO_SIZE_PARAM}, clamping results to the target range unless
+ * {@value #CLAMP_PARAM} is false.</li>
+ * <li>{@value #SELECT}: picks the array element at {@value #COMPONENT_PARAM},
+ * or the array of elements at the {@value #COMPONENTS_PARAM} list.</li>
+ * <li>{@value #MAGNITUDE}: the euclidean norm of an array, bounded when its
+ * elements are.</li>
+ * <li>{@value #THRESHOLD}: {@link UhpType#bit} 1 for components at or above
+ * {@value #THRESHOLD_PARAM}, 0 otherwise.</li>
+ * </ul>
+ *
+ * Remaps, magnitudes and thresholds are also {@link UhpAdapter#suggest
+ * suggested} when resolving paths between types: remaps from bounded sources
+ * into bounded continuous targets, magnitudes of any array, and thresholds at
+ * the middle of bounded sources into bit targets.
+ *
+ * @author Luciano Santos
+ */
+public final class UhpAdapters {
+	public static final String SCALE = "scale";
+	public static final String REMAP = "remap";
+	public static final String SELECT = "select";
+	public static final String MAGNITUDE = "magnitude";
+	public static final String THRESHOLD = "threshold";
+
+	public static final String SCALE_PARAM = "scale";
+	public static final String OFFSET_PARAM = "offset";
+	public static final String FROM_START_PARAM = "fromStart";
+	public static final String FROM_SIZE_PARAM = "fromSize";
+	public static final String TO_START_PARAM = "toStart";
+	public static final String TO_SIZE_PARAM = "toSize";
+	public static final String CLAMP_PARAM = "clamp";
+	public static final String COMPONENT_PARAM = "component";
+	public static final String COMPONENTS_PARAM = "components";
+	public static final String THRESHOLD_PARAM = "threshold";
+
+	public static final UhpAdapter scale = new Adapter(SCALE) {
+		public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+			int dimension = UhpConverter.dimensionOf(sourceType);
+			double[] scale = numbers(params, SCALE_PARAM, dimension, 1);
+			double[] offset = numbers(params, OFFSET_PARAM, dimension, 0);
+			return Affine.diagonal(sourceType, continuousLike(sourceType, UhpType.continuous()), scale, offset,
+					null);
+		}
+	};
+
+	public static final UhpAdapter remap = new Adapter(REMAP) {
+		public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+			int dimension = UhpConverter.dimensionOf(sourceType);
+			UhpType element = elementOf(sourceType);
+			double fromStart = number(params, FROM_START_PARAM, rangeStart(element));
+			double fromSize = number(params, FROM_SIZE_PARAM, rangeSize(element));
+			double toStart = number(params, TO_START_PARAM, Double.NaN);
+			double toSize = number(params, TO_SIZE_PARAM, Double.NaN);
+			if (Double.isNaN(fromStart) || Double.isNaN(fromSize) || (fromSize <= 0))
+				throw new IllegalArgumentException("remap needs a bounded source range");
+			if (Double.isNaN(toStart) || Double.isNaN(toSize) || (toSize <= 0))
+				throw new IllegalArgumentException("remap needs a bounded target range");
+			double factor = toSize / fromSize;
+			double[] scale = new double[dimension];
+			double[] offset = new double[dimension];
+			Arrays.fill(scale, factor);
+			Arrays.fill(offset, toStart - fromStart * factor);
+			// Ranges exclude their end.
+			double[] bounds = bool(params, CLAMP_PARAM, true)
+					? new double[] { toStart, Math.nextDown(toStart + toSize) } : null;
+			UhpType target = (bounds == null) ? UhpType.continuous() : UhpType.continuous(toStart, toSize);
+			return Affine.diagonal(sourceType, continuousLike(sourceType, target), scale, offset, bounds);
+		}
+
+		@Override
+		public List<UhpConverter> suggest(UhpType sourceType, UhpType targetType) {
+			if (!sameShape(sourceType, targetType))
+				return Collections.emptyList();
+			UhpType source = elementOf(sourceType);
+			UhpType target = elementOf(targetType);
+			if ((target.getBaseType() != BaseType.CONTINUOUS) || (target.getContRangeStart() == null)
+					|| (target.getContRangeSize() == null) || Double.isNaN(rangeStart(source))
+					|| Double.isNaN(rangeSize(source)) || (rangeSize(source) <= 0))
+				return Collections.emptyList();
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put(TO_START_PARAM, target.getContRangeStart());
+			params.put(TO_SIZE_PARAM, target.getContRangeSize());
+			return Collections.singletonList(compile(sourceType, params));
+		}
+	};
+
+	public static final UhpAdapter select = new Adapter(SELECT) {
+		public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+			int dimension = UhpConverter.dimensionOf(sourceType);
+			if (sourceType.getBaseType() != BaseType.ARRAY)
+				throw new IllegalArgumentException("select needs an array source");
+			int[] components;
+			boolean array = (params != null) && params.containsKey(COMPONENTS_PARAM);
+			if (array) {
+				double[] indexes = numbers(params, COMPONENTS_PARAM, -1, Double.NaN);
+				components = new int[indexes.length];
+				for (int i = 0; i < indexes.length; ++i)
+					components[i] = (int) indexes[i];
+			} else {
+				double index = number(params, COMPONENT_PARAM, Double.NaN);
+				if (Double.isNaN(index))
+					throw new IllegalArgumentException("no component informed");
+				components = new int[] { (int) index };
+			}
+			if (components.length == 0)
+				throw new IllegalArgumentException("no components selected");
+			double[] matrix = new double[components.length * dimension];
+			for (int i = 0; i < components.length; ++i) {
+				if ((components[i] < 0) || (components[i] >= dimension))
+					throw new IllegalArgumentException("component out of bounds");
+				matrix[i * dimension + components[i]] = 1;
+			}
+			UhpType element = sourceType.getElementType();
+			UhpType target = array ? UhpType.array(element, components.length) : element;
+			return new Affine(sourceType, target, matrix, new double[components.length], null);
+		}
+	};
+
+	public static final UhpAdapter magnitude = new Adapter(MAGNITUDE) {
+		public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+			return new Magnitude(sourceType);
+		}
+
+		@Override
+		public List<UhpConverter> suggest(UhpType sourceType, UhpType targetType) {
+			if ((sourceType.getBaseType() != BaseType.ARRAY) || !isNumeric(sourceType))
+				return Collections.emptyList();
+			return Collections.<UhpConverter> singletonList(new Magnitude(sourceType));
+		}
+	};
+
+	public static final UhpAdapter threshold = new Adapter(THRESHOLD) {
+		public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+			double threshold = number(params, THRESHOLD_PARAM, Double.NaN);
+			if (Double.isNaN(threshold))
+				throw new IllegalArgumentException("no threshold informed");
+			UhpType target = (sourceType.getBaseType() == BaseType.ARRAY)
+					? UhpType.array(UhpType.bit, sourceType.getDimension()) : UhpType.bit;
+			return new Threshold(sourceType, target, threshold);
+		}
+
+		@Override
+		public List<UhpConverter> suggest(UhpType sourceType, UhpType targetType) {
+			if (!sameShape(sourceType, targetType))
+				return Collections.emptyList();
+			UhpType source = elementOf(sourceType);
+			double start = rangeStart(source);
+			double size = rangeSize(source);
+			UhpType target = elementOf(targetType);
+			if (Double.isNaN(start) || Double.isNaN(size) || (size <= 0) || !fits(UhpType.bit, target))
+				return Collections.emptyList();
+			return Collections.singletonList(
+					compile(sourceType, Collections.<String, Object> singletonMap(THRESHOLD_PARAM, start + size / 2)));
+		}
+	};
+
+	/**
+	 * All the built in adapters.
+	 */
+	public static final List<UhpAdapter> all = Collections
+			.unmodifiableList(Arrays.asList(scale, remap, select, magnitude, threshold));
+
+	private UhpAdapters() {
+	}
+
+	/**
+	 * @return a converter passing values of the source type, which must fit
+	 *         the target type, unchanged.
+	 */
+	static UhpConverter identity(UhpType sourceType, UhpType targetType) {
+		int dimension = UhpConverter.dimensionOf(sourceType);
+		double[] scale = new double[dimension];
+		Arrays.fill(scale, 1);
+		return Affine.diagonal(sourceType, targetType, scale, new double[dimension], null);
+	}
+
+	/**
+	 * Tells whether every value of a type is valid for another: both must be
+	 * scalars or arrays of the same dimension, and the range of each element
+	 * must be within the range of the other. Discrete values fit continuous
+	 * types, but not the other way around.
+	 */
+	static boolean fits(UhpType type, UhpType other) {
+		if (!sameShape(type, other))
+			return false;
+		UhpType element = elementOf(type);
+		UhpType otherElement = elementOf(other);
+		boolean discrete = element.getBaseType() == BaseType.DISCRETE;
+		if (otherElement.getBaseType() == BaseType.DISCRETE) {
+			if (!discrete)
+				return false;
+			Long start = otherElement.getDiscRangeStart();
+			Long size = otherElement.getDiscRangeSize();
+			if (start == null)
+				return true;
+			if ((element.getDiscRangeStart() == null) || (element.getDiscRangeStart() < start))
+				return false;
+			if (size == null)
+				return true;
+			return (element.getDiscRangeSize() != null)
+					&& (element.getDiscRangeStart() + element.getDiscRangeSize() <= start + size);
+		}
+		Double start = otherElement.getContRangeStart();
+		Double size = otherElement.getContRangeSize();
+		if (start == null)
+			return true;
+		if (Double.isNaN(rangeStart(element)) || (rangeStart(element) < start))
+			return false;
+		if (size == null)
+			return true;
+		if (Double.isNaN(rangeSize(element)))
+			return false;
+		// Continuous ranges exclude their end, discrete ones hold their last
+		// value.
+		double end = rangeStart(element) + rangeSize(element);
+		return discrete ? (end < start + size) : (end <= start + size);
+	}
+
+	private static boolean sameShape(UhpType type, UhpType other) {
+		if (!isNumeric(type) || !isNumeric(other))
+			return false;
+		return (type.getBaseType() == BaseType.ARRAY) == (other.getBaseType() == BaseType.ARRAY)
+				&& (UhpConverter.dimensionOf(type) == UhpConverter.dimensionOf(other));
+	}
+
+	private static boolean isNumeric(UhpType type) {
+		try {
+			UhpConverter.dimensionOf(type);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static UhpType elementOf(UhpType type) {
+		return (type.getBaseType() == BaseType.ARRAY) ? type.getElementType() : type;
+	}
+
+	/**
+	 * @return the given scalar type, or an array of it with the dimension of
+	 *         the source.
+	 */
+	private static UhpType continuousLike(UhpType sourceType, UhpType scalar) {
+		if (sourceType.getBaseType() == BaseType.ARRAY)
+			return UhpType.array(scalar, sourceType.getDimension());
+		return scalar;
+	}
+
+	private static double rangeStart(UhpType type) {
+		if (type.getBaseType() == BaseType.DISCRETE)
+			return (type.getDiscRangeStart() == null) ? Double.NaN : type.getDiscRangeStart();
+		return (type.getContRangeStart() == null) ? Double.NaN : type.getContRangeStart();
+	}
+
+	private static double rangeSize(UhpType type) {
+		// Discrete ranges exclude their end, so the largest value maps to
+		// the end of the target range.
+		if (type.getBaseType() == BaseType.DISCRETE)
+			return (type.getDiscRangeSize() == null) ? Double.NaN : type.getDiscRangeSize() - 1;
+		return (type.getContRangeSize() == null) ? Double.NaN : type.getContRangeSize();
+	}
+
+	private static double number(Map<String, Object> params, String key, double defaultValue) {
+		Object value = (params == null) ? null : params.get(key);
+		if (value == null)
+			return defaultValue;
+		if (!(value instanceof Number))
+			throw new IllegalArgumentException("parameter " + key + " must be a number");
+		return ((Number) value).doubleValue();
+	}
+
+	private static boolean bool(Map<String, Object> params, String key, boolean defaultValue) {
+		Object value = (params == null) ? null : params.get(key);
+		if (value == null)
+			return defaultValue;
+		if (!(value instanceof Boolean))
+			throw new IllegalArgumentException("parameter " + key + " must be a boolean");
+		return (Boolean) value;
+	}
+
+	/**
+	 * Reads a parameter that is either a number, for all components, or a
+	 * list with one number per component.
+	 *
+	 * @param dimension
+	 *            the number of components, or -1 for a list of any size.
+	 */
+	private static double[] numbers(Map<String, Object> params, String key, int dimension, double defaultValue) {
+		Object value = (params == null) ? null : params.get(key);
+		if ((value == null) && Double.isNaN(defaultValue))
+			throw new IllegalArgumentException("no " + key + " informed");
+		if ((value == null) || (value instanceof Number)) {
+			if (dimension < 0)
+				throw new IllegalArgumentException("parameter " + key + " must be a list of numbers");
+			double[] result = new double[dimension];
+			Arrays.fill(result, number(params, key, defaultValue));
+			return result;
+		}
+		if (!(value instanceof List<?>))
+			throw new IllegalArgumentException("parameter " + key + " must be a number or a list of numbers");
+		List<?> list = (List<?>) value;
+		if ((dimension >= 0) && (list.size() != dimension))
+			throw new IllegalArgumentException("parameter " + key + " must have " + dimension + " numbers");
+		double[] result = new double[list.size()];
+		for (int i = 0; i < result.length; ++i) {
+			if (!(list.get(i) instanceof Number))
+				throw new IllegalArgumentException("parameter " + key + " must be a list of numbers");
+			result[i] = ((Number) list.get(i)).doubleValue();
+		}
+		return result;
+	}
+
+	private static abstract class Adapter implements UhpAdapter {
+		private final String name;
+
+		Adapter(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Computes {@code out = matrix * in + offset}, with the matrix in row
+	 * major order, optionally clamping the results to the given bounds.
+	 */
+	static final class Affine extends UhpConverter {
+		final double[] matrix;
+		final double[] offset;
+		final double[] bounds;
+		private final int columns;
+
+		Affine(UhpType sourceType, UhpType targetType, double[] matrix, double[] offset, double[] bounds) {
+			super(sourceType, targetType);
+			this.matrix = matrix;
+			this.offset = offset;
+			this.bounds = bounds;
+			this.columns = getInputDimension();
+		}
+
+		static Affine diagonal(UhpType sourceType, UhpType targetType, double[] scale, double[] offset,
+				double[] bounds) {
+			int dimension = scale.length;
+			double[] matrix = new double[dimension * dimension];
+			for (int i = 0; i < dimension; ++i)
+				matrix[i * dimension + i] = scale[i];
+			return new Affine(sourceType, targetType, matrix, offset, bounds);
+		}
+
+		/**
+		 * Composes two affine steps into one, computing
+		 * {@code second.matrix * first.matrix} and
+		 * {@code second.matrix * first.offset + second.offset}.
+		 *
+		 * @return the fused step, or null if the first step clamps its
+		 *         results, which is not affine.
+		 */
+		static Affine fuse(Affine first, Affine second) {
+			if (first.bounds != null)
+				return null;
+			int rows = second.offset.length;
+			int inner = first.offset.length;
+			int columns = first.columns;
+			double[] matrix = new double[rows * columns];
+			double[] offset = new double[rows];
+			for (int r = 0; r < rows; ++r) {
+				double b = second.offset[r];
+				for (int i = 0; i < inner; ++i) {
+					double m = second.matrix[r * inner + i];
+					if (m == 0)
+						continue;
+					b += m * first.offset[i];
+					for (int c = 0; c < columns; ++c)
+						matrix[r * columns + c] += m * first.matrix[i * columns + c];
+				}
+				offset[r] = b;
+			}
+			return new Affine(first.getSourceType(), second.getTargetType(), matrix, offset, second.bounds);
+		}
+
+		@Override
+		public void apply(double[] in, double[] out) {
+			for (int r = 0, k = 0; r < offset.length; ++r) {
+				double value = offset[r];
+				for (int c = 0; c < columns; ++c)
+					value += matrix[k++] * in[c];
+				if (bounds != null)
+					value = Math.min(Math.max(value, bounds[0]), bounds[1]);
+				out[r] = value;
+			}
+		}
+
+		@Override
+		public void applyBatch(double[][] in, double[][] out, int count) {
+			checkBatch(in, out, count);
+			for (int r = 0; r < offset.length; ++r) {
+				double[] o = out[r];
+				Arrays.fill(o, 0, count, offset[r]);
+				for (int c = 0; c < columns; ++c) {
+					double m = matrix[r * columns + c];
+					if (m == 0)
+						continue;
+					double[] x = in[c];
+					for (int i = 0; i < count; ++i)
+						o[i] += m * x[i];
+				}
+				clamp(o, count);
+			}
+		}
+
+		@Override
+		public void applyBatch(long[][] in, double[][] out, int count) {
+			checkBatch(in, out, count);
+			for (int r = 0; r < offset.length; ++r) {
+				double[] o = out[r];
+				Arrays.fill(o, 0, count, offset[r]);
+				for (int c = 0; c < columns; ++c) {
+					double m = matrix[r * columns + c];
+					if (m == 0)
+						continue;
+					long[] x = in[c];
+					for (int i = 0; i < count; ++i)
+						o[i] += m * x[i];
+				}
+				clamp(o, count);
+			}
+		}
+
+		private void clamp(double[] o, int count) {
+			if (bounds != null) {
+				double low = bounds[0], high = bounds[1];
+				for (int i = 0; i < count; ++i)
+					o[i] = Math.min(Math.max(o[i], low), high);
+			}
+		}
+	}
+
+	private static final class Magnitude extends UhpConverter {
+		private final int dimension;
+
+		Magnitude(UhpType sourceType) {
+			super(sourceType, targetOf(sourceType));
+			this.dimension = getInputDimension();
+		}
+
+		/**
+		 * @return a range holding the norm of any source value, when the
+		 *         source elements are bounded, or no upper bound otherwise.
+		 */
+		private static UhpType targetOf(UhpType sourceType) {
+			int dimension = UhpConverter.dimensionOf(sourceType);
+			UhpType element = elementOf(sourceType);
+			double start = rangeStart(element);
+			double size = rangeSize(element);
+			if (Double.isNaN(start) || Double.isNaN(size))
+				return UhpType.continuous(0);
+			double bound = Math.max(Math.abs(start), Math.abs(start + size));
+			// Summed as in apply, so no value rounds past the bound.
+			double sum = 0;
+			for (int i = 0; i < dimension; ++i)
+				sum += bound * bound;
+			// Continuous ranges exclude their end.
+			return UhpType.continuous(0, Math.nextUp(Math.sqrt(sum)));
+		}
+
+		@Override
+		public void apply(double[] in, double[] out) {
+			double sum = 0;
+			for (int i = 0; i < dimension; ++i)
+				sum += in[i] * in[i];
+			out[0] = Math.sqrt(sum);
+		}
+
+		@Override
+		public void applyBatch(double[][] in, double[][] out, int count) {
+			checkBatch(in, out, count);
+			double[] o = out[0];
+			Arrays.fill(o, 0, count, 0);
+			for (int c = 0; c < dimension; ++c) {
+				double[] x = in[c];
+				for (int i = 0; i < count; ++i)
+					o[i] += x[i] * x[i];
+			}
+			for (int i = 0; i < count; ++i)
+				o[i] = Math.sqrt(o[i]);
+		}
+	}
+
+	private static final class Threshold extends UhpConverter {
+		private final double threshold;
+		private final int dimension;
+
+		Threshold(UhpType sourceType, UhpType targetType, double threshold) {
+			super(sourceType, targetType);
+			this.threshold = threshold;
+			this.dimension = getOutputDimension();
+		}
+
+		@Override
+		public void apply(double[] in, double[] out) {
+			for (int i = 0; i < dimension; ++i)
+				out[i] = (in[i] >= threshold) ? 1 : 0;
+		}
+
+		@Override
+		public void applyBatch(double[][] in, double[][] out, int count) {
+			checkBatch(in, out, count);
+			for (int c = 0; c < dimension; ++c) {
+				double[] x = in[c];
+				double[] o = out[c];
+				for (int i = 0; i < count; ++i)
+					o[i] = (x[i] >= threshold) ? 1 : 0;
+			}
+		}
+	}
+}
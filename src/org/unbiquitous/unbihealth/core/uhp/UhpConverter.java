@@ -0,0 +1,288 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import org.unbiquitous.unbihealth.core.uhp.UhpType.BaseType;
+
+/**
+ * Compiled form of a {@link UhpAdaptation}, converting values of a source type
+ * into values of a target type.
+ *
+ * Converters handle scalars and arrays of scalars, seen as vectors of doubles:
+ * a sample is read into a {@code double[]} of {@link #getInputDimension()}
+ * components, transformed by {@link #apply(double[], double[])} and written
+ * back as a value of the target type. All parameters are resolved when the
+ * converter is built, so converting a value does no lookups.
+ *
+ * Blocks of samples may be converted at once, in columnar form (one array per
+ * component, such as the columns of a
+ * {@link org.unbiquitous.unbihealth.core.types.Vector3Buffer}), with
+ * {@link #applyBatch(double[][], double[][], int)}, which the built in
+ * converters run as simple loops over the columns.
+ *
+ * Converters are immutable and may be shared among threads.
+ *
+ * @author Luciano Santos
+ *
+ * @see UhpAdapter#compile(UhpType, java.util.Map)
+ */
+public abstract class UhpConverter {
+	private final UhpType sourceType;
+	private final UhpType targetType;
+	private final int inputDimension;
+	private final int outputDimension;
+	private final boolean discreteOutput;
+	private final boolean arrayOutput;
+
+	/**
+	 * @param sourceType
+	 *            the type of the converted values.
+	 * @param targetType
+	 *            the type of the produced values.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if either type is not a scalar or an array of scalars.
+	 */
+	protected UhpConverter(UhpType sourceType, UhpType targetType) {
+		this.sourceType = UhpType.intern(sourceType);
+		this.targetType = UhpType.intern(targetType);
+		this.inputDimension = dimensionOf(sourceType);
+		this.outputDimension = dimensionOf(targetType);
+		this.arrayOutput = targetType.getBaseType() == BaseType.ARRAY;
+		UhpType element = arrayOutput ? targetType.getElementType() : targetType;
+		this.discreteOutput = element.getBaseType() == BaseType.DISCRETE;
+	}
+
+	public UhpType getSourceType() {
+		return sourceType;
+	}
+
+	public UhpType getTargetType() {
+		return targetType;
+	}
+
+	public int getInputDimension() {
+		return inputDimension;
+	}
+
+	public int getOutputDimension() {
+		return outputDimension;
+	}
+
+	/**
+	 * Converts a single sample in primitive form.
+	 *
+	 * @param in
+	 *            the {@link #getInputDimension()} source components.
+	 * @param out
+	 *            where to store the {@link #getOutputDimension()} target
+	 *            components.
+	 */
+	public abstract void apply(double[] in, double[] out);
+
+	/**
+	 * Converts a block of samples in columnar form.
+	 *
+	 * The default implementation converts one sample after the other.
+	 *
+	 * @param in
+	 *            the {@link #getInputDimension()} source columns.
+	 * @param out
+	 *            the {@link #getOutputDimension()} target columns, which must
+	 *            not be any of the source columns.
+	 * @param count
+	 *            the number of samples, at most the length of every column.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the number of columns is wrong, or any is too short.
+	 */
+	public void applyBatch(double[][] in, double[][] out, int count) {
+		checkBatch(in, out, count);
+		double[] sampleIn = new double[inputDimension];
+		double[] sampleOut = new double[outputDimension];
+		for (int i = 0; i < count; ++i) {
+			for (int c = 0; c < inputDimension; ++c)
+				sampleIn[c] = in[c][i];
+			apply(sampleIn, sampleOut);
+			for (int r = 0; r < outputDimension; ++r)
+				out[r][i] = sampleOut[r];
+		}
+	}
+
+	/**
+	 * Converts a block of discrete samples in columnar form.
+	 *
+	 * The default implementation converts one sample after the other, reading
+	 * the source columns as they are.
+	 *
+	 * @see #applyBatch(double[][], double[][], int)
+	 */
+	public void applyBatch(long[][] in, double[][] out, int count) {
+		checkBatch(in, out, count);
+		double[] sampleIn = new double[inputDimension];
+		double[] sampleOut = new double[outputDimension];
+		for (int i = 0; i < count; ++i) {
+			for (int c = 0; c < inputDimension; ++c)
+				sampleIn[c] = in[c][i];
+			apply(sampleIn, sampleOut);
+			for (int r = 0; r < outputDimension; ++r)
+				out[r][i] = sampleOut[r];
+		}
+	}
+
+	/**
+	 * Checks the shape of the columns given to
+	 * {@link #applyBatch(double[][], double[][], int)}.
+	 */
+	protected final void checkBatch(double[][] in, double[][] out, int count) {
+		checkTarget(in, out, count);
+		for (int c = 0; c < inputDimension; ++c) {
+			if ((in[c] == null) || (in[c].length < count))
+				throw new IllegalArgumentException("source column " + c + " is too short");
+		}
+	}
+
+	/**
+	 * Checks the shape of the columns given to
+	 * {@link #applyBatch(long[][], double[][], int)}.
+	 */
+	protected final void checkBatch(long[][] in, double[][] out, int count) {
+		checkTarget(in, out, count);
+		for (int c = 0; c < inputDimension; ++c) {
+			if ((in[c] == null) || (in[c].length < count))
+				throw new IllegalArgumentException("source column " + c + " is too short");
+		}
+	}
+
+	private void checkTarget(Object[] in, double[][] out, int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("negative count");
+		if ((in == null) || (in.length != inputDimension))
+			throw new IllegalArgumentException("expected " + inputDimension + " source columns");
+		if ((out == null) || (out.length != outputDimension))
+			throw new IllegalArgumentException("expected " + outputDimension + " target columns");
+		for (int r = 0; r < outputDimension; ++r) {
+			if ((out[r] == null) || (out[r].length < count))
+				throw new IllegalArgumentException("target column " + r + " is too short");
+		}
+	}
+
+	/**
+	 * Converts a value of the source type, as given by its extractors.
+	 *
+	 * @param value
+	 *            a number, for scalars, or an {@code Object[]} of numbers,
+	 *            {@code double[]}, {@code float[]} or {@code long[]}, for
+	 *            arrays.
+	 *
+	 * @return a {@link Long} or {@link Double}, for scalar targets, or an
+	 *         {@code Object[]} of them, for array targets.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value does not have the shape of the source type.
+	 */
+	public Object convert(Object value) {
+		double[] out = new double[outputDimension];
+		apply(toDoubles(value, new double[inputDimension]), out);
+		if (!arrayOutput)
+			return box(out[0]);
+		Object[] result = new Object[outputDimension];
+		for (int i = 0; i < outputDimension; ++i)
+			result[i] = box(out[i]);
+		return result;
+	}
+
+	/**
+	 * Tells whether the converted values have the shape of the given type,
+	 * that is, whether both are scalars or both are arrays of the same
+	 * dimension. Values may still be out of the range of the type.
+	 *
+	 * @param type
+	 *            the type.
+	 *
+	 * @return whether values of the type may be produced.
+	 */
+	public boolean isCompatibleWith(UhpType type) {
+		try {
+			return (dimensionOf(type) == outputDimension)
+					&& ((type.getBaseType() == BaseType.ARRAY) == arrayOutput);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private Object box(double value) {
+		if (discreteOutput)
+			return Math.round(value);
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(" + sourceType + " -> " + targetType + ")";
+	}
+
+	/**
+	 * Reads a value of a scalar or array of scalars type into its components.
+	 */
+	static double[] toDoubles(Object value, double[] out) {
+		if (value == null)
+			throw new NullPointerException("source object");
+		if (value instanceof Number) {
+			checkLength(1, out.length);
+			out[0] = ((Number) value).doubleValue();
+		} else if (value instanceof double[]) {
+			double[] v = (double[]) value;
+			checkLength(v.length, out.length);
+			System.arraycopy(v, 0, out, 0, v.length);
+		} else if (value instanceof float[]) {
+			float[] v = (float[]) value;
+			checkLength(v.length, out.length);
+			for (int i = 0; i < v.length; ++i)
+				out[i] = v[i];
+		} else if (value instanceof long[]) {
+			long[] v = (long[]) value;
+			checkLength(v.length, out.length);
+			for (int i = 0; i < v.length; ++i)
+				out[i] = v[i];
+		} else if (value instanceof Object[]) {
+			Object[] v = (Object[]) value;
+			checkLength(v.length, out.length);
+			for (int i = 0; i < v.length; ++i) {
+				if (!(v[i] instanceof Number))
+					throw new IllegalArgumentException("expected numeric array elements");
+				out[i] = ((Number) v[i]).doubleValue();
+			}
+		} else
+			throw new IllegalArgumentException("expected a number or an array of numbers");
+		return out;
+	}
+
+	private static void checkLength(int length, int expected) {
+		if (length != expected)
+			throw new IllegalArgumentException("expected " + expected + " components, got " + length);
+	}
+
+	/**
+	 * @return the number of components of a scalar (one) or array of scalars
+	 *         type.
+	 *
+	 * @throws IllegalArgumentException
+	 *             for any other type.
+	 */
+	static int dimensionOf(UhpType type) {
+		if ((type == null) || !type.isValid())
+			throw new IllegalArgumentException("invalid type");
+		switch (type.getBaseType()) {
+		case DISCRETE:
+		case CONTINUOUS:
+			return 1;
+		case ARRAY:
+			BaseType element = type.getElementType().getBaseType();
+			if ((element == BaseType.DISCRETE) || (element == BaseType.CONTINUOUS))
+				return type.getDimension();
+			break;
+		default:
+			break;
+		}
+		throw new IllegalArgumentException("adapters only take scalars or arrays of scalars");
+	}
+}
@@ -0,0 +1,1044 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Compiled form of {@link UhpType#extractValue(Object)}.
+ *
+ * An extractor is built once from a type description, resolving ranges,
+ * dimensions and struct fields into plain final fields, so that extracting a
+ * value does no further interpretation of the type tree.
+ *
+ * Besides already materialized objects, an extractor can read a value
+ * straight from JSON text, validating and building the result in a single
+ * pass over the parser tokens, with no intermediate {@link JsonNode} tree.
+ *
+ * A primitive extractor, as given by {@link UhpType#getPrimitiveExtractor()},
+ * produces {@code long[]} and {@code double[]} (or {@code float[]}, for
+ * single precision) for arrays of discrete and continuous values, avoiding a
+ * boxed object per element. Any extractor accepts primitive arrays as
+ * sources.
+ *
+ * Values may also be encoded to, and extracted from, a compact binary form
+ * that relies on both sides knowing the type: discrete values are written as
+ * variable length integers relative to the range start, continuous values as
+ * raw IEEE 754 doubles (or floats, for single precision), and arrays and
+ * structs as their elements in a fixed order (struct fields sorted by name),
+ * with no lengths or names.
+ *
+ * Structs are extracted to {@link UhpRecord}s, which hold the field values
+ * sorted by name.
+ *
+ * Extractors are immutable and may be shared among threads.
+ *
+ * @author Luciano Santos
+ *
+ * @see UhpType#getExtractor()
+ */
+public abstract class UhpExtractor {
+	private static final JsonFactory factory = new JsonFactory();
+
+	/**
+	 * From JSON based object, extracts locally represented valid object for
+	 * the compiled type, if possible.
+	 *
+	 * @param src
+	 *            the JSON based object.
+	 *
+	 * @return a local representation of the value valid for the type.
+	 *
+	 * @throws IllegalStateException
+	 *             if the compiled type was not in a valid state.
+	 * @throws NullPointerException
+	 *             if the src is null.
+	 * @throws IllegalArgumentException
+	 *             if the source value is invalid for the type.
+	 */
+	public abstract Object extract(Object src);
+
+	/**
+	 * Extracts the value at the current token of the given parser, leaving the
+	 * parser at the last token of that value.
+	 *
+	 * @param parser
+	 *            the parser, positioned at the first token of the value.
+	 *
+	 * @return a local representation of the value valid for the type.
+	 *
+	 * @throws IOException
+	 *             if the underlying JSON is malformed or can't be read.
+	 * @throws IllegalStateException
+	 *             if the compiled type was not in a valid state.
+	 * @throws IllegalArgumentException
+	 *             if the source value is invalid for the type.
+	 */
+	public abstract Object extract(JsonParser parser) throws IOException;
+
+	/**
+	 * Extracts a value from its JSON text.
+	 *
+	 * @param json
+	 *            the JSON text.
+	 *
+	 * @return a local representation of the value valid for the type.
+	 *
+	 * @throws IOException
+	 *             if the JSON is malformed.
+	 *
+	 * @see #extract(JsonParser)
+	 */
+	public Object extractJson(String json) throws IOException {
+		if (json == null)
+			throw new NullPointerException("source object");
+		JsonParser parser = factory.createParser(json);
+		try {
+			return extractRoot(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Extracts a value from its UTF-8 encoded JSON text.
+	 *
+	 * @param json
+	 *            the JSON bytes.
+	 *
+	 * @return a local representation of the value valid for the type.
+	 *
+	 * @throws IOException
+	 *             if the JSON is malformed.
+	 *
+	 * @see #extract(JsonParser)
+	 */
+	public Object extractJson(byte[] json) throws IOException {
+		if (json == null)
+			throw new NullPointerException("source object");
+		JsonParser parser = factory.createParser(json);
+		try {
+			return extractRoot(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Encodes a value in the binary form of the compiled type.
+	 *
+	 * @param src
+	 *            any value accepted by {@link #extract(Object)}.
+	 *
+	 * @return the encoded value.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the value is invalid for the type.
+	 *
+	 * @see #extractBinary(byte[])
+	 */
+	public byte[] encode(Object src) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		try {
+			write(src, new DataOutputStream(bytes));
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Extracts a value from its binary form.
+	 *
+	 * @param data
+	 *            the encoded value.
+	 *
+	 * @return a local representation of the value valid for the type.
+	 *
+	 * @throws IOException
+	 *             if the data ends before the value does.
+	 * @throws IllegalArgumentException
+	 *             if the decoded value is invalid for the type, or is followed
+	 *             by extra data.
+	 *
+	 * @see #encode(Object)
+	 */
+	public Object extractBinary(byte[] data) throws IOException {
+		if (data == null)
+			throw new NullPointerException("source object");
+		ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+		Object value = read(new DataInputStream(bytes));
+		if (bytes.available() > 0)
+			throw new IllegalArgumentException("unexpected data after value");
+		return value;
+	}
+
+	abstract void write(Object src, DataOutput out) throws IOException;
+
+	abstract Object read(DataInput in) throws IOException;
+
+	private Object extractRoot(JsonParser parser) throws IOException {
+		if (parser.nextToken() == null)
+			throw new IllegalArgumentException("no json value found");
+		return extract(parser);
+	}
+
+	/**
+	 * Compiles the given type into an extractor. Invalid type states are
+	 * compiled into an extractor that always fails with an
+	 * {@link IllegalStateException}, just as the interpreted extraction would.
+	 *
+	 * @param type
+	 *            the type to compile.
+	 *
+	 * @return the compiled extractor.
+	 */
+	static UhpExtractor compile(UhpType type) {
+		return compile(type, false);
+	}
+
+	/**
+	 * Compiles the given type into an extractor, optionally producing
+	 * {@code long[]} and {@code double[]} for arrays of discrete and continuous
+	 * values, instead of {@code Object[]} of boxed values.
+	 *
+	 * @param type
+	 *            the type to compile.
+	 * @param primitive
+	 *            whether to produce primitive arrays.
+	 *
+	 * @return the compiled extractor.
+	 */
+	static UhpExtractor compile(UhpType type, boolean primitive) {
+		if (type.getBaseType() == null)
+			return new Failing("no base type defined");
+
+		switch (type.getBaseType()) {
+		case DISCRETE:
+			return compileDiscrete(type);
+		case CONTINUOUS:
+			return compileContinuous(type);
+		case ARRAY:
+			return compileArray(type, primitive);
+		case STRUCTURED:
+			return compileStruct(type, primitive);
+		}
+		throw new AssertionError(type.getBaseType());
+	}
+
+	private static UhpExtractor compileDiscrete(UhpType type) {
+		Long start = type.getDiscRangeStart();
+		Long size = type.getDiscRangeSize();
+		if (start == null)
+			return new Discrete(false, 0, false, 0);
+		if ((size != null) && (size.longValue() <= 0))
+			return new Failing("range size is invalid");
+		if (size == null)
+			return new Discrete(true, start.longValue(), false, 0);
+		return new Discrete(true, start.longValue(), true, start.longValue() + size.longValue());
+	}
+
+	private static UhpExtractor compileContinuous(UhpType type) {
+		Double start = type.getContRangeStart();
+		Double size = type.getContRangeSize();
+		boolean single = type.getContPrecision() == UhpType.Precision.SINGLE;
+		if (start == null)
+			return new Continuous(false, 0, false, 0, single);
+		if ((size != null) && (size.doubleValue() <= 0))
+			return new Failing("range size is invalid");
+		if (size == null)
+			return new Continuous(true, start.doubleValue(), false, 0, single);
+		return new Continuous(true, start.doubleValue(), true, start.doubleValue() + size.doubleValue(), single);
+	}
+
+	private static UhpExtractor compileArray(UhpType type, boolean primitive) {
+		Integer dimension = type.getDimension();
+		if ((dimension == null) || (dimension.intValue() < 1))
+			return new Failing("array dimension is invalid");
+		if (type.getElementType() == null)
+			return new Failing("array element type is invalid");
+		UhpExtractor element = compile(type.getElementType(), primitive);
+		if (primitive && (element instanceof Discrete))
+			return new LongArray(dimension.intValue(), (Discrete) element);
+		if (primitive && (element instanceof Continuous) && ((Continuous) element).single)
+			return new FloatArray(dimension.intValue(), (Continuous) element);
+		if (primitive && (element instanceof Continuous))
+			return new DoubleArray(dimension.intValue(), (Continuous) element);
+		return new Array(dimension.intValue(), element);
+	}
+
+	private static UhpExtractor compileStruct(UhpType type, boolean primitive) {
+		Map<String, UhpType> fields = type.getFields();
+		if (fields == null)
+			return new Failing("no map fields defined");
+
+		String[] names = fields.keySet().toArray(new String[fields.size()]);
+		UhpExtractor[] extractors = new UhpExtractor[names.length];
+		for (int i = 0; i < names.length; ++i)
+			extractors[i] = compile(fields.get(names[i]), primitive);
+		return new Struct(names, extractors);
+	}
+
+	private static void checkSource(Object src) {
+		if (src == null)
+			throw new NullPointerException("source object");
+	}
+
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("malformed variable length integer");
+	}
+
+	/**
+	 * Stands for a type that is not in a valid state.
+	 */
+	private static final class Failing extends UhpExtractor {
+		private final String message;
+
+		Failing(String message) {
+			this.message = message;
+		}
+
+		@Override
+		public Object extract(Object src) {
+			throw new IllegalStateException(message);
+		}
+
+		@Override
+		public Object extract(JsonParser parser) {
+			throw new IllegalStateException(message);
+		}
+
+		@Override
+		void write(Object src, DataOutput out) {
+			throw new IllegalStateException(message);
+		}
+
+		@Override
+		Object read(DataInput in) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	private static final class Discrete extends UhpExtractor {
+		private final boolean hasStart;
+		private final long start;
+		private final boolean hasEnd;
+		private final long end;
+
+		Discrete(boolean hasStart, long start, boolean hasEnd, long end) {
+			this.hasStart = hasStart;
+			this.start = start;
+			this.hasEnd = hasEnd;
+			this.end = end;
+		}
+
+		@Override
+		public Object extract(Object src) {
+			return toLong(src);
+		}
+
+		@Override
+		public Object extract(JsonParser parser) throws IOException {
+			return toLong(parser);
+		}
+
+		@Override
+		void write(Object src, DataOutput out) throws IOException {
+			writeLong(toLong(src), out);
+		}
+
+		@Override
+		Object read(DataInput in) throws IOException {
+			return readLong(in);
+		}
+
+		/**
+		 * Values with a range start are written as their unsigned offset from
+		 * it, others in zig-zag form so that small negatives stay short.
+		 */
+		void writeLong(long value, DataOutput out) throws IOException {
+			writeVarLong(out, hasStart ? (value - start) : ((value << 1) ^ (value >> 63)));
+		}
+
+		long readLong(DataInput in) throws IOException {
+			long raw = readVarLong(in);
+			return validate(hasStart ? (start + raw) : ((raw >>> 1) ^ -(raw & 1)));
+		}
+
+		long toLong(Object src) {
+			checkSource(src);
+			if (src instanceof Long)
+				return validate(((Long) src).longValue());
+			if (src instanceof Integer)
+				return validate(((Integer) src).intValue());
+			if (src instanceof JsonNode) {
+				JsonNode node = (JsonNode) src;
+				if (node.isInt() || node.isLong())
+					return validate(node.asLong());
+				throw new IllegalArgumentException("expected a json integral value");
+			}
+			throw new IllegalArgumentException("expected an integral value");
+		}
+
+		long toLong(JsonParser parser) throws IOException {
+			if ((parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT)
+					&& (parser.getNumberType() != NumberType.BIG_INTEGER))
+				return validate(parser.getLongValue());
+			throw new IllegalArgumentException("expected a json integral value");
+		}
+
+		long validate(long value) {
+			if (hasStart && ((value < start) || (hasEnd && (value >= end))))
+				throw new IllegalArgumentException("value outside of defined range");
+			return value;
+		}
+	}
+
+	private static final class Continuous extends UhpExtractor {
+		private final boolean hasStart;
+		private final double start;
+		private final boolean hasEnd;
+		private final double end;
+		final boolean single;
+
+		Continuous(boolean hasStart, double start, boolean hasEnd, double end, boolean single) {
+			this.hasStart = hasStart;
+			this.start = start;
+			this.hasEnd = hasEnd;
+			this.end = end;
+			this.single = single;
+		}
+
+		@Override
+		public Object extract(Object src) {
+			if (single)
+				return toFloat(src);
+			return toDouble(src);
+		}
+
+		@Override
+		public Object extract(JsonParser parser) throws IOException {
+			if (single)
+				return toFloat(parser);
+			return toDouble(parser);
+		}
+
+		@Override
+		void write(Object src, DataOutput out) throws IOException {
+			if (single)
+				out.writeFloat(toFloat(src));
+			else
+				out.writeDouble(toDouble(src));
+		}
+
+		@Override
+		Object read(DataInput in) throws IOException {
+			if (single)
+				return readFloat(in);
+			return readDouble(in);
+		}
+
+		double readDouble(DataInput in) throws IOException {
+			return validate(in.readDouble());
+		}
+
+		float readFloat(DataInput in) throws IOException {
+			return validate(in.readFloat());
+		}
+
+		double toDouble(Object src) {
+			return validate(raw(src));
+		}
+
+		double toDouble(JsonParser parser) throws IOException {
+			return validate(raw(parser));
+		}
+
+		/**
+		 * Rounds to single precision before checking the range, so that the
+		 * rounding can't take the value out of it.
+		 */
+		float toFloat(Object src) {
+			return validate((float) raw(src));
+		}
+
+		float toFloat(JsonParser parser) throws IOException {
+			return validate((float) raw(parser));
+		}
+
+		private double raw(Object src) {
+			checkSource(src);
+			if (src instanceof Double)
+				return ((Double) src).doubleValue();
+			if (src instanceof Float)
+				return ((Float) src).floatValue();
+			if (src instanceof Integer)
+				return ((Integer) src).intValue();
+			if (src instanceof Long)
+				return ((Long) src).longValue();
+			if (src instanceof JsonNode) {
+				JsonNode node = (JsonNode) src;
+				if (node.isFloat() || node.isDouble() || node.isInt() || node.isLong())
+					return node.asDouble();
+				throw new IllegalArgumentException("expected a json floating point value");
+			}
+			throw new IllegalArgumentException("expected a floating point value");
+		}
+
+		private double raw(JsonParser parser) throws IOException {
+			JsonToken token = parser.getCurrentToken();
+			if ((token == JsonToken.VALUE_NUMBER_FLOAT)
+					|| ((token == JsonToken.VALUE_NUMBER_INT) && (parser.getNumberType() != NumberType.BIG_INTEGER)))
+				return parser.getDoubleValue();
+			throw new IllegalArgumentException("expected a json floating point value");
+		}
+
+		float validate(float value) {
+			validate((double) value);
+			return value;
+		}
+
+		double validate(double value) {
+			if (hasStart && ((value < start) || (hasEnd && (value >= end))))
+				throw new IllegalArgumentException("value outside of defined range");
+			return value;
+		}
+	}
+
+	/**
+	 * Base for array extractors, holding the shape checks and the walk over
+	 * every accepted kind of source.
+	 */
+	private static abstract class ArrayBase<T> extends UhpExtractor {
+		final int dimension;
+
+		ArrayBase(int dimension) {
+			this.dimension = dimension;
+		}
+
+		abstract T newArray();
+
+		abstract void set(T result, int i, Object value);
+
+		abstract void set(T result, int i, JsonParser parser) throws IOException;
+
+		abstract void write(T array, int i, DataOutput out) throws IOException;
+
+		abstract void set(T result, int i, DataInput in) throws IOException;
+
+		/**
+		 * Fast path for primitive array sources, returns null if the given
+		 * array has no specialized handling.
+		 */
+		T fromPrimitive(Object array) {
+			return null;
+		}
+
+		@Override
+		public Object extract(Object src) {
+			checkSource(src);
+			if (src instanceof Object[])
+				return fromArray((Object[]) src);
+			if (src instanceof Collection<?>)
+				return fromArray(((Collection<?>) src).toArray());
+			if (src instanceof JsonNode) {
+				JsonNode node = (JsonNode) src;
+				if (!node.isArray())
+					throw new IllegalArgumentException("exptected a json array");
+				checkLength(node.size());
+				T result = newArray();
+				for (int i = 0; i < dimension; ++i)
+					setElement(result, i, node.get(i));
+				return result;
+			}
+			if (src.getClass().isArray()) {
+				checkLength(java.lang.reflect.Array.getLength(src));
+				T result = fromPrimitive(src);
+				if (result == null) {
+					result = newArray();
+					for (int i = 0; i < dimension; ++i)
+						setElement(result, i, java.lang.reflect.Array.get(src, i));
+				}
+				return result;
+			}
+			throw new IllegalArgumentException("exptected an array or collection");
+		}
+
+		@Override
+		public Object extract(JsonParser parser) throws IOException {
+			if (parser.getCurrentToken() != JsonToken.START_ARRAY)
+				throw new IllegalArgumentException("exptected a json array");
+			T result = newArray();
+			for (int i = 0; i < dimension; ++i) {
+				if (parser.nextToken() == JsonToken.END_ARRAY)
+					checkLength(i);
+				try {
+					set(result, i, parser);
+				} catch (RuntimeException e) {
+					throw elementError(i, e);
+				}
+			}
+			if (parser.nextToken() != JsonToken.END_ARRAY)
+				checkLength(dimension + 1);
+			return result;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		void write(Object src, DataOutput out) throws IOException {
+			T array = (T) extract(src);
+			for (int i = 0; i < dimension; ++i)
+				write(array, i, out);
+		}
+
+		@Override
+		Object read(DataInput in) throws IOException {
+			T result = newArray();
+			for (int i = 0; i < dimension; ++i) {
+				try {
+					set(result, i, in);
+				} catch (RuntimeException e) {
+					throw elementError(i, e);
+				}
+			}
+			return result;
+		}
+
+		private T fromArray(Object[] array) {
+			checkLength(array.length);
+			T result = newArray();
+			for (int i = 0; i < dimension; ++i)
+				setElement(result, i, array[i]);
+			return result;
+		}
+
+		private void setElement(T result, int i, Object value) {
+			try {
+				set(result, i, value);
+			} catch (RuntimeException e) {
+				throw elementError(i, e);
+			}
+		}
+
+		void checkLength(int length) {
+			if (length != dimension)
+				throw new IllegalArgumentException("expected array of size " + dimension);
+		}
+
+		static IllegalArgumentException elementError(int i, RuntimeException cause) {
+			return new IllegalArgumentException("array element at " + i + " is invalid", cause);
+		}
+	}
+
+	private static final class Array extends ArrayBase<Object[]> {
+		private final UhpExtractor element;
+
+		Array(int dimension, UhpExtractor element) {
+			super(dimension);
+			this.element = element;
+		}
+
+		@Override
+		Object[] newArray() {
+			return new Object[dimension];
+		}
+
+		@Override
+		void set(Object[] result, int i, Object value) {
+			result[i] = element.extract(value);
+		}
+
+		@Override
+		void set(Object[] result, int i, JsonParser parser) throws IOException {
+			result[i] = element.extract(parser);
+		}
+
+		@Override
+		void write(Object[] array, int i, DataOutput out) throws IOException {
+			element.write(array[i], out);
+		}
+
+		@Override
+		void set(Object[] result, int i, DataInput in) throws IOException {
+			result[i] = element.read(in);
+		}
+	}
+
+	/**
+	 * Produces {@code long[]} for arrays of discrete values.
+	 */
+	private static final class LongArray extends ArrayBase<long[]> {
+		private final Discrete element;
+
+		LongArray(int dimension, Discrete element) {
+			super(dimension);
+			this.element = element;
+		}
+
+		@Override
+		long[] newArray() {
+			return new long[dimension];
+		}
+
+		@Override
+		void set(long[] result, int i, Object value) {
+			result[i] = element.toLong(value);
+		}
+
+		@Override
+		void set(long[] result, int i, JsonParser parser) throws IOException {
+			result[i] = element.toLong(parser);
+		}
+
+		@Override
+		void write(long[] array, int i, DataOutput out) throws IOException {
+			element.writeLong(array[i], out);
+		}
+
+		@Override
+		void set(long[] result, int i, DataInput in) throws IOException {
+			result[i] = element.readLong(in);
+		}
+
+		@Override
+		long[] fromPrimitive(Object array) {
+			// Validated before allocating, so rejected values cost nothing.
+			if (array instanceof long[]) {
+				long[] src = (long[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				return Arrays.copyOf(src, dimension);
+			}
+			if (array instanceof int[]) {
+				int[] src = (int[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				long[] result = new long[dimension];
+				for (int i = 0; i < dimension; ++i)
+					result[i] = src[i];
+				return result;
+			}
+			return null;
+		}
+
+		private long validate(int i, long value) {
+			try {
+				return element.validate(value);
+			} catch (RuntimeException e) {
+				throw elementError(i, e);
+			}
+		}
+	}
+
+	/**
+	 * Produces {@code double[]} for arrays of continuous values.
+	 */
+	private static final class DoubleArray extends ArrayBase<double[]> {
+		private final Continuous element;
+
+		DoubleArray(int dimension, Continuous element) {
+			super(dimension);
+			this.element = element;
+		}
+
+		@Override
+		double[] newArray() {
+			return new double[dimension];
+		}
+
+		@Override
+		void set(double[] result, int i, Object value) {
+			result[i] = element.toDouble(value);
+		}
+
+		@Override
+		void set(double[] result, int i, JsonParser parser) throws IOException {
+			result[i] = element.toDouble(parser);
+		}
+
+		@Override
+		void write(double[] array, int i, DataOutput out) throws IOException {
+			out.writeDouble(array[i]);
+		}
+
+		@Override
+		void set(double[] result, int i, DataInput in) throws IOException {
+			result[i] = element.readDouble(in);
+		}
+
+		@Override
+		double[] fromPrimitive(Object array) {
+			// Validated before allocating, so rejected values cost nothing.
+			if (array instanceof double[]) {
+				double[] src = (double[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				return Arrays.copyOf(src, dimension);
+			}
+			if (array instanceof float[]) {
+				float[] src = (float[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				double[] result = new double[dimension];
+				for (int i = 0; i < dimension; ++i)
+					result[i] = src[i];
+				return result;
+			}
+			if (array instanceof long[]) {
+				long[] src = (long[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				double[] result = new double[dimension];
+				for (int i = 0; i < dimension; ++i)
+					result[i] = src[i];
+				return result;
+			}
+			if (array instanceof int[]) {
+				int[] src = (int[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				double[] result = new double[dimension];
+				for (int i = 0; i < dimension; ++i)
+					result[i] = src[i];
+				return result;
+			}
+			return null;
+		}
+
+		private double validate(int i, double value) {
+			try {
+				return element.validate(value);
+			} catch (RuntimeException e) {
+				throw elementError(i, e);
+			}
+		}
+	}
+
+	/**
+	 * Produces {@code float[]} for arrays of single precision continuous
+	 * values.
+	 */
+	private static final class FloatArray extends ArrayBase<float[]> {
+		private final Continuous element;
+
+		FloatArray(int dimension, Continuous element) {
+			super(dimension);
+			this.element = element;
+		}
+
+		@Override
+		float[] newArray() {
+			return new float[dimension];
+		}
+
+		@Override
+		void set(float[] result, int i, Object value) {
+			result[i] = element.toFloat(value);
+		}
+
+		@Override
+		void set(float[] result, int i, JsonParser parser) throws IOException {
+			result[i] = element.toFloat(parser);
+		}
+
+		@Override
+		void write(float[] array, int i, DataOutput out) throws IOException {
+			out.writeFloat(array[i]);
+		}
+
+		@Override
+		void set(float[] result, int i, DataInput in) throws IOException {
+			result[i] = element.readFloat(in);
+		}
+
+		@Override
+		float[] fromPrimitive(Object array) {
+			// Validated before allocating, so rejected values cost nothing.
+			if (array instanceof float[]) {
+				float[] src = (float[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				return Arrays.copyOf(src, dimension);
+			}
+			if (array instanceof double[]) {
+				double[] src = (double[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, (float) src[i]);
+				float[] result = new float[dimension];
+				for (int i = 0; i < dimension; ++i)
+					result[i] = (float) src[i];
+				return result;
+			}
+			if (array instanceof long[]) {
+				long[] src = (long[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				float[] result = new float[dimension];
+				for (int i = 0; i < dimension; ++i)
+					result[i] = src[i];
+				return result;
+			}
+			if (array instanceof int[]) {
+				int[] src = (int[]) array;
+				for (int i = 0; i < dimension; ++i)
+					validate(i, src[i]);
+				float[] result = new float[dimension];
+				for (int i = 0; i < dimension; ++i)
+					result[i] = src[i];
+				return result;
+			}
+			return null;
+		}
+
+		private float validate(int i, float value) {
+			try {
+				return element.validate(value);
+			} catch (RuntimeException e) {
+				throw elementError(i, e);
+			}
+		}
+	}
+
+	private static final class Struct extends UhpExtractor {
+		private final String[] names;
+		private final UhpExtractor[] fields;
+
+		Struct(String[] names, UhpExtractor[] fields) {
+			this.names = names;
+			this.fields = fields;
+		}
+
+		@Override
+		public Object extract(Object src) {
+			checkSource(src);
+			if (src instanceof UhpRecord) {
+				UhpRecord record = (UhpRecord) src;
+				if (record.fieldNames() == names) {
+					Object[] values = record.fieldValues();
+					Object[] result = new Object[names.length];
+					for (int i = 0; i < names.length; ++i)
+						result[i] = extractField(i, values[i]);
+					return new UhpRecord(names, result);
+				}
+			}
+			if (src instanceof Map<?, ?>) {
+				Map<?, ?> map = (Map<?, ?>) src;
+				Object[] result = new Object[names.length];
+				for (int i = 0; i < names.length; ++i)
+					result[i] = extractField(i, map.get(names[i]));
+				return new UhpRecord(names, result);
+			}
+			if (src instanceof JsonNode) {
+				JsonNode node = (JsonNode) src;
+				if (!node.isObject())
+					throw new IllegalArgumentException("exptected a json object node");
+				Object[] result = new Object[names.length];
+				for (int i = 0; i < names.length; ++i) {
+					JsonNode value = node.get(names[i]);
+					result[i] = extractField(i, ((value == null) || value.isNull()) ? null : value);
+				}
+				return new UhpRecord(names, result);
+			}
+			throw new IllegalArgumentException("exptected a map");
+		}
+
+		@Override
+		public Object extract(JsonParser parser) throws IOException {
+			if (parser.getCurrentToken() != JsonToken.START_OBJECT)
+				throw new IllegalArgumentException("exptected a json object node");
+			Object[] values = new Object[names.length];
+			int next = 0;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				// Fields usually come in the order of the type, so the expected
+				// one is tried first.
+				String name = parser.getCurrentName();
+				int i = ((next < names.length) && names[next].equals(name)) ? next : indexOf(name);
+				JsonToken token = parser.nextToken();
+				if (i < 0)
+					parser.skipChildren();
+				else if (token == JsonToken.VALUE_NULL)
+					values[i] = null;
+				else {
+					try {
+						values[i] = fields[i].extract(parser);
+					} catch (RuntimeException e) {
+						throw new IllegalArgumentException("field " + names[i] + " is invalid", e);
+					}
+				}
+				if (i >= 0)
+					next = i + 1;
+			}
+			for (int i = 0; i < names.length; ++i) {
+				if (values[i] == null)
+					throw new IllegalArgumentException("field " + names[i] + " not found in src");
+			}
+			return new UhpRecord(names, values);
+		}
+
+		@Override
+		void write(Object src, DataOutput out) throws IOException {
+			UhpRecord record = (UhpRecord) extract(src);
+			for (int i = 0; i < names.length; ++i)
+				fields[i].write(record.getField(i), out);
+		}
+
+		@Override
+		Object read(DataInput in) throws IOException {
+			Object[] result = new Object[names.length];
+			for (int i = 0; i < names.length; ++i) {
+				try {
+					result[i] = fields[i].read(in);
+				} catch (RuntimeException e) {
+					throw new IllegalArgumentException("field " + names[i] + " is invalid", e);
+				}
+			}
+			return new UhpRecord(names, result);
+		}
+
+		private int indexOf(String name) {
+			for (int i = 0; i < names.length; ++i) {
+				if (names[i].equals(name))
+					return i;
+			}
+			return -1;
+		}
+
+		private Object extractField(int i, Object value) {
+			if (value == null)
+				throw new IllegalArgumentException("field " + names[i] + " not found in src");
+			try {
+				return fields[i].extract(value);
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("field " + names[i] + " is invalid", e);
+			}
+		}
+	}
+}
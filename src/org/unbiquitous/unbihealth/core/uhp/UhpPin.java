@@ -5,10 +5,12 @@ import static org.unbiquitous.uos.core.ClassLoaderUtils.compare;
 
 import java.io.IOException;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 /**
  * Describes an application control pin. A pin is a way for applications to
@@ -16,6 +18,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * name within the application context, a communication mode (input, output or
  * both) and a type, such as scalar or vectorial data.
  * 
+ * Types of deserialized pins are interned, so pins read from many devices
+ * share a single immutable instance of each type.
+ * 
+ * Immutable pins are made by a {@link Builder} or by
+ * {@link #immutableCopy(UhpPin)}. They may be shared freely between threads,
+ * and cache their hash codes.
+ * 
  * @author Luciano Santos
  */
 public class UhpPin {
@@ -42,6 +51,7 @@ public class UhpPin {
 
 	@JsonProperty(value = JSON_TYPE_KEY)
 	@JsonInclude(value = Include.ALWAYS)
+	@JsonDeserialize(converter = UhpType.Interner.class)
 	private UhpType type;
 
 	@JsonProperty(value = JSON_MNEMONIC_KEY)
@@ -52,18 +62,72 @@ public class UhpPin {
 	@JsonInclude(value = Include.NON_EMPTY)
 	private String description;
 
+	private final boolean frozen;
+	private final int hash;
+
 	public UhpPin() {
+		this.frozen = false;
+		this.hash = 0;
 	}
 
 	public UhpPin(String name) {
+		this();
 		setName(name);
 	}
 
+	/**
+	 * Creates an immutable copy of a pin, with its type interned.
+	 */
+	private UhpPin(UhpPin pin) {
+		this.name = pin.name;
+		this.mode = pin.mode;
+		this.type = UhpType.intern(pin.type);
+		this.mnemonic = pin.mnemonic;
+		this.description = pin.description;
+		this.hash = computeHash();
+		this.frozen = true;
+	}
+
+	/**
+	 * Starts building an immutable pin.
+	 * 
+	 * @param name
+	 *            the pin name.
+	 * 
+	 * @return the builder.
+	 */
+	public static Builder builder(String name) {
+		return new Builder().name(name);
+	}
+
+	/**
+	 * Makes an immutable copy of a pin, with its type interned.
+	 * 
+	 * @param pin
+	 *            the pin to copy.
+	 * 
+	 * @return the pin itself, if already immutable, or its copy.
+	 */
+	public static UhpPin immutableCopy(UhpPin pin) {
+		if ((pin == null) || pin.frozen)
+			return pin;
+		return new UhpPin(pin);
+	}
+
+	/**
+	 * @return whether this pin may not be changed.
+	 */
+	@JsonIgnore
+	public boolean isImmutable() {
+		return frozen;
+	}
+
 	public String getName() {
 		return name;
 	}
 
 	public void setName(String name) {
+		checkMutable();
 		this.name = name;
 	}
 
@@ -72,6 +136,7 @@ public class UhpPin {
 	}
 
 	public void setMode(IOMode mode) {
+		checkMutable();
 		this.mode = mode;
 	}
 
@@ -80,6 +145,7 @@ public class UhpPin {
 	}
 
 	public void setType(UhpType type) {
+		checkMutable();
 		this.type = type;
 	}
 
@@ -88,6 +154,7 @@ public class UhpPin {
 	}
 
 	public void setMnemonic(String mnemonic) {
+		checkMutable();
 		this.mnemonic = mnemonic;
 	}
 
@@ -96,6 +163,7 @@ public class UhpPin {
 	}
 
 	public void setDescription(String description) {
+		checkMutable();
 		this.description = description;
 	}
 	
@@ -123,6 +191,12 @@ public class UhpPin {
 
 	@Override
 	public int hashCode() {
+		if (frozen)
+			return this.hash;
+		return computeHash();
+	}
+
+	private int computeHash() {
 		int hash = chainHashCode(0, this.name);
 		hash = chainHashCode(hash, this.mode);
 		hash = chainHashCode(hash, this.type);
@@ -131,6 +205,11 @@ public class UhpPin {
 		return hash;
 	}
 
+	private void checkMutable() {
+		if (frozen)
+			throw new IllegalStateException("immutable pins may not be changed");
+	}
+
 	@Override
 	public String toString() {
 		try {
@@ -139,4 +218,63 @@ public class UhpPin {
 			throw new RuntimeException(e);
 		}
 	}
+
+	/**
+	 * Builds immutable pins. Builders may also be read from the pin JSON, with
+	 * {@code mapper.readValue(json, UhpPin.Builder.class).build()}.
+	 * 
+	 * A builder is not thread-safe, but the pins it builds are.
+	 */
+	public static final class Builder {
+		private final UhpPin pin = new UhpPin();
+
+		public Builder() {
+		}
+
+		@JsonProperty(JSON_NAME_KEY)
+		public Builder name(String name) {
+			pin.name = name;
+			return this;
+		}
+
+		@JsonProperty(JSON_MODE_KEY)
+		public Builder mode(IOMode mode) {
+			pin.mode = mode;
+			return this;
+		}
+
+		@JsonProperty(JSON_TYPE_KEY)
+		public Builder type(UhpType type) {
+			pin.type = type;
+			return this;
+		}
+
+		@JsonProperty(JSON_MNEMONIC_KEY)
+		public Builder mnemonic(String mnemonic) {
+			pin.mnemonic = mnemonic;
+			return this;
+		}
+
+		@JsonProperty(JSON_DESCRIPTION_KEY)
+		public Builder description(String description) {
+			pin.description = description;
+			return this;
+		}
+
+		/**
+		 * @return the immutable pin, with its type interned.
+		 * 
+		 * @throws IllegalStateException
+		 *             if the pin has no name, mode or valid type.
+		 */
+		public UhpPin build() {
+			if ((pin.name == null) || pin.name.isEmpty())
+				throw new IllegalStateException("pin has no name");
+			if (pin.mode == null)
+				throw new IllegalStateException("pin has no mode");
+			if ((pin.type == null) || !pin.type.isValid())
+				throw new IllegalStateException("pin has no valid type");
+			return immutableCopy(pin);
+		}
+	}
 }
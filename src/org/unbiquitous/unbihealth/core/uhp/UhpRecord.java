@@ -0,0 +1,154 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Value of a {@link UhpType.BaseType#STRUCTURED} type, as produced by its
+ * extractor: the field values in the name order of the type, backed by a
+ * single array and sharing the field names with every other value of the
+ * type.
+ *
+ * Fields may be read by index, as given by {@link UhpType#indexOfField(String)}
+ * , with no lookup at all. A record is also a read only {@link java.util.Map}
+ * from field names to values, so it compares equal to, and serializes like,
+ * any other map with the same entries.
+ *
+ * @author Luciano Santos
+ */
+public final class UhpRecord extends AbstractMap<String, Object> {
+	private final String[] names;
+	private final Object[] values;
+	private Set<Entry<String, Object>> entries;
+
+	UhpRecord(String[] names, Object[] values) {
+		this.names = names;
+		this.values = values;
+	}
+
+	/**
+	 * @return the number of fields.
+	 */
+	public int getFieldCount() {
+		return values.length;
+	}
+
+	/**
+	 * @param i
+	 *            the field index.
+	 *
+	 * @return the name of the field at the given index.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no such field.
+	 */
+	public String getFieldName(int i) {
+		return names[i];
+	}
+
+	/**
+	 * @param i
+	 *            the field index.
+	 *
+	 * @return the value of the field at the given index.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no such field.
+	 */
+	public Object getField(int i) {
+		return values[i];
+	}
+
+	/**
+	 * @param name
+	 *            the field name.
+	 *
+	 * @return the value of the field, or null if there is no such field.
+	 */
+	public Object getField(String name) {
+		int i = indexOf(name);
+		return (i < 0) ? null : values[i];
+	}
+
+	/**
+	 * @param name
+	 *            the field name.
+	 *
+	 * @return the index of the field, or -1 if there is no such field.
+	 */
+	public int indexOf(Object name) {
+		for (int i = 0; i < names.length; ++i) {
+			if (names[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a copy of the field values, in order.
+	 */
+	public Object[] toArray() {
+		return Arrays.copyOf(values, values.length);
+	}
+
+	String[] fieldNames() {
+		return names;
+	}
+
+	Object[] fieldValues() {
+		return values;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int i = indexOf(key);
+		return (i < 0) ? null : values[i];
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		if (entries == null) {
+			entries = new AbstractSet<Entry<String, Object>>() {
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new Iterator<Entry<String, Object>>() {
+						private int next = 0;
+
+						public boolean hasNext() {
+							return next < values.length;
+						}
+
+						public Entry<String, Object> next() {
+							if (next >= values.length)
+								throw new NoSuchElementException();
+							Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(names[next],
+									values[next]);
+							++next;
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return values.length;
+				}
+			};
+		}
+		return entries;
+	}
+}
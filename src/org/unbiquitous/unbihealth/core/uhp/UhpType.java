@@ -4,17 +4,21 @@ import static org.unbiquitous.uos.core.ClassLoaderUtils.chainHashCode;
 import static org.unbiquitous.uos.core.ClassLoaderUtils.compare;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.StdConverter;
 
 /**
  * Describes the type of a communication pin.
@@ -26,13 +30,28 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * {@link #setRange(double, double)}) to define a range of accepted values. The
  * default behaviour is to accept any valid values.
  * 
+ * {@link BaseType#CONTINUOUS} values are doubles, unless
+ * {@link #setContPrecision(Precision)} sets them to {@link Precision#SINGLE},
+ * in which case they are floats.
+ * 
  * If the type is an {@link BaseType#ARRAY}, then you must use
  * {@link #setDimension(int)} to define the array size and
  * {@link #setElementType(UhpType)} to define the type of the array elements.
  * 
  * If the type is a {@link BaseType#STRUCT}, then you must use
  * {@link #setFields(Map)} or {@link #addField(String, UhpType)} to set the name
- * and type for each of its fields.
+ * and type for each of its fields. Fields are kept sorted by name, whatever
+ * the order in which they are declared, so structs with the same fields are
+ * equal however they were declared. Each field has an index in that order,
+ * given by {@link #indexOfField(String)}, and values are extracted to
+ * {@link UhpRecord}s addressed by those indexes, so peers declaring the same
+ * fields agree on the indexes and on the binary encoding.
+ * 
+ * Structurally equal types may be shared through {@link #intern(UhpType)},
+ * which gives immutable canonical instances that compare by reference and
+ * cache their hash codes. The predefined types are interned, and so are the
+ * types made by a {@link Builder}. Interned types are only held weakly, so
+ * the canonical instances no longer in use are reclaimed.
  * 
  * @author Luciano Santos
  */
@@ -41,25 +60,45 @@ public class UhpType {
 		DISCRETE, CONTINUOUS, ARRAY, STRUCTURED
 	}
 
+	/**
+	 * Floating point precision of {@link BaseType#CONTINUOUS} values.
+	 */
+	public enum Precision {
+		/** 32 bit, values are {@code Float}s and arrays {@code float[]}. */
+		SINGLE,
+		/** 64 bit, the default. */
+		DOUBLE
+	}
+
 	public static final String JSON_BASE_TYPE_KEY = "baseType";
 	public static final String JSON_DISCRETE_RANGE_START_KEY = "discreteRangeStart";
 	public static final String JSON_DISCRETE_RANGE_SIZE_KEY = "discreteRangeSize";
 	public static final String JSON_CONTINUOUS_RANGE_START_KEY = "continuousRangeStart";
 	public static final String JSON_CONTINUOUS_RANGE_SIZE_KEY = "continuousRangeSize";
+	public static final String JSON_CONTINUOUS_PRECISION_KEY = "precision";
 	public static final String JSON_ARRAY_DIMENSION_KEY = "dimension";
 	public static final String JSON_ARRAY_ELEMENT_TYPE_KEY = "elementType";
 	public static final String JSON_STRUCT_FIELDS_KEY = "fields";
 
+	/**
+	 * Canonical instances of interned types, each mapped to itself. Both are
+	 * held weakly, so types no longer used anywhere are reclaimed.
+	 */
+	private static final Map<UhpType, WeakReference<UhpType>> interned =
+			new WeakHashMap<UhpType, WeakReference<UhpType>>();
+	/** Order of struct fields, by name. */
+	private static final Comparator<String> FIELD_ORDER = Comparator.nullsFirst(Comparator.<String> naturalOrder());
+
 	public static final UhpType bit;
 	public static final UhpType uniform;
 	public static final UhpType v2;
 	public static final UhpType v3;
 
 	static {
-		bit = discrete(0l, 2l);
-		uniform = continuous(-1.0, 2.0);
-		v2 = array(continuous(), 2);
-		v3 = array(continuous(), 3);
+		bit = intern(discrete(0l, 2l));
+		uniform = intern(continuous(-1.0, 2.0));
+		v2 = intern(array(continuous(), 2));
+		v3 = intern(array(continuous(), 3));
 	}
 
 	private static final ObjectMapper mapper = new ObjectMapper();
@@ -96,6 +135,16 @@ public class UhpType {
 	@JsonInclude(value = Include.NON_NULL)
 	private Double contRangeSize;
 
+	@JsonProperty(value = JSON_CONTINUOUS_PRECISION_KEY)
+	@JsonInclude(value = Include.NON_NULL)
+	private Precision contPrecision;
+
+	private volatile Compiled compiled;
+	/** Number of changes made to this type, not counting its parts. */
+	private volatile int modifications;
+	private final boolean frozen;
+	private final int hash;
+
 	public static UhpType discrete() {
 		return newDiscrete(null, null);
 	}
@@ -127,6 +176,12 @@ public class UhpType {
 		return newContinuous(start, size);
 	}
 
+	public static UhpType continuous(double start, double size, Precision precision) {
+		UhpType type = newContinuous(start, size);
+		type.setContPrecision(precision);
+		return type;
+	}
+
 	private static UhpType newContinuous(Double start, Double size) {
 		UhpType type = new UhpType(BaseType.CONTINUOUS);
 		type.setContRangeStart(start);
@@ -147,19 +202,97 @@ public class UhpType {
 		return type;
 	}
 
+	/**
+	 * Gets the canonical instance for the given type. Canonical instances are
+	 * immutable, and so are their element and field types, so that two
+	 * interned types are equal only if they are the same object.
+	 * 
+	 * @param type
+	 *            the type, which is left untouched.
+	 * 
+	 * @return the canonical instance of the type, or null for null.
+	 */
+	public static UhpType intern(UhpType type) {
+		if ((type == null) || type.frozen)
+			return type;
+		UhpType elementType = intern(type.elementType);
+		Map<String, UhpType> fields = null;
+		if (type.fields != null) {
+			fields = sortedFields(null);
+			for (Map.Entry<String, UhpType> entry : type.fields.entrySet())
+				fields.put(entry.getKey(), intern(entry.getValue()));
+			fields = Collections.unmodifiableMap(fields);
+		}
+
+		synchronized (interned) {
+			// Looked up by the source, which is mutable and so compares by
+			// value.
+			WeakReference<UhpType> reference = interned.get(type);
+			UhpType canonical = (reference == null) ? null : reference.get();
+			if (canonical == null) {
+				canonical = new UhpType(type, elementType, fields);
+				interned.put(canonical, new WeakReference<UhpType>(canonical));
+			}
+			return canonical;
+		}
+	}
+
+	/**
+	 * Starts building an immutable type.
+	 * 
+	 * @param baseType
+	 *            the base type.
+	 * 
+	 * @return the builder.
+	 */
+	public static Builder builder(BaseType baseType) {
+		return new Builder().baseType(baseType);
+	}
+
+	/**
+	 * @return whether this is a canonical instance, given by
+	 *         {@link #intern(UhpType)}.
+	 */
+	@JsonIgnore
+	public boolean isInterned() {
+		return frozen;
+	}
+
 	public UhpType() {
+		this.frozen = false;
+		this.hash = 0;
 	}
 
 	public UhpType(BaseType base) {
+		this();
 		setBaseType(base);
 	}
 
+	/**
+	 * Creates a canonical instance, with the given interned parts.
+	 */
+	private UhpType(UhpType type, UhpType elementType, Map<String, UhpType> fields) {
+		this.baseType = type.baseType;
+		this.dimension = type.dimension;
+		this.elementType = elementType;
+		this.fields = fields;
+		this.discRangeStart = type.discRangeStart;
+		this.discRangeSize = type.discRangeSize;
+		this.contRangeStart = type.contRangeStart;
+		this.contRangeSize = type.contRangeSize;
+		this.contPrecision = type.contPrecision;
+		this.hash = computeHash();
+		this.frozen = true;
+	}
+
 	public BaseType getBaseType() {
 		return baseType;
 	}
 
 	public void setBaseType(BaseType baseType) {
+		checkMutable();
 		this.baseType = baseType;
+		modified();
 	}
 
 	public Long getDiscRangeStart() {
@@ -167,7 +300,9 @@ public class UhpType {
 	}
 
 	public void setDiscRangeStart(Long discRangeStart) {
+		checkMutable();
 		this.discRangeStart = discRangeStart;
+		modified();
 	}
 
 	public Long getDiscRangeSize() {
@@ -175,7 +310,9 @@ public class UhpType {
 	}
 
 	public void setDiscRangeSize(Long discRangeSize) {
+		checkMutable();
 		this.discRangeSize = discRangeSize;
+		modified();
 	}
 
 	public Double getContRangeStart() {
@@ -183,7 +320,9 @@ public class UhpType {
 	}
 
 	public void setContRangeStart(Double contRangeStart) {
+		checkMutable();
 		this.contRangeStart = contRangeStart;
+		modified();
 	}
 
 	public Double getContRangeSize() {
@@ -191,7 +330,27 @@ public class UhpType {
 	}
 
 	public void setContRangeSize(Double contRangeSize) {
+		checkMutable();
 		this.contRangeSize = contRangeSize;
+		modified();
+	}
+
+	/**
+	 * @return the precision of continuous values, null meaning
+	 *         {@link Precision#DOUBLE}.
+	 */
+	public Precision getContPrecision() {
+		return contPrecision;
+	}
+
+	/**
+	 * Sets the precision of continuous values. Double precision is the default,
+	 * so it is stored (and serialized) as null.
+	 */
+	public void setContPrecision(Precision contPrecision) {
+		checkMutable();
+		this.contPrecision = (contPrecision == Precision.DOUBLE) ? null : contPrecision;
+		modified();
 	}
 
 	public Integer getDimension() {
@@ -199,7 +358,9 @@ public class UhpType {
 	}
 
 	public void setDimension(Integer dimension) {
+		checkMutable();
 		this.dimension = dimension;
+		modified();
 	}
 
 	public UhpType getElementType() {
@@ -207,21 +368,67 @@ public class UhpType {
 	}
 
 	public void setElementType(UhpType elementType) {
+		checkMutable();
 		this.elementType = elementType;
+		modified();
 	}
 
+	/**
+	 * @return an unmodifiable view of the fields, sorted by name, or null
+	 *         if none were set.
+	 */
 	public Map<String, UhpType> getFields() {
-		return fields;
+		if ((fields == null) || frozen)
+			return fields;
+		return Collections.unmodifiableMap(fields);
 	}
 
+	/**
+	 * Sets the fields, copying the given map, so later changes to it do not
+	 * affect this type.
+	 */
 	public void setFields(Map<String, UhpType> fields) {
-		this.fields = fields;
+		checkMutable();
+		this.fields = (fields == null) ? null : sortedFields(fields);
+		modified();
 	}
 
 	public void addField(String name, UhpType type) {
+		checkMutable();
 		if (fields == null)
-			fields = new HashMap<String, UhpType>();
+			fields = sortedFields(null);
 		fields.put(name, type);
+		modified();
+	}
+
+	/**
+	 * @return a copy of the given fields sorted by name, null names first, so
+	 *         that invalid fields are still kept, and found invalid.
+	 */
+	private static Map<String, UhpType> sortedFields(Map<String, UhpType> fields) {
+		Map<String, UhpType> sorted = new TreeMap<String, UhpType>(FIELD_ORDER);
+		if (fields != null)
+			sorted.putAll(fields);
+		return sorted;
+	}
+
+	/**
+	 * @param name
+	 *            the field name.
+	 * 
+	 * @return the index of the field in name order, or -1 if there is no
+	 *         such field.
+	 */
+	public int indexOfField(String name) {
+		if (fields == null)
+			return -1;
+		int i = 0;
+		for (String field : fields.keySet()) {
+			if (field.equals(name))
+				return i;
+			++i;
+		}
+		return -1;
 	}
 
 	@JsonIgnore
@@ -252,6 +459,43 @@ public class UhpType {
 		return true;
 	}
 
+	/**
+	 * Gets the compiled extractor for this type, compiling it if this is the
+	 * first use or if this type or any of its element or field types has been
+	 * modified since it was last compiled.
+	 * 
+	 * @return the compiled extractor.
+	 * 
+	 * @see UhpExtractor
+	 */
+	@JsonIgnore
+	public UhpExtractor getExtractor() {
+		return getCompiled().extractor;
+	}
+
+	/**
+	 * Gets the compiled extractor for this type that produces {@code long[]}
+	 * and {@code double[]} (or {@code float[]}, for single precision) for
+	 * arrays of discrete and continuous values.
+	 * 
+	 * @return the compiled primitive extractor.
+	 * 
+	 * @see #getExtractor()
+	 */
+	@JsonIgnore
+	public UhpExtractor getPrimitiveExtractor() {
+		return getCompiled().primitiveExtractor;
+	}
+
+	private Compiled getCompiled() {
+		Compiled result = compiled;
+		if ((result == null) || !result.isCurrent()) {
+			result = new Compiled(this);
+			compiled = result;
+		}
+		return result;
+	}
+
 	/**
 	 * From JSON based object, extracts locally represented valid object for
 	 * this type, if possible.
@@ -270,141 +514,165 @@ public class UhpType {
 	 *             if the source value is invalid for this type.
 	 */
 	public Object extractValue(Object src) {
-		if (baseType == null)
-			throw new IllegalStateException("no base type defined");
-		if (src == null)
-			throw new NullPointerException("source object");
+		return getExtractor().extract(src);
+	}
 
-		Object result = null;
-		switch (baseType) {
-		case DISCRETE:
-			if (src instanceof Integer)
-				result = validateLong(((Integer) src).intValue());
-			else if (src instanceof Long)
-				result = validateLong(((Long) src).longValue());
-			else if (src instanceof JsonNode) {
-				JsonNode node = (JsonNode) src;
-				if (node.isInt())
-					result = validateLong(node.asInt());
-				else if (node.isLong())
-					result = validateLong(node.asLong());
-				else
-					throw new IllegalArgumentException("expected a json integral value");
-			} else
-				throw new IllegalArgumentException("expected an integral value");
-			break;
+	private void modified() {
+		++modifications;
+	}
 
-		case CONTINUOUS:
-			if (src instanceof Float)
-				result = validateDouble(((Float) src).floatValue());
-			else if (src instanceof Double)
-				result = validateDouble(((Double) src).doubleValue());
-			else if (src instanceof Integer)
-				result = validateDouble(((Integer) src).intValue());
-			else if (src instanceof Long)
-				result = validateDouble(((Long) src).longValue());
-			else if (src instanceof JsonNode) {
-				JsonNode node = (JsonNode) src;
-				if (node.isFloat() || node.isDouble() || node.isInt() || node.isLong())
-					result = validateDouble(node.asDouble());
-				else
-					throw new IllegalArgumentException("expected a json floating point value");
-			} else
-				throw new IllegalArgumentException("expected a floating point value");
-			break;
+	private void checkMutable() {
+		if (frozen)
+			throw new IllegalStateException("interned types are immutable");
+	}
 
-		case ARRAY:
-			if (src instanceof Collection<?>)
-				result = validateArray(((Collection<?>) src).toArray(new Object[] {}));
-			else if (src.getClass().isArray())
-				result = validateArray((Object[]) src);
-			else if (src instanceof JsonNode) {
-				JsonNode node = (JsonNode) src;
-				try {
-					result = validateArray(mapper.treeToValue(node, Object[].class));
-				} catch (JsonProcessingException e) {
-					throw new IllegalArgumentException("exptected a json array", e);
-				}
-			} else
-				throw new IllegalArgumentException("exptected an array or collection");
-			break;
+	/**
+	 * Builds immutable, interned types. Builders may also be read from the type
+	 * JSON, with {@code mapper.readValue(json, UhpType.Builder.class).build()}.
+	 * 
+	 * A builder is not thread-safe, but the types it builds are.
+	 */
+	public static final class Builder {
+		private final UhpType type = new UhpType();
+		private Map<String, UhpType> fields;
 
-		case STRUCTURED:
-			if (src instanceof Map<?, ?>)
-				result = validateMap((Map<?, ?>) src);
-			else if (src instanceof JsonNode) {
-				JsonNode node = (JsonNode) src;
-				try {
-					result = validateMap(mapper.treeToValue(node, Map.class));
-				} catch (JsonProcessingException e) {
-					throw new IllegalArgumentException("exptected a json object node", e);
-				}
-			} else
-				throw new IllegalArgumentException("exptected a map");
-			break;
+		public Builder() {
 		}
 
-		return result;
+		@JsonProperty(JSON_BASE_TYPE_KEY)
+		public Builder baseType(BaseType baseType) {
+			type.baseType = baseType;
+			return this;
+		}
+
+		@JsonProperty(JSON_DISCRETE_RANGE_START_KEY)
+		public Builder discreteRangeStart(Long start) {
+			type.discRangeStart = start;
+			return this;
+		}
+
+		@JsonProperty(JSON_DISCRETE_RANGE_SIZE_KEY)
+		public Builder discreteRangeSize(Long size) {
+			type.discRangeSize = size;
+			return this;
+		}
+
+		public Builder discreteRange(long start, long size) {
+			return discreteRangeStart(start).discreteRangeSize(size);
+		}
+
+		@JsonProperty(JSON_CONTINUOUS_RANGE_START_KEY)
+		public Builder continuousRangeStart(Double start) {
+			type.contRangeStart = start;
+			return this;
+		}
+
+		@JsonProperty(JSON_CONTINUOUS_RANGE_SIZE_KEY)
+		public Builder continuousRangeSize(Double size) {
+			type.contRangeSize = size;
+			return this;
+		}
+
+		public Builder continuousRange(double start, double size) {
+			return continuousRangeStart(start).continuousRangeSize(size);
+		}
+
+		@JsonProperty(JSON_CONTINUOUS_PRECISION_KEY)
+		public Builder precision(Precision precision) {
+			type.contPrecision = (precision == Precision.DOUBLE) ? null : precision;
+			return this;
+		}
+
+		@JsonProperty(JSON_ARRAY_DIMENSION_KEY)
+		public Builder dimension(Integer dimension) {
+			type.dimension = dimension;
+			return this;
+		}
+
+		@JsonProperty(JSON_ARRAY_ELEMENT_TYPE_KEY)
+		public Builder elementType(UhpType elementType) {
+			type.elementType = elementType;
+			return this;
+		}
+
+		public Builder field(String name, UhpType fieldType) {
+			if (fields == null)
+				fields = sortedFields(null);
+			fields.put(name, fieldType);
+			return this;
+		}
+
+		@JsonProperty(JSON_STRUCT_FIELDS_KEY)
+		public Builder fields(Map<String, UhpType> fields) {
+			this.fields = (fields == null) ? null : sortedFields(fields);
+			return this;
+		}
+
+		/**
+		 * @return the interned type.
+		 * 
+		 * @throws IllegalStateException
+		 *             if the type is not valid.
+		 */
+		public UhpType build() {
+			type.fields = fields;
+			if (!type.isValid())
+				throw new IllegalStateException("invalid type " + type);
+			return intern(type);
+		}
 	}
 
-	private Long validateLong(long value) {
-		if (discRangeStart != null) {
-			if ((discRangeSize != null) && (discRangeSize.longValue() <= 0))
-				throw new IllegalStateException("range size is invalid");
-			if ((value < discRangeStart.longValue())
-					|| ((discRangeSize != null) && (value >= discRangeStart.longValue() + discRangeSize.longValue())))
-				throw new IllegalArgumentException("value outside of defined range");
+	/**
+	 * Interns types as they are deserialized, for use with
+	 * {@code @JsonDeserialize(converter = UhpType.Interner.class)}.
+	 */
+	public static final class Interner extends StdConverter<UhpType, UhpType> {
+		@Override
+		public UhpType convert(UhpType value) {
+			return intern(value);
 		}
-		return value;
 	}
 
-	private Double validateDouble(double value) {
-		if (contRangeStart != null) {
-			if ((contRangeSize != null) && (contRangeSize.doubleValue() <= 0))
-				throw new IllegalStateException("range size is invalid");
-			if ((value < contRangeStart.doubleValue()) || ((contRangeSize != null)
-					&& (value >= contRangeStart.doubleValue() + contRangeSize.doubleValue())))
-				throw new IllegalArgumentException("value outside of defined range");
+	private static final class Compiled {
+		final UhpExtractor extractor;
+		final UhpExtractor primitiveExtractor;
+		/**
+		 * The mutable parts of the type, itself included, and their number of
+		 * modifications when compiled. Interned parts never change. Replacing
+		 * a part modifies its owner, so the parts need not be walked again.
+		 */
+		private final UhpType[] parts;
+		private final int[] modifications;
+
+		Compiled(UhpType type) {
+			List<UhpType> parts = new ArrayList<UhpType>();
+			collect(type, parts);
+			this.parts = parts.toArray(new UhpType[parts.size()]);
+			this.modifications = new int[this.parts.length];
+			for (int i = 0; i < this.parts.length; ++i)
+				this.modifications[i] = this.parts[i].modifications;
+			this.extractor = UhpExtractor.compile(type, false);
+			this.primitiveExtractor = UhpExtractor.compile(type, true);
 		}
-		return value;
-	}
-
-	private Object[] validateArray(Object[] array) {
-		if ((dimension == null) || (dimension.intValue() < 1))
-			throw new IllegalStateException("array dimension is invalid");
-		if (elementType == null)
-			throw new IllegalStateException("array element type is invalid");
-		if (array.length != dimension.intValue())
-			throw new IllegalArgumentException("expected array of size " + dimension.intValue());
-
-		Object[] result = new Object[array.length];
-		for (int i = 0; i < array.length; ++i) {
-			try {
-				result[i] = elementType.extractValue(array[i]);
-			} catch (RuntimeException e) {
-				throw new IllegalArgumentException("array element at " + i + " is invalid", e);
+
+		boolean isCurrent() {
+			for (int i = 0; i < parts.length; ++i) {
+				if (parts[i].modifications != modifications[i])
+					return false;
 			}
+			return true;
 		}
-		return result;
-	}
 
-	private Map<String, Object> validateMap(Map<?, ?> map) {
-		if (fields == null)
-			throw new IllegalStateException("no map fields defined");
-
-		Map<String, Object> result = new HashMap<String, Object>();
-		for (Map.Entry<String, UhpType> entry : fields.entrySet()) {
-			String fieldName = entry.getKey();
-			Object value = map.get(fieldName);
-			if (value == null)
-				throw new IllegalArgumentException("field " + fieldName + " not found in src");
-			try {
-				result.put(fieldName, entry.getValue().extractValue(value));
-			} catch (RuntimeException e) {
-				throw new IllegalArgumentException("field " + fieldName + " is invalid", e);
+		private static void collect(UhpType type, List<UhpType> parts) {
+			if ((type == null) || type.frozen)
+				return;
+			parts.add(type);
+			collect(type.elementType, parts);
+			if (type.fields != null) {
+				for (UhpType field : type.fields.values())
+					collect(field, parts);
 			}
 		}
-		return result;
 	}
 
 	@Override
@@ -414,6 +682,9 @@ public class UhpType {
 		if (!(obj instanceof UhpType))
 			return false;
 		UhpType other = (UhpType) obj;
+		// There is a single interned instance for each structure.
+		if (this.frozen && other.frozen)
+			return false;
 
 		if (!compare(this.baseType, other.baseType))
 			return false;
@@ -431,20 +702,37 @@ public class UhpType {
 			return false;
 		if (!compare(this.contRangeSize, other.contRangeSize))
 			return false;
+		if (!compare(this.contPrecision, other.contPrecision))
+			return false;
 
 		return true;
 	}
 
 	@Override
 	public int hashCode() {
+		if (frozen)
+			return this.hash;
+		return computeHash();
+	}
+
+	private int computeHash() {
 		int hash = chainHashCode(0, this.baseType);
 		hash = chainHashCode(hash, this.dimension);
 		hash = chainHashCode(hash, this.elementType);
-		hash = chainHashCode(hash, this.fields);
+		if (this.fields == null)
+			hash = chainHashCode(hash, null);
+		else {
+			// Sorted by name, so equal fields hash alike.
+			for (Map.Entry<String, UhpType> entry : this.fields.entrySet()) {
+				hash = chainHashCode(hash, entry.getKey());
+				hash = chainHashCode(hash, entry.getValue());
+			}
+		}
 		hash = chainHashCode(hash, this.discRangeStart);
 		hash = chainHashCode(hash, this.discRangeSize);
 		hash = chainHashCode(hash, this.contRangeStart);
 		hash = chainHashCode(hash, this.contRangeSize);
+		hash = chainHashCode(hash, this.contPrecision);
 		return hash;
 	}
 
@@ -0,0 +1,48 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	@Test
+	public void testEmpty() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertThat(h.getCount()).isEqualTo(0);
+		assertThat(h.getMeanNanos()).isEqualTo(0.0);
+		assertThat(h.getPercentileNanos(0.99)).isEqualTo(0);
+	}
+
+	@Test
+	public void testRecord() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 1; i <= 100; ++i)
+			h.record(i * 10);
+		assertThat(h.getCount()).isEqualTo(100);
+		assertThat(h.getTotalNanos()).isEqualTo(50500);
+		assertThat(h.getMeanNanos()).isEqualTo(505.0);
+		assertThat(h.getMaxNanos()).isEqualTo(1000);
+		// 500 falls in [256, 512), 990 in [512, 1024) but is capped by the max.
+		assertThat(h.getPercentileNanos(0.5)).isEqualTo(511);
+		assertThat(h.getPercentileNanos(0.99)).isEqualTo(1000);
+		assertThat(h.getPercentileNanos(0)).isEqualTo(15);
+
+		h.reset();
+		assertThat(h.getCount()).isEqualTo(0);
+		assertThat(h.getMaxNanos()).isEqualTo(0);
+	}
+
+	@Test
+	public void testZeroAndNegative() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(0);
+		h.record(-5);
+		assertThat(h.getCount()).isEqualTo(2);
+		assertThat(h.getPercentileNanos(1)).isEqualTo(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForInvalidQuantile() {
+		new LatencyHistogram().getPercentileNanos(1.5);
+	}
+}
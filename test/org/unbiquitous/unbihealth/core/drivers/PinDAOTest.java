@@ -1,6 +1,9 @@
 package org.unbiquitous.unbihealth.core.drivers;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -12,7 +15,7 @@ public class PinDAOTest {
 
 	@Before
 	public void setUp() throws Exception {
-		dao = new PinDAO();
+		dao = new ConcurrentPinDAO();
 	}
 
 	@After
@@ -58,4 +61,41 @@ public class PinDAOTest {
 		dao.put(pin2);
 		assertThat(dao.find("pin2")).isEqualTo(pin2);
 	}
+
+	@Test
+	public void testPutIfAbsent() {
+		UhpPin pin = new UhpPin("pin1");
+		assertThat(dao.putIfAbsent(pin)).isNull();
+		assertThat(dao.putIfAbsent(new UhpPin("pin1"))).isSameAs(pin);
+		assertThat(dao.find("pin1")).isSameAs(pin);
+	}
+
+	@Test
+	public void testReplace() {
+		UhpPin pin = new UhpPin("pin1");
+		UhpPin replacement = new UhpPin("pin1");
+		assertThat(dao.replace(pin, replacement)).isFalse();
+		assertThat(dao.find("pin1")).isNull();
+		dao.put(pin);
+		assertThat(dao.replace(new UhpPin("pin1"), replacement)).isFalse();
+		assertThat(dao.replace(pin, replacement)).isTrue();
+		assertThat(dao.find("pin1")).isSameAs(replacement);
+		assertThat(dao.list()).hasSize(1);
+		assertThat(dao.list().get(0)).isSameAs(replacement);
+	}
+
+	@Test
+	public void testListSnapshot() {
+		dao.put(new UhpPin("pin1"));
+		List<UhpPin> snapshot = dao.list();
+		assertThat(dao.list()).isSameAs(snapshot);
+		dao.put(new UhpPin("pin2"));
+		assertThat(snapshot).containsOnly(new UhpPin("pin1"));
+		assertThat(dao.list()).containsOnly(new UhpPin("pin1"), new UhpPin("pin2"));
+		try {
+			dao.list().clear();
+			fail("should not change snapshots");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
 }
@@ -0,0 +1,883 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.unbiquitous.unbihealth.core.uhp.UhpAdaptation;
+import org.unbiquitous.unbihealth.core.uhp.UhpAdapters;
+import org.unbiquitous.unbihealth.core.uhp.UhpPin;
+import org.unbiquitous.unbihealth.core.uhp.UhpPin.IOMode;
+import org.unbiquitous.unbihealth.core.uhp.UhpType;
+import org.unbiquitous.uos.core.InitialProperties;
+import org.unbiquitous.uos.core.adaptabitilyEngine.Gateway;
+import org.unbiquitous.uos.core.applicationManager.CallContext;
+import org.unbiquitous.uos.core.messageEngine.dataType.UpDevice;
+import org.unbiquitous.uos.core.messageEngine.messages.Call;
+import org.unbiquitous.uos.core.messageEngine.messages.Notify;
+import org.unbiquitous.uos.core.messageEngine.messages.Response;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class PinDriverTest {
+	private PinDriver driver;
+
+	@Before
+	public void setUp() throws Exception {
+		driver = new PinDriver();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForDuplicatePin() {
+		driver.add(pin("pin", UhpType.v3));
+		driver.add(pin("pin", UhpType.v3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForMismatchedPrimitiveListener() {
+		driver.add(pin("pin", UhpType.uniform), new DoubleArrayPinListener() {
+			public void valueChanged(UhpPin pin, double[] newValue) {
+			}
+		});
+	}
+
+	@Test
+	public void testHandleEvent() {
+		final List<Object> values = new ArrayList<Object>();
+		final List<double[]> primitiveValues = new ArrayList<double[]>();
+		UhpPin pin = pin("pin", UhpType.v3);
+		driver.add(pin, new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				values.add(newValue);
+			}
+		});
+		driver.addPinListener("pin", new DoubleArrayPinListener() {
+			public void valueChanged(UhpPin pin, double[] newValue) {
+				primitiveValues.add(newValue);
+			}
+		});
+
+		driver.handleEvent(update("pin", "[1, 2, 3.5]"));
+		driver.handleEvent(update("pin", "[1, 2]"));
+		driver.handleEvent(update("other", "[1, 2, 3]"));
+
+		assertThat(values).hasSize(1);
+		assertArrayEquals(new Object[] { 1.0, 2.0, 3.5 }, (Object[]) values.get(0));
+		assertThat(primitiveValues).hasSize(1);
+		assertArrayEquals(new double[] { 1, 2, 3.5 }, primitiveValues.get(0), 0);
+	}
+
+	@Test
+	public void testAddKeepsImmutableCopy() {
+		final List<UhpPin> pins = new ArrayList<UhpPin>();
+		UhpPin pin = pin("pin", UhpType.array(UhpType.continuous(), 3));
+		UhpPin kept = driver.add(pin, new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				pins.add(pin);
+			}
+		});
+		pin.setType(UhpType.uniform);
+
+		driver.handleEvent(update("pin", "[1, 2, 3]"));
+
+		assertThat(pins).hasSize(1);
+		assertThat(pins.get(0)).isSameAs(kept);
+		assertTrue(kept.isImmutable());
+		assertThat(kept.getType()).isSameAs(UhpType.v3);
+
+		// Immutable pins are kept as they are.
+		UhpPin built = UhpPin.builder("other").mode(IOMode.IN).type(UhpType.bit).build();
+		assertThat(driver.add(built)).isSameAs(built);
+	}
+
+	@Test
+	public void testBind() {
+		final List<Object> values = new ArrayList<Object>();
+		driver.add(pin("accel", UhpType.v3));
+		driver.add(pin("x", UhpType.uniform), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				values.add(newValue);
+			}
+		});
+		UhpAdaptation select = new UhpAdaptation();
+		select.setAdapter(UhpAdapters.SELECT);
+		select.setParams(Collections.<String, Object> singletonMap(UhpAdapters.COMPONENT_PARAM, 0));
+		driver.bind("accel", "x", select);
+
+		driver.handleEvent(update("accel", "[0.5, 2, 3]"));
+		driver.handleEvent(update("accel", "[2, 0, 0]"));
+		driver.unbind("accel", "x");
+		driver.handleEvent(update("accel", "[-0.5, 0, 0]"));
+
+		// The second value is out of the target range.
+		assertThat(values).containsExactly(0.5);
+	}
+
+	@Test
+	public void testBindFailureDoesNotAffectOtherListeners() {
+		final List<Object> values = new ArrayList<Object>();
+		driver.add(pin("accel", UhpType.v3));
+		driver.add(pin("x", UhpType.uniform));
+		UhpAdaptation select = new UhpAdaptation();
+		select.setAdapter(UhpAdapters.SELECT);
+		select.setParams(Collections.<String, Object> singletonMap(UhpAdapters.COMPONENT_PARAM, 0));
+		driver.bind("accel", "x", select);
+		driver.addPinListener("accel", new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				values.add(newValue);
+			}
+		});
+
+		// Out of the range of x, but still delivered to the other listener.
+		driver.handleEvent(update("accel", "[2, 0, 0]"));
+		assertThat(values).hasSize(1);
+	}
+
+	@Test
+	public void testUpdateRebinds() {
+		final List<Object> values = new ArrayList<Object>();
+		driver.add(pin("accel", UhpType.v3));
+		driver.add(pin("x", UhpType.uniform), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				values.add(newValue);
+			}
+		});
+		UhpAdaptation select = new UhpAdaptation();
+		select.setAdapter(UhpAdapters.SELECT);
+		select.setParams(Collections.<String, Object> singletonMap(UhpAdapters.COMPONENT_PARAM, 0));
+		driver.bind("accel", "x", select);
+
+		driver.update(pin("accel", UhpType.v2));
+		driver.handleEvent(update("accel", "[0.5, 2]"));
+		assertThat(values).containsExactly(0.5);
+
+		try {
+			driver.update(pin("x", UhpType.v2));
+			fail("should not break the binding");
+		} catch (IllegalArgumentException e) {
+		}
+		driver.handleEvent(update("accel", "[0.25, 2]"));
+		assertThat(values).containsExactly(0.5, 0.25);
+	}
+
+	@Test
+	public void testUpdateDoesNotResurrectRemovedPin() {
+		final PinDAO dao = new ConcurrentPinDAO() {
+			@Override
+			public synchronized boolean replace(UhpPin expected, UhpPin pin) {
+				// Removed by another thread after update checked it.
+				remove(pin.getName());
+				return super.replace(expected, pin);
+			}
+		};
+		driver = new PinDriver(dao);
+		driver.add(pin("pin", UhpType.uniform));
+		try {
+			driver.update(pin("pin", UhpType.bit));
+			fail("should not update a removed pin");
+		} catch (IllegalArgumentException e) {
+		}
+		assertThat(dao.find("pin")).isNull();
+	}
+
+	@Test
+	public void testBindResolved() {
+		final List<Object> values = new ArrayList<Object>();
+		driver.add(pin("pressure", UhpType.continuous(0, 10)));
+		driver.add(pin("pressed", UhpType.bit), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				values.add(newValue);
+			}
+		});
+		driver.bind("pressure", "pressed");
+
+		driver.handleEvent(update("pressure", "7.5"));
+		driver.handleEvent(update("pressure", "2"));
+
+		assertThat(values).containsExactly(1L, 0L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForIncompatibleBinding() {
+		driver.add(pin("accel", UhpType.v3));
+		driver.add(pin("plane", UhpType.v2));
+		UhpAdaptation magnitude = new UhpAdaptation();
+		magnitude.setAdapter(UhpAdapters.MAGNITUDE);
+		driver.bind("accel", "plane", magnitude);
+	}
+
+	@Test
+	public void testFloatArrayListener() {
+		final List<float[]> values = new ArrayList<float[]>();
+		UhpType type = UhpType.array(UhpType.continuous(0, 1, UhpType.Precision.SINGLE), 2);
+		driver.add(pin("pin", type), new FloatArrayPinListener() {
+			public void valueChanged(UhpPin pin, float[] newValue) {
+				values.add(newValue);
+			}
+		});
+		driver.handleEvent(update("pin", "[0.25, 0.5]"));
+		assertThat(values).hasSize(1);
+		assertArrayEquals(new float[] { 0.25f, 0.5f }, values.get(0), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForDoubleListenerOnSinglePrecision() {
+		UhpType type = UhpType.array(UhpType.continuous(0, 1, UhpType.Precision.SINGLE), 2);
+		driver.add(pin("pin", type), new DoubleArrayPinListener() {
+			public void valueChanged(UhpPin pin, double[] newValue) {
+			}
+		});
+	}
+
+	@Test
+	public void testRegistrationDoesNotWaitOnDispatch() throws Exception {
+		final CountDownLatch dispatching = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		driver.add(pin("slow", UhpType.uniform), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				dispatching.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		Thread dispatcher = new Thread(new Runnable() {
+			public void run() {
+				driver.handleEvent(update("slow", "0.5"));
+			}
+		});
+		dispatcher.start();
+		try {
+			assertTrue(dispatching.await(5, TimeUnit.SECONDS));
+
+			final List<Object> values = new ArrayList<Object>();
+			driver.add(pin("fast", UhpType.bit), new PinListener() {
+				public void valueChanged(UhpPin pin, Object newValue) {
+					values.add(newValue);
+				}
+			});
+			driver.handleEvent(update("fast", "1"));
+			assertThat(values).containsOnly(1l);
+		} finally {
+			release.countDown();
+			dispatcher.join();
+		}
+	}
+
+	@Test
+	public void testAsynchronousDispatch() throws Exception {
+		driver.setDispatcher(new SerialPinDispatcher(1, 10, SerialPinDispatcher.OverflowPolicy.BLOCK));
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch received = new CountDownLatch(2);
+		final List<Object> values = Collections.synchronizedList(new ArrayList<Object>());
+		driver.add(pin("pin", UhpType.bit), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				values.add(newValue);
+				received.countDown();
+			}
+		});
+		try {
+			// Would block forever if dispatched on this thread.
+			driver.handleEvent(update("pin", "0"));
+			driver.handleEvent(update("pin", "1"));
+			release.countDown();
+			assertTrue(received.await(5, TimeUnit.SECONDS));
+			assertThat(values).containsExactly(0l, 1l);
+		} finally {
+			release.countDown();
+			driver.setDispatcher(PinDispatcher.INLINE);
+		}
+	}
+
+	@Test
+	public void testHandleBatchEvent() {
+		final List<Object> values = new ArrayList<Object>();
+		final List<double[]> primitiveValues = new ArrayList<double[]>();
+		driver.add(pin("a", UhpType.bit), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				values.add(newValue);
+			}
+		});
+		driver.add(pin("b", UhpType.v3), new DoubleArrayPinListener() {
+			public void valueChanged(UhpPin pin, double[] newValue) {
+				primitiveValues.add(newValue);
+			}
+		});
+		driver.add(pin("c", UhpType.uniform), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+				values.add(newValue);
+			}
+		});
+
+		driver.handleEvent(batch("{\"other\": {\"x\": [1]}, \"a\": 1, \"b\": [1, 2, 3], \"c\": 0.5}"));
+		// Invalid values only discard their own pin.
+		driver.handleEvent(batch("{\"b\": [1, [2], 3, 4], \"a\": 2, \"c\": 0.25}"));
+
+		assertThat(values).containsExactly(1l, 0.5, 0.25);
+		assertThat(primitiveValues).hasSize(1);
+		assertArrayEquals(new double[] { 1, 2, 3 }, primitiveValues.get(0), 0);
+	}
+
+	@Test
+	public void testPinValuesChanged() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		driver.add(pin("a", UhpType.bit));
+		driver.add(pin("b", UhpType.uniform));
+		driver.add(pin("c", UhpType.uniform));
+		UpDevice batched = new UpDevice("batched");
+		UpDevice single = new UpDevice("single");
+		for (String pinName : new String[] { "a", "b" }) {
+			connect(batched, pinName, true);
+			connect(single, pinName, false);
+		}
+
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("a", 1);
+		values.put("b", 0.5);
+		values.put("c", 0.25);
+		driver.pinValuesChanged(values);
+
+		ArgumentCaptor<Notify> batch = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway).notify(batch.capture(), eq(batched));
+		assertThat(batch.getValue().getEventKey()).isEqualTo(PinDriver.UPDATE_BATCH_EVENT_NAME);
+		assertThat(batch.getValue().getParameter(PinDriver.VALUES_PARAM_NAME)).isEqualTo("{\"a\":1,\"b\":0.5}");
+
+		ArgumentCaptor<Notify> updates = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway, times(2)).notify(updates.capture(), eq(single));
+		assertThat(updates.getAllValues().get(0).getEventKey()).isEqualTo(PinDriver.UPDATE_EVENT_NAME);
+		assertThat(updates.getAllValues().get(1).getParameter(PinDriver.VALUE_PARAM_NAME)).isEqualTo("0.5");
+	}
+
+	@Test
+	public void testBatchPerConnection() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		driver.add(pin("a", UhpType.bit));
+		driver.add(pin("b", UhpType.uniform));
+		UpDevice device = new UpDevice("device");
+		connect(device, "a", true);
+		connect(device, "b", false);
+
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("a", 1);
+		values.put("b", 0.5);
+		driver.pinValuesChanged(values);
+
+		ArgumentCaptor<Notify> sent = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway, times(2)).notify(sent.capture(), eq(device));
+		assertThat(sent.getAllValues().get(0).getEventKey()).isEqualTo(PinDriver.UPDATE_EVENT_NAME);
+		assertThat(sent.getAllValues().get(0).getParameter(PinDriver.PIN_PARAM_NAME)).isEqualTo("b");
+		assertThat(sent.getAllValues().get(1).getEventKey()).isEqualTo(PinDriver.UPDATE_BATCH_EVENT_NAME);
+		assertThat(sent.getAllValues().get(1).getParameter(PinDriver.VALUES_PARAM_NAME)).isEqualTo("{\"a\":1}");
+
+		// Reconnecting without batches drops them.
+		disconnect(device, "a");
+		connect(device, "a", false);
+		driver.pinValuesChanged(Collections.<String, Object> singletonMap("a", 0));
+		verify(gateway, times(3)).notify(sent.capture(), eq(device));
+		assertThat(sent.getValue().getEventKey()).isEqualTo(PinDriver.UPDATE_EVENT_NAME);
+	}
+
+	@Test
+	public void testFailingDeviceDoesNotAffectOthers() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		driver.setSender(new SerialPinDispatcher(executor, 10, SerialPinDispatcher.OverflowPolicy.BLOCK));
+		driver.add(pin("pin", UhpType.uniform));
+		UpDevice dead = new UpDevice("dead");
+		UpDevice alive = new UpDevice("alive");
+		connect(dead, "pin", false);
+		connect(alive, "pin", false);
+		doThrow(new RuntimeException("unreachable")).when(gateway).notify(any(Notify.class), eq(dead));
+
+		driver.pinValueChanged("pin", 0.25);
+		driver.pinValueChanged("pin", 0.5);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+		ArgumentCaptor<Notify> updates = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway, times(2)).notify(updates.capture(), eq(alive));
+		assertThat(updates.getAllValues().get(0).getParameter(PinDriver.VALUE_PARAM_NAME)).isEqualTo("0.25");
+		assertThat(updates.getAllValues().get(1).getParameter(PinDriver.VALUE_PARAM_NAME)).isEqualTo("0.5");
+	}
+
+	@Test
+	public void testSenderLanePerDevice() throws Exception {
+		driver.init(mock(Gateway.class), new InitialProperties(), "id");
+		PinDispatcher sender = mock(PinDispatcher.class);
+		driver.setSender(sender);
+		driver.add(pin("a", UhpType.uniform));
+		driver.add(pin("b", UhpType.uniform));
+		UpDevice first = new UpDevice();
+		UpDevice second = new UpDevice();
+		connect(first, "a", false);
+		connect(first, "b", false);
+		connect(second, "a", false);
+
+		// Unnamed devices do not share a lane.
+		driver.pinValueChanged("a", 0.5);
+		ArgumentCaptor<String> lanes = ArgumentCaptor.forClass(String.class);
+		verify(sender, times(2)).dispatch(lanes.capture(), any(Runnable.class));
+		String firstLane = lanes.getAllValues().get(0);
+		String secondLane = lanes.getAllValues().get(1);
+		assertThat(firstLane).isNotEqualTo(secondLane);
+
+		// A lane is discarded once its device has no connections left.
+		disconnect(first, "a");
+		verify(sender, times(0)).discard(any(String.class));
+		disconnect(second, "a");
+		verify(sender).discard(secondLane);
+		driver.remove("b");
+		verify(sender).discard(firstLane);
+	}
+
+	@Test
+	public void testSlowDeviceDoesNotDelayConflation() throws Exception {
+		final UpDevice slow = new UpDevice("slow");
+		final UpDevice fast = new UpDevice("fast");
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch sent = new CountDownLatch(1);
+		// Not a mock, as mocks are called one thread at a time.
+		Gateway gateway = (Gateway) Proxy.newProxyInstance(Gateway.class.getClassLoader(),
+				new Class<?>[] { Gateway.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("notify") && (args[1] == slow))
+							release.await(5, TimeUnit.SECONDS);
+						else if (method.getName().equals("notify"))
+							sent.countDown();
+						return null;
+					}
+				});
+		driver.init(gateway, new InitialProperties(), "id");
+		driver.add(pin("a", UhpType.uniform));
+		driver.add(pin("b", UhpType.uniform));
+		connect(slow, "a", false);
+		connect(fast, "b", false);
+		driver.setConflation("a", 0, TimeUnit.MILLISECONDS);
+		driver.setConflation("b", 0, TimeUnit.MILLISECONDS);
+		try {
+			// With the inline sender, still not sent by the conflation thread.
+			driver.pinValueChanged("a", 0.25);
+			driver.pinValueChanged("b", 0.5);
+			assertTrue(sent.await(5, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			driver.destroy();
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		driver.add(pin("pin", UhpType.bit), new PinListener() {
+			public void valueChanged(UhpPin pin, Object newValue) {
+			}
+		});
+		connect(new UpDevice("device"), "pin", false);
+		assertThat(driver.getMetrics("pin")).isNull();
+
+		driver.enableMetrics(false);
+		driver.handleEvent(update("pin", "1"));
+		driver.handleEvent(update("pin", "2"));
+		driver.handleEvent(batch("{\"pin\": 0}"));
+		driver.pinValueChanged("pin", 1);
+
+		PinMetrics metrics = driver.getMetrics("pin");
+		assertThat(metrics.getEventsIn()).isEqualTo(3);
+		assertThat(metrics.getBytesIn()).isEqualTo(3);
+		assertThat(metrics.getExtractionFailures()).isEqualTo(1);
+		assertThat(metrics.getDecodeLatency().getCount()).isEqualTo(2);
+		assertThat(metrics.getListenerLatency().getCount()).isEqualTo(2);
+		assertThat(metrics.getEventsOut()).isEqualTo(1);
+		assertThat(metrics.getBytesOut()).isEqualTo(1);
+		assertThat(metrics.getNotifyLatency().getCount()).isEqualTo(1);
+		assertThat(driver.getMetrics()).containsKey("pin");
+
+		driver.disableMetrics();
+		assertThat(driver.getMetrics("pin")).isNull();
+	}
+
+	@Test
+	public void testDroppedMetrics() throws Exception {
+		driver.init(mock(Gateway.class), new InitialProperties(), "id");
+		// Never runs the sends, so the lane's queue of one fills up.
+		driver.setSender(
+				new SerialPinDispatcher(mock(Executor.class), 1, SerialPinDispatcher.OverflowPolicy.DROP_NEWEST));
+		driver.add(pin("pin", UhpType.uniform));
+		driver.add(pin("conflated", UhpType.uniform));
+		connect(new UpDevice("device"), "pin", false);
+		driver.enableMetrics(false);
+
+		driver.pinValueChanged("pin", 0.25);
+		driver.pinValueChanged("pin", 0.5);
+		driver.pinValuesChanged(Collections.<String, Object> singletonMap("pin", 0.75));
+		driver.setConflation("conflated", 1, TimeUnit.HOURS);
+		// The first value is sent right away, the next ones wait an hour.
+		driver.pinValueChanged("conflated", 0.25);
+		Thread.sleep(200);
+		for (int i = 0; i < 3; ++i)
+			driver.pinValueChanged("conflated", 0.5);
+
+		assertThat(driver.getMetrics("pin").getOutgoingDropped()).isEqualTo(2);
+		assertThat(driver.getMetrics("pin").getDropped()).isEqualTo(2);
+		assertThat(driver.getMetrics("conflated").getConflated()).isEqualTo(2);
+		assertThat(driver.getMetrics("conflated").getDropped()).isEqualTo(2);
+
+		// Sizes are in UTF-8 bytes.
+		driver.handleEvent(update("pin", "\"\u00e9\u20ac\ud83d\ude00\""));
+		assertThat(driver.getMetrics("pin").getBytesIn()).isEqualTo(11);
+	}
+
+	@Test
+	public void testMetricsExport() throws Exception {
+		InitialProperties properties = new InitialProperties();
+		properties.put(PinDriver.METRICS_PROPERTY, "jmx");
+		driver.init(mock(Gateway.class), properties, "export");
+		driver.add(pin("pin", UhpType.bit));
+		driver.handleEvent(update("pin", "1"));
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(PinDriver.METRICS_DOMAIN + ":type=PinMetrics,driver=\"export\",pin=\"pin\"");
+		assertThat(server.getAttribute(name, "EventsIn")).isEqualTo(1l);
+
+		driver.remove("pin");
+		assertThat(server.isRegistered(name)).isFalse();
+	}
+
+	@Test
+	public void testBinaryEncoding() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		final List<double[]> values = new ArrayList<double[]>();
+		driver.add(pin("pin", UhpType.v3), new DoubleArrayPinListener() {
+			public void valueChanged(UhpPin pin, double[] newValue) {
+				values.add(newValue);
+			}
+		});
+		UpDevice binary = new UpDevice("binary");
+		UpDevice legacy = new UpDevice("legacy");
+		Response response = connect(binary, "pin", false, PinDriver.BINARY_ENCODING);
+		assertThat(response.getResponseData(PinDriver.ENCODING_PARAM_NAME)).isEqualTo(PinDriver.BINARY_ENCODING);
+		connect(legacy, "pin", false);
+
+		driver.pinValueChanged("pin", new double[] { 1, 2, 3 });
+
+		ArgumentCaptor<Notify> update = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway).notify(update.capture(), eq(binary));
+		assertThat(update.getValue().getParameter(PinDriver.ENCODING_PARAM_NAME)).isEqualTo(PinDriver.BINARY_ENCODING);
+		byte[] encoded = Base64.getDecoder().decode(update.getValue().getParameter(PinDriver.VALUE_PARAM_NAME).toString());
+		assertThat(encoded).hasSize(24);
+		verify(gateway).notify(update.capture(), eq(legacy));
+		assertThat(update.getValue().getParameter(PinDriver.VALUE_PARAM_NAME)).isEqualTo("[1.0,2.0,3.0]");
+
+		// Sent back as an incoming event.
+		driver.handleEvent(update.getAllValues().get(0));
+		assertThat(values).hasSize(1);
+		assertArrayEquals(new double[] { 1, 2, 3 }, values.get(0), 0);
+	}
+
+	@Test
+	public void testEncodingPerConnection() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		driver.add(pin("a", UhpType.v3));
+		driver.add(pin("b", UhpType.v3));
+		UpDevice device = new UpDevice("device");
+		connect(device, "a", false, PinDriver.BINARY_ENCODING);
+		connect(device, "b", false);
+
+		driver.pinValueChanged("b", new double[] { 1, 2, 3 });
+		ArgumentCaptor<Notify> update = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway).notify(update.capture(), eq(device));
+		assertThat(update.getValue().getParameter(PinDriver.ENCODING_PARAM_NAME)).isNull();
+		assertThat(update.getValue().getParameter(PinDriver.VALUE_PARAM_NAME)).isEqualTo("[1.0,2.0,3.0]");
+
+		// Reconnecting with JSON drops the binary encoding.
+		assertThat(disconnect(device, "a").getError()).isNull();
+		assertThat(disconnect(device, "a").getError()).isEqualTo("device not connected to this pin");
+		driver.pinValueChanged("a", new double[] { 1, 2, 3 });
+		connect(device, "a", false);
+		driver.pinValueChanged("a", new double[] { 4, 5, 6 });
+		verify(gateway, times(2)).notify(update.capture(), eq(device));
+		assertThat(update.getValue().getParameter(PinDriver.VALUE_PARAM_NAME)).isEqualTo("[4.0,5.0,6.0]");
+	}
+
+	@Test
+	public void testEncodingFailureDoesNotAffectOthers() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		driver.add(pin("pin", UhpType.v3));
+		UpDevice binary = new UpDevice("binary");
+		UpDevice legacy = new UpDevice("legacy");
+		connect(binary, "pin", false, PinDriver.BINARY_ENCODING);
+		connect(legacy, "pin", false);
+
+		// Has no binary form, but is still sent as JSON.
+		driver.pinValueChanged("pin", new double[] { 1, 2 });
+
+		ArgumentCaptor<Notify> update = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway).notify(update.capture(), eq(legacy));
+		assertThat(update.getValue().getParameter(PinDriver.VALUE_PARAM_NAME)).isEqualTo("[1.0,2.0]");
+		verify(gateway, times(0)).notify(any(Notify.class), eq(binary));
+	}
+
+	@Test
+	public void shouldRejectUnknownEncoding() {
+		driver.add(pin("pin", UhpType.v3));
+		CallContext context = mock(CallContext.class);
+		when(context.getCallerDevice()).thenReturn(new UpDevice("device"));
+		Call call = new Call(PinDriver.DRIVER_NAME, PinDriver.CONNECT_SERVICE_NAME);
+		call.addParameter(PinDriver.PIN_PARAM_NAME, "pin");
+		call.addParameter(PinDriver.ENCODING_PARAM_NAME, "xml");
+		Response response = new Response();
+		driver.connect(call, response, context);
+		assertThat(response.getError()).isEqualTo("unsupported encoding");
+	}
+
+	@Test
+	public void testListCache() {
+		driver.add(pin("pin", UhpType.v3));
+		Response first = list(null);
+		Response second = list(null);
+		Object version = first.getResponseData(PinDriver.VERSION_PARAM_NAME);
+		assertThat(version).isNotNull();
+		assertThat(second.getResponseData(PinDriver.VERSION_PARAM_NAME)).isEqualTo(version);
+		assertThat(second.getResponseData(PinDriver.PINS_FIELD_NAME))
+				.isSameAs(first.getResponseData(PinDriver.PINS_FIELD_NAME));
+		assertThat(((JsonNode) first.getResponseData(PinDriver.PINS_FIELD_NAME)).size()).isEqualTo(1);
+
+		Response notModified = list(version.toString());
+		assertThat(notModified.getResponseData("result")).isEqualTo(PinDriver.NOT_MODIFIED_RESULT);
+		assertThat(notModified.getResponseData(PinDriver.PINS_FIELD_NAME)).isNull();
+
+		driver.add(pin("other", UhpType.uniform));
+		Response modified = list(version.toString());
+		assertThat(modified.getResponseData(PinDriver.VERSION_PARAM_NAME)).isNotEqualTo(version);
+		assertThat(((JsonNode) modified.getResponseData(PinDriver.PINS_FIELD_NAME)).size()).isEqualTo(2);
+
+		driver.remove("pin");
+		assertThat(((JsonNode) list(null).getResponseData(PinDriver.PINS_FIELD_NAME)).size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testCatalogChanges() throws Exception {
+		Gateway gateway = mock(Gateway.class);
+		driver.init(gateway, new InitialProperties(), "id");
+		UpDevice device = new UpDevice("device");
+		CallContext context = mock(CallContext.class);
+		when(context.getCallerDevice()).thenReturn(device);
+		Call register = new Call(PinDriver.DRIVER_NAME, "registerListener");
+		register.addParameter(PinDriver.EVENT_KEY_PARAM_NAME, PinDriver.CATALOG_EVENT_NAME);
+		driver.registerListener(register, new Response(), context);
+
+		driver.add(pin("pin", UhpType.v3));
+		String version = list(null).getResponseData(PinDriver.VERSION_PARAM_NAME).toString();
+		driver.add(pin("other", UhpType.uniform));
+		UhpPin updated = pin("pin", UhpType.v2);
+		updated.setDescription("planar");
+		driver.update(updated);
+		driver.remove("other");
+
+		ArgumentCaptor<Notify> events = ArgumentCaptor.forClass(Notify.class);
+		verify(gateway, times(4)).notify(events.capture(), eq(device));
+		Notify added = events.getAllValues().get(1);
+		assertThat(added.getEventKey()).isEqualTo(PinDriver.CATALOG_EVENT_NAME);
+		assertThat(added.getParameter(PinDriver.PIN_PARAM_NAME)).isEqualTo("other");
+		assertThat(added.getParameter(PinDriver.CHANGE_PARAM_NAME)).isEqualTo(PinDriver.ADDED_CHANGE);
+		assertThat(added.getParameter(PinDriver.DECLARATION_PARAM_NAME)).isNotNull();
+		Notify removed = events.getAllValues().get(3);
+		assertThat(removed.getParameter(PinDriver.CHANGE_PARAM_NAME)).isEqualTo(PinDriver.REMOVED_CHANGE);
+		assertThat(removed.getParameter(PinDriver.DECLARATION_PARAM_NAME)).isNull();
+
+		Call call = new Call(PinDriver.DRIVER_NAME, PinDriver.LIST_SERVICE_NAME);
+		call.addParameter(PinDriver.SINCE_PARAM_NAME, version);
+		Response response = new Response();
+		driver.list(call, response, context);
+		assertThat(response.getResponseData(PinDriver.PINS_FIELD_NAME)).isNull();
+		assertThat(response.getResponseData(PinDriver.VERSION_PARAM_NAME))
+				.isEqualTo(removed.getParameter(PinDriver.VERSION_PARAM_NAME));
+		JsonNode changes = (JsonNode) response.getResponseData(PinDriver.CHANGES_FIELD_NAME);
+		assertThat(changes.size()).isEqualTo(3);
+		assertThat(changes.get(1).get(PinDriver.CHANGE_PARAM_NAME).asText()).isEqualTo(PinDriver.UPDATED_CHANGE);
+		assertThat(changes.get(1).get(PinDriver.DECLARATION_PARAM_NAME).get(UhpPin.JSON_DESCRIPTION_KEY).asText())
+				.isEqualTo("planar");
+
+		// Unknown versions get the full list.
+		call = new Call(PinDriver.DRIVER_NAME, PinDriver.LIST_SERVICE_NAME);
+		call.addParameter(PinDriver.SINCE_PARAM_NAME, "0-0");
+		response = new Response();
+		driver.list(call, response, context);
+		assertThat(response.getResponseData(PinDriver.CHANGES_FIELD_NAME)).isNull();
+		assertThat(((JsonNode) response.getResponseData(PinDriver.PINS_FIELD_NAME)).size()).isEqualTo(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForUpdateChangingListenerType() {
+		driver.add(pin("pin", UhpType.v3), new DoubleArrayPinListener() {
+			public void valueChanged(UhpPin pin, double[] newValue) {
+			}
+		});
+		driver.update(pin("pin", UhpType.uniform));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForUnknownPinInBatch() {
+		driver.pinValuesChanged(Collections.<String, Object> singletonMap("none", 1));
+	}
+
+	@Test
+	public void testHistory() {
+		driver.add(pin("accel", UhpType.v3));
+		driver.add(pin("count", UhpType.discrete()));
+		assertThat(driver.getHistory("accel")).isNull();
+		driver.enableHistory("accel", 2);
+		driver.enableHistory("count", 8);
+
+		// Recorded with no listeners, from single and batched events.
+		long start = System.currentTimeMillis();
+		driver.handleEvent(update("accel", "[1, 2, 3]"));
+		driver.handleEvent(batch("{\"accel\": [4, 5, 6], \"count\": 7}"));
+		driver.handleEvent(update("accel", "[7, 8, 9]"));
+		driver.pinValueChanged("count", 8L);
+		driver.handleEvent(update("count", "\"invalid\""));
+
+		PinHistory.Samples accel = driver.getHistory("accel").since(start);
+		assertThat(accel.size()).isEqualTo(2);
+		assertArrayEquals(new Object[] { 4.0, 5.0, 6.0 }, (Object[]) accel.value(0));
+		assertArrayEquals(new double[] { 6, 9 }, accel.column(2), 0);
+		assertTrue(accel.time(0) >= start);
+		PinHistory.Samples count = driver.getHistory("count").since(start);
+		assertThat(count.size()).isEqualTo(2);
+		assertThat(count.value(1)).isEqualTo(8L);
+
+		// Changing the type of a pin restarts its history.
+		driver.update(pin("count", UhpType.discrete(0, 10)));
+		assertThat(driver.getHistory("count").size()).isEqualTo(0);
+		assertThat(driver.getHistory("count").getCapacity()).isEqualTo(8);
+
+		// Local changes out of the pin type are not recorded.
+		driver.pinValueChanged("count", 10L);
+		driver.pinValuesChanged(Collections.<String, Object> singletonMap("count", 3L));
+		driver.pinValueChanged("accel", new double[] { 1, 2 });
+		assertThat(driver.getHistory("count").size()).isEqualTo(1);
+		assertThat(driver.getHistory("count").since(start).value(0)).isEqualTo(3L);
+		assertThat(driver.getHistory("accel").size()).isEqualTo(2);
+
+		driver.disableHistory("accel");
+		assertThat(driver.getHistory("accel")).isNull();
+		driver.remove("count");
+		driver.add(pin("count", UhpType.discrete()));
+		assertThat(driver.getHistory("count")).isNull();
+
+		// Histories do not survive a re-init.
+		driver.enableHistory("count", 8);
+		driver.init(mock(Gateway.class), new InitialProperties(), "id");
+		driver.add(pin("count", UhpType.discrete()));
+		assertThat(driver.getHistory("count")).isNull();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForHistoryOfStructuredPin() {
+		driver.add(pin("pin", UhpType.builder(UhpType.BaseType.STRUCTURED).field("x", UhpType.uniform).build()));
+		driver.enableHistory("pin", 8);
+	}
+
+	private Response list(String version) {
+		Call call = new Call(PinDriver.DRIVER_NAME, PinDriver.LIST_SERVICE_NAME);
+		if (version != null)
+			call.addParameter(PinDriver.VERSION_PARAM_NAME, version);
+		Response response = new Response();
+		driver.list(call, response, mock(CallContext.class));
+		assertThat(response.getError()).isNull();
+		return response;
+	}
+
+	private Response connect(UpDevice device, String pinName, boolean batch) {
+		return connect(device, pinName, batch, null);
+	}
+
+	private Response connect(UpDevice device, String pinName, boolean batch, String encoding) {
+		CallContext context = mock(CallContext.class);
+		when(context.getCallerDevice()).thenReturn(device);
+		Call call = new Call(PinDriver.DRIVER_NAME, PinDriver.CONNECT_SERVICE_NAME);
+		call.addParameter(PinDriver.PIN_PARAM_NAME, pinName);
+		if (batch)
+			call.addParameter(PinDriver.BATCH_PARAM_NAME, "true");
+		if (encoding != null)
+			call.addParameter(PinDriver.ENCODING_PARAM_NAME, encoding);
+		Response response = new Response();
+		driver.connect(call, response, context);
+		assertThat(response.getError()).isNull();
+		return response;
+	}
+
+	private Response disconnect(UpDevice device, String pinName) {
+		CallContext context = mock(CallContext.class);
+		when(context.getCallerDevice()).thenReturn(device);
+		Call call = new Call(PinDriver.DRIVER_NAME, PinDriver.DISCONNECT_SERVICE_NAME);
+		call.addParameter(PinDriver.PIN_PARAM_NAME, pinName);
+		Response response = new Response();
+		driver.disconnect(call, response, context);
+		return response;
+	}
+
+	private static UhpPin pin(String name, UhpType type) {
+		UhpPin pin = new UhpPin(name);
+		pin.setMode(IOMode.INOUT);
+		pin.setType(type);
+		return pin;
+	}
+
+	private static Notify update(String pinName, String value) {
+		Notify event = new Notify(PinDriver.UPDATE_EVENT_NAME, PinDriver.DRIVER_NAME, null);
+		event.addParameter(PinDriver.PIN_PARAM_NAME, pinName);
+		event.addParameter(PinDriver.VALUE_PARAM_NAME, value);
+		return event;
+	}
+
+	private static Notify batch(String values) {
+		Notify event = new Notify(PinDriver.UPDATE_BATCH_EVENT_NAME, PinDriver.DRIVER_NAME, null);
+		event.addParameter(PinDriver.VALUES_PARAM_NAME, values);
+		return event;
+	}
+}
@@ -0,0 +1,129 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.unbiquitous.unbihealth.core.uhp.UhpType;
+
+public class PinHistoryTest {
+	@Test
+	public void testRange() {
+		PinHistory history = new PinHistory(UhpType.discrete(), 4);
+		assertThat(history.size()).isEqualTo(0);
+		assertThat(history.since(0).isEmpty()).isTrue();
+		for (long i = 0; i < 6; ++i)
+			history.append(100 + i * 10, i);
+
+		// Only the latest 4 values are kept.
+		assertThat(history.size()).isEqualTo(4);
+		PinHistory.Samples samples = history.since(0);
+		assertThat(samples.size()).isEqualTo(4);
+		assertArrayEquals(new long[] { 120, 130, 140, 150 }, samples.times());
+		assertThat(samples.value(0)).isEqualTo(2L);
+
+		samples = history.range(125, 150);
+		assertArrayEquals(new long[] { 130, 140 }, samples.times());
+		assertThat(samples.longValue(1, 0)).isEqualTo(4L);
+		assertThat(history.range(151, 200).isEmpty()).isTrue();
+		assertThat(history.range(140, 140).isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testArrayValues() {
+		PinHistory history = new PinHistory(UhpType.v3, 8);
+		assertThat(history.getDimension()).isEqualTo(3);
+		history.append(1, new double[] { 1, 2, 3 });
+		history.append(2, new float[] { 4, 5, 6 });
+		history.append(3, new Object[] { 7.0, 8L, 9 });
+		history.append(4, new long[] { 10, 11, 12 });
+
+		PinHistory.Samples samples = history.since(0);
+		assertArrayEquals(new Object[] { 4.0, 5.0, 6.0 }, (Object[]) samples.value(1));
+		assertArrayEquals(new double[] { 2, 5, 8, 11 }, samples.column(1), 0);
+		assertEquals(9.0, samples.doubleValue(2, 2), 0);
+	}
+
+	@Test
+	public void testSinglePrecision() {
+		PinHistory history = new PinHistory(UhpType.continuous(0, 1, UhpType.Precision.SINGLE), 4);
+		history.append(1, 0.1f);
+		assertThat(history.since(0).value(0)).isEqualTo(0.1f);
+
+		history = new PinHistory(UhpType.array(UhpType.continuous(0, 1, UhpType.Precision.SINGLE), 2), 4);
+		history.append(1, new float[] { 0.1f, 0.2f });
+		assertArrayEquals(new Object[] { 0.1f, 0.2f }, (Object[]) history.since(0).value(0));
+	}
+
+	@Test
+	public void testTimesNeverGoBack() {
+		PinHistory history = new PinHistory(UhpType.uniform, 8);
+		history.append(10, 0.5);
+		history.append(5, 0.25);
+		assertArrayEquals(new long[] { 10, 10 }, history.since(10).times());
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final PinHistory history = new PinHistory(UhpType.array(UhpType.discrete(), 2), 16);
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				for (long i = 0; i < 200000; ++i)
+					history.append(i, new long[] { i, -i });
+				done.set(true);
+			}
+		});
+		writer.start();
+		try {
+			while (!done.get()) {
+				PinHistory.Samples samples = history.since(0);
+				assertThat(samples.size()).isLessThanOrEqualTo(16);
+				for (int i = 0; i < samples.size(); ++i) {
+					// Every value is read whole, and in order.
+					assertEquals(samples.time(i), samples.longValue(i, 0));
+					assertEquals(-samples.time(i), samples.longValue(i, 1));
+					if (i > 0)
+						assertEquals(samples.time(i - 1) + 1, samples.time(i));
+				}
+			}
+		} finally {
+			writer.join();
+		}
+		assertThat(history.since(0).time(0)).isEqualTo(200000 - 16);
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		final PinHistory history = new PinHistory(UhpType.array(UhpType.discrete(), 2), 16);
+		Thread[] writers = new Thread[4];
+		for (int w = 0; w < writers.length; ++w) {
+			writers[w] = new Thread(new Runnable() {
+				public void run() {
+					for (long i = 0; i < 50000; ++i)
+						history.append(i, new long[] { i, -i });
+				}
+			});
+			writers[w].start();
+		}
+		for (Thread writer : writers)
+			writer.join();
+		PinHistory.Samples samples = history.since(0);
+		assertThat(samples.size()).isEqualTo(16);
+		for (int i = 0; i < samples.size(); ++i)
+			assertEquals(-samples.longValue(i, 0), samples.longValue(i, 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForWrongShape() {
+		new PinHistory(UhpType.v3, 8).append(0, new double[] { 1, 2 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForNonPositiveCapacity() {
+		new PinHistory(UhpType.uniform, 0);
+	}
+}
@@ -0,0 +1,173 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.unbiquitous.unbihealth.core.drivers.SerialPinDispatcher.OverflowPolicy;
+
+public class SerialPinDispatcherTest {
+	private SerialPinDispatcher dispatcher;
+
+	@After
+	public void tearDown() throws Exception {
+		if (dispatcher != null)
+			dispatcher.shutdown();
+	}
+
+	@Test
+	public void testOrderPerPin() throws Exception {
+		dispatcher = new SerialPinDispatcher(4, 1000, OverflowPolicy.BLOCK);
+		final List<Integer> a = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Integer> b = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(2000);
+		for (int i = 0; i < 1000; ++i) {
+			dispatcher.dispatch("a", record(a, i, done));
+			dispatcher.dispatch("b", record(b, i, done));
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 1000; ++i) {
+			assertThat(a.get(i)).isEqualTo(i);
+			assertThat(b.get(i)).isEqualTo(i);
+		}
+	}
+
+	@Test
+	public void testSlowPinDoesNotStallOthers() throws Exception {
+		dispatcher = new SerialPinDispatcher(2, 10, OverflowPolicy.BLOCK);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch fast = new CountDownLatch(1);
+		dispatcher.dispatch("slow", await(release));
+		dispatcher.dispatch("fast", countDown(fast));
+		try {
+			assertTrue(fast.await(5, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testDropNewest() throws Exception {
+		List<Integer> values = overflow(OverflowPolicy.DROP_NEWEST);
+		assertThat(values).containsExactly(0, 1, 2);
+		assertThat(dispatcher.getDropped("pin")).isEqualTo(2l);
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		List<Integer> values = overflow(OverflowPolicy.DROP_OLDEST);
+		assertThat(values).containsExactly(0, 3, 4);
+		assertThat(dispatcher.getDropped("pin")).isEqualTo(2l);
+	}
+
+	@Test
+	public void testDiscardedTasksAreTold() throws Exception {
+		// Never runs the lane, so its queue of one fills up.
+		dispatcher = new SerialPinDispatcher(new Executor() {
+			public void execute(Runnable command) {
+			}
+		}, 1, OverflowPolicy.DROP_OLDEST);
+		final List<Integer> discarded = new ArrayList<Integer>();
+		for (int i = 0; i < 3; ++i) {
+			final int value = i;
+			dispatcher.dispatch("pin", new PinDispatcher.DiscardableTask() {
+				public void run() {
+				}
+
+				public void discarded() {
+					discarded.add(value);
+				}
+			});
+		}
+		assertThat(discarded).containsExactly(0, 1);
+		assertThat(dispatcher.getDropped("pin")).isEqualTo(2l);
+	}
+
+	@Test
+	public void testDiscardKeepsOrder() throws Exception {
+		dispatcher = new SerialPinDispatcher(4, 10, OverflowPolicy.BLOCK);
+		final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+		dispatcher.dispatch("pin", await(release));
+		dispatcher.dispatch("pin", record(values, 0, done));
+		// Discarded while busy, as a device that disconnects and reconnects.
+		dispatcher.discard("pin");
+		dispatcher.dispatch("pin", record(values, 1, done));
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertThat(values).containsExactly(0, 1);
+
+		// Discarded while idle, and replaced by a new lane.
+		final CountDownLatch idle = new CountDownLatch(1);
+		final CountDownLatch replaced = new CountDownLatch(1);
+		dispatcher.dispatch("other", countDown(idle));
+		assertTrue(idle.await(5, TimeUnit.SECONDS));
+		dispatcher.discard("other");
+		dispatcher.dispatch("other", countDown(replaced));
+		assertTrue(replaced.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Blocks the lane on its first task, then dispatches 4 more tasks to a
+	 * queue of capacity 2.
+	 */
+	private List<Integer> overflow(OverflowPolicy policy) throws Exception {
+		dispatcher = new SerialPinDispatcher(1, 2, policy);
+		final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(3);
+		dispatcher.dispatch("pin", new Runnable() {
+			public void run() {
+				values.add(0);
+				started.countDown();
+				done.countDown();
+				await(release).run();
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < 5; ++i)
+			dispatcher.dispatch("pin", record(values, i, done));
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		return values;
+	}
+
+	private static Runnable record(final List<Integer> values, final int i, final CountDownLatch done) {
+		return new Runnable() {
+			public void run() {
+				values.add(i);
+				done.countDown();
+			}
+		};
+	}
+
+	private static Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		};
+	}
+
+	private static Runnable await(final CountDownLatch latch) {
+		return new Runnable() {
+			public void run() {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+}
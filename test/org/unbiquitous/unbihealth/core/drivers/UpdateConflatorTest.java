@@ -0,0 +1,80 @@
+package org.unbiquitous.unbihealth.core.drivers;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpdateConflatorTest {
+	private ScheduledExecutorService scheduler;
+	private List<Object> sent;
+
+	@Before
+	public void setUp() throws Exception {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		sent = Collections.synchronizedList(new ArrayList<Object>());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testMaxRate() throws Exception {
+		UpdateConflator conflator = new UpdateConflator(scheduler, 1, TimeUnit.HOURS, sent::add);
+		scheduler.submit(() -> {
+			for (int i = 0; i < 1000; ++i)
+				conflator.offer(i);
+		});
+		drain();
+		assertThat(sent).containsExactly(999);
+
+		// The next value must wait for the interval.
+		conflator.offer(1000);
+		drain();
+		assertThat(sent).containsExactly(999);
+	}
+
+	@Test
+	public void testLatestValueWins() throws Exception {
+		UpdateConflator conflator = new UpdateConflator(scheduler, 0, TimeUnit.MILLISECONDS, sent::add);
+		scheduler.submit(() -> {
+			for (int i = 0; i < 1000; ++i)
+				conflator.offer(i);
+		});
+		drain();
+		assertThat(sent).containsExactly(999);
+		assertThat(conflator.getCollapsed()).isEqualTo(999l);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		UpdateConflator conflator = new UpdateConflator(scheduler, 0, TimeUnit.MILLISECONDS, sent::add);
+		scheduler.submit(() -> {
+			conflator.offer(1);
+			conflator.cancel();
+		});
+		drain();
+		assertThat(sent).isEmpty();
+	}
+
+	/**
+	 * Waits for the tasks submitted so far, then for the ones they scheduled
+	 * to run right away.
+	 */
+	private void drain() throws Exception {
+		for (int i = 0; i < 2; ++i) {
+			scheduler.submit(() -> {
+			}).get(5, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.unbiquitous.unbihealth.core.types;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class Vector2BufferTest {
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testAppendAndGrow() {
+		Vector2Buffer buffer = new Vector2Buffer(1);
+		assertThat(buffer.isEmpty()).isTrue();
+		assertThat(buffer.append(1, 2)).isEqualTo(0);
+		assertThat(buffer.append(new Vector2(3, 4))).isEqualTo(1);
+		assertThat(buffer.append(new double[] { 5, 6 })).isEqualTo(2);
+		assertThat(buffer.append(new float[] { 7, 8 })).isEqualTo(3);
+		assertThat(buffer.append(new Object[] { 9.0, 10l })).isEqualTo(4);
+		assertThat(buffer.size()).isEqualTo(5);
+		assertThat(buffer.capacity()).isGreaterThanOrEqualTo(5);
+
+		assertEquals(6, buffer.y(2), DELTA);
+		assertEquals(7, buffer.xs()[3], DELTA);
+		assertEquals(10, buffer.ys()[4], DELTA);
+		assertArrayEquals(new double[] { 3, 4 }, buffer.toValue(1), DELTA);
+
+		buffer.clear();
+		assertThat(buffer.size()).isEqualTo(0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void shouldThrowOutOfSize() {
+		Vector2Buffer buffer = new Vector2Buffer();
+		buffer.append(1, 2);
+		buffer.x(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForWrongSizedValue() {
+		new Vector2Buffer().append(new double[] { 1, 2, 3 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForNonNumericElements() {
+		new Vector2Buffer().append(new Object[] { 1.0, "2" });
+	}
+
+	@Test
+	public void testElementView() {
+		Vector2Buffer buffer = new Vector2Buffer();
+		buffer.append(1, 2);
+		buffer.append(3, 4);
+		Vector2Buffer.Element e = buffer.element(0);
+		assertEquals(2, e.y(), DELTA);
+		e.at(1).x(7);
+		assertEquals(7, buffer.x(1), DELTA);
+		assertThat(e.index()).isEqualTo(1);
+	}
+}
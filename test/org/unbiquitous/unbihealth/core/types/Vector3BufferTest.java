@@ -0,0 +1,94 @@
+package org.unbiquitous.unbihealth.core.types;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class Vector3BufferTest {
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testAppendAndGrow() {
+		Vector3Buffer buffer = new Vector3Buffer(1);
+		assertThat(buffer.isEmpty()).isTrue();
+		assertThat(buffer.append(1, 2, 3)).isEqualTo(0);
+		assertThat(buffer.append(new Vector3(4, 5, 6))).isEqualTo(1);
+		assertThat(buffer.append(new double[] { 7, 8, 9 })).isEqualTo(2);
+		assertThat(buffer.append(new Object[] { 10.0, 11l, 12 })).isEqualTo(3);
+		assertThat(buffer.size()).isEqualTo(4);
+		assertThat(buffer.capacity()).isGreaterThanOrEqualTo(4);
+
+		assertEquals(8, buffer.y(2), DELTA);
+		assertEquals(12, buffer.zs()[3], DELTA);
+		assertArrayEquals(new double[] { 4, 5, 6 }, buffer.toValue(1), DELTA);
+
+		buffer.clear();
+		assertThat(buffer.size()).isEqualTo(0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void shouldThrowOutOfSize() {
+		Vector3Buffer buffer = new Vector3Buffer();
+		buffer.append(1, 2, 3);
+		buffer.x(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForWrongSizedValue() {
+		new Vector3Buffer().append(new double[] { 1, 2 });
+	}
+
+	@Test
+	public void testElementView() {
+		Vector3Buffer buffer = new Vector3Buffer();
+		buffer.append(1, 2, 3);
+		buffer.append(4, 5, 6);
+		Vector3Buffer.Element e = buffer.element(0);
+		assertEquals(2, e.y(), DELTA);
+		e.at(1).z(7);
+		assertEquals(7, buffer.z(1), DELTA);
+	}
+
+	@Test
+	public void testBulkOperations() {
+		Vector3Buffer buffer = new Vector3Buffer();
+		buffer.append(3, 0, 4);
+		buffer.append(-1, 2, 0);
+		assertArrayEquals(new double[] { 5, Math.sqrt(5) }, buffer.magnitudes(null), DELTA);
+
+		Vector3 v = new Vector3();
+		buffer.mean(v);
+		assertVector(v, 1, 1, 2);
+		buffer.min(v);
+		assertVector(v, -1, 0, 0);
+		buffer.max(v);
+		assertVector(v, 3, 2, 4);
+
+		buffer.multiplyInPlace(2).addInPlace(new Vector3(1, 1, 1));
+		assertVector(buffer.get(0), 7, 1, 9);
+
+		Vector3Buffer other = new Vector3Buffer();
+		other.append(1, 1, 1);
+		other.append(1, 1, 1);
+		buffer.addInPlace(other);
+		assertVector(buffer.get(1), 0, 6, 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForNonNumericElements() {
+		new Vector3Buffer().append(new Object[] { 1.0, "2", 3.0 });
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldThrowForEmptyMean() {
+		new Vector3Buffer().mean(new Vector3());
+	}
+
+	private static void assertVector(Vector3 v, double x, double y, double z) {
+		assertEquals(x, v.x, DELTA);
+		assertEquals(y, v.y, DELTA);
+		assertEquals(z, v.z, DELTA);
+	}
+}
@@ -0,0 +1,67 @@
+package org.unbiquitous.unbihealth.core.types;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class Vector3Test {
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testAllocatingOperations() {
+		Vector3 a = new Vector3(1, 2, 3);
+		Vector3 b = new Vector3(4, 5, 6);
+		assertVector(a.add(b), 5, 7, 9);
+		assertVector(a.subtract(b), -3, -3, -3);
+		assertVector(a.multiply(2), 2, 4, 6);
+		assertVector(a.cross(b), -3, 6, -3);
+		assertVector(Vector3.lerp(a, b, 0.5), 2.5, 3.5, 4.5);
+		assertEquals(32, a.dot(b), DELTA);
+		assertEquals(1, a.normalized().magnitude(), DELTA);
+		assertVector(a, 1, 2, 3);
+		assertVector(Vector3.zero().normalized(), 0, 0, 0);
+	}
+
+	@Test
+	public void testInPlaceOperations() {
+		Vector3 a = new Vector3(1, 2, 3);
+		Vector3 b = new Vector3(4, 5, 6);
+		assertThat(a.addInPlace(b)).isSameAs(a);
+		assertVector(a, 5, 7, 9);
+		assertVector(a.subtractInPlace(b), 1, 2, 3);
+		assertVector(a.multiplyInPlace(2), 2, 4, 6);
+		assertVector(a.scaleAddInPlace(0.5, b), 4, 6.5, 9);
+		assertEquals(1, a.normalize().magnitude(), DELTA);
+		assertVector(b, 4, 5, 6);
+	}
+
+	@Test
+	public void testDestinationOperations() {
+		Vector3 a = new Vector3(1, 2, 3);
+		Vector3 b = new Vector3(4, 5, 6);
+		Vector3 out = new Vector3();
+		assertThat(Vector3.add(a, b, out)).isSameAs(out);
+		assertVector(out, 5, 7, 9);
+		assertVector(Vector3.scaleAdd(a, 2, b, out), 9, 12, 15);
+		assertVector(Vector3.lerp(a, b, 0.25, out), 1.75, 2.75, 3.75);
+
+		// the result may also be one of the operands
+		assertVector(Vector3.cross(a, b, a), -3, 6, -3);
+	}
+
+	@Test
+	public void testPool() {
+		VectorPool pool = VectorPool.get();
+		assertThat(VectorPool.get()).isSameAs(pool);
+		Vector3 v = pool.takeVector3();
+		pool.free(v);
+		assertThat(pool.takeVector3()).isSameAs(v);
+	}
+
+	private static void assertVector(Vector3 v, double x, double y, double z) {
+		assertEquals(x, v.x, DELTA);
+		assertEquals(y, v.y, DELTA);
+		assertEquals(z, v.z, DELTA);
+	}
+}
@@ -0,0 +1,346 @@
+package org.unbiquitous.unbihealth.core.uhp;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class UhpAdapterRegistryTest {
+	private final UhpAdapterRegistry registry = new UhpAdapterRegistry();
+
+	@Test
+	public void testBuiltins() {
+		for (String name : new String[] { UhpAdapters.SCALE, UhpAdapters.REMAP, UhpAdapters.SELECT,
+				UhpAdapters.MAGNITUDE, UhpAdapters.THRESHOLD })
+			assertThat(registry.find(name)).isNotNull();
+		assertThat(registry.find("none")).isNull();
+	}
+
+	@Test
+	public void testScale() {
+		UhpConverter converter = registry.compile(UhpType.v3, adaptation(UhpAdapters.SCALE,
+				UhpAdapters.SCALE_PARAM, 2, UhpAdapters.OFFSET_PARAM, Arrays.asList(1, 0, -1)));
+		assertThat(converter.getTargetType()).isSameAs(UhpType.v3);
+		assertArrayEquals(new Object[] { 3.0, 4.0, 5.0 }, (Object[]) converter.convert(new double[] { 1, 2, 3 }));
+		assertArrayEquals(new Object[] { 3.0, 4.0, 5.0 }, (Object[]) converter.convert(new Object[] { 1.0, 2.0, 3.0 }));
+	}
+
+	@Test
+	public void testRemap() {
+		UhpConverter converter = registry.compile(UhpType.uniform,
+				adaptation(UhpAdapters.REMAP, UhpAdapters.TO_START_PARAM, 0, UhpAdapters.TO_SIZE_PARAM, 100));
+		assertThat(converter.getTargetType()).isEqualTo(UhpType.continuous(0, 100));
+		assertEquals(50.0, (Double) converter.convert(0.0), 1e-9);
+		assertEquals(100.0, (Double) converter.convert(1.0), 1e-9);
+		assertTrue((Double) converter.convert(1.0) < 100.0);
+		assertEquals(0.0, (Double) converter.convert(-1.0), 0);
+
+		converter = registry.compile(UhpType.discrete(0, 11),
+				adaptation(UhpAdapters.REMAP, UhpAdapters.TO_START_PARAM, 0, UhpAdapters.TO_SIZE_PARAM, 1));
+		assertEquals(1.0, (Double) converter.convert(10L), 1e-9);
+		assertEquals(0.5, (Double) converter.convert(5L), 1e-9);
+	}
+
+	@Test
+	public void testSelect() {
+		UhpConverter converter = registry.compile(UhpType.v3, adaptation(UhpAdapters.SELECT,
+				UhpAdapters.COMPONENT_PARAM, 2));
+		assertThat(converter.getTargetType()).isEqualTo(UhpType.continuous());
+		assertThat(converter.convert(new double[] { 1, 2, 3 })).isEqualTo(3.0);
+
+		converter = registry.compile(UhpType.array(UhpType.discrete(), 3),
+				adaptation(UhpAdapters.SELECT, UhpAdapters.COMPONENTS_PARAM, Arrays.asList(2, 0)));
+		assertThat(converter.getTargetType()).isEqualTo(UhpType.array(UhpType.discrete(), 2));
+		assertArrayEquals(new Object[] { 3L, 1L }, (Object[]) converter.convert(new long[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void testMagnitudeAndThreshold() {
+		UhpConverter converter = registry.compile(UhpType.v3, adaptation(UhpAdapters.MAGNITUDE));
+		assertThat(converter.convert(new double[] { 2, 3, 6 })).isEqualTo(7.0);
+		assertThat(converter.getTargetType()).isEqualTo(UhpType.continuous(0));
+		converter = registry.compile(UhpType.array(UhpType.continuous(-3, 4), 2),
+				adaptation(UhpAdapters.MAGNITUDE));
+		assertThat(converter.getTargetType()).isEqualTo(UhpType.continuous(0, Math.nextUp(Math.sqrt(18))));
+
+		converter = registry.compile(UhpType.uniform,
+				adaptation(UhpAdapters.THRESHOLD, UhpAdapters.THRESHOLD_PARAM, 0.5));
+		assertThat(converter.getTargetType()).isSameAs(UhpType.bit);
+		assertThat(converter.convert(0.5)).isEqualTo(1L);
+		assertThat(converter.convert(0.25)).isEqualTo(0L);
+	}
+
+	@Test
+	public void testChain() {
+		// An accelerometer into a "shaking" bit.
+		UhpConverter converter = registry.compile(UhpType.v3,
+				Arrays.asList(adaptation(UhpAdapters.MAGNITUDE),
+						adaptation(UhpAdapters.THRESHOLD, UhpAdapters.THRESHOLD_PARAM, 1.5)));
+		assertThat(converter.getSourceType()).isSameAs(UhpType.v3);
+		assertThat(converter.getTargetType()).isSameAs(UhpType.bit);
+		assertThat(converter.convert(new double[] { 0, 0, 1 })).isEqualTo(0L);
+		assertThat(converter.convert(new double[] { 1, 1, 1 })).isEqualTo(1L);
+		assertTrue(converter.isCompatibleWith(UhpType.discrete()));
+		assertFalse(converter.isCompatibleWith(UhpType.v2));
+	}
+
+	@Test
+	public void testFusion() {
+		List<UhpAdaptation> adaptations = Arrays.asList(
+				adaptation(UhpAdapters.REMAP, UhpAdapters.TO_START_PARAM, 0, UhpAdapters.TO_SIZE_PARAM, 10,
+						UhpAdapters.CLAMP_PARAM, false),
+				adaptation(UhpAdapters.SCALE, UhpAdapters.SCALE_PARAM, Arrays.asList(1, 2, 3),
+						UhpAdapters.OFFSET_PARAM, 1),
+				adaptation(UhpAdapters.SELECT, UhpAdapters.COMPONENTS_PARAM, Arrays.asList(2, 0)));
+		UhpConverter fused = registry.compile(UhpType.array(UhpType.uniform, 3), adaptations);
+		assertTrue(fused instanceof UhpAdapters.Affine);
+		assertThat(fused.getTargetType()).isEqualTo(UhpType.array(UhpType.continuous(), 2));
+
+		UhpConverter[] steps = new UhpConverter[adaptations.size()];
+		UhpType type = UhpType.array(UhpType.uniform, 3);
+		for (int i = 0; i < steps.length; ++i) {
+			steps[i] = registry.compile(type, adaptations.get(i));
+			type = steps[i].getTargetType();
+		}
+		UhpConverter chained = new UhpAdapterRegistry.Chain(steps);
+		double[] in = { -0.5, 0.25, 1 };
+		double[] expected = new double[2];
+		double[] actual = new double[2];
+		chained.apply(in, expected);
+		fused.apply(in, actual);
+		assertArrayEquals(expected, actual, 1e-12);
+		assertArrayEquals(new double[] { 31, 3.5 }, actual, 1e-12);
+	}
+
+	@Test
+	public void testNoFusionAcrossNonAffineSteps() {
+		UhpConverter converter = registry.compile(UhpType.v3, Arrays.asList(
+				adaptation(UhpAdapters.SCALE, UhpAdapters.SCALE_PARAM, 2),
+				adaptation(UhpAdapters.MAGNITUDE),
+				adaptation(UhpAdapters.REMAP, UhpAdapters.FROM_START_PARAM, 0, UhpAdapters.FROM_SIZE_PARAM, 10,
+						UhpAdapters.TO_START_PARAM, 0, UhpAdapters.TO_SIZE_PARAM, 1),
+				adaptation(UhpAdapters.SCALE, UhpAdapters.SCALE_PARAM, 3)));
+		assertFalse(converter instanceof UhpAdapters.Affine);
+		// The clamping remap is kept apart from the following scale.
+		assertEquals(3.0, (Double) converter.convert(new double[] { 20, 0, 0 }), 1e-12);
+		assertEquals(1.5, (Double) converter.convert(new double[] { 0, 1.5, 2 }), 1e-12);
+	}
+
+	@Test
+	public void testApplyBatch() {
+		double[][] samples = { { 20, 0, 0 }, { 0, 1.5, 2 }, { 1, -2, 3 }, { -4, 0.5, 0 } };
+		double[][] in = new double[3][samples.length];
+		long[][] discreteIn = new long[3][samples.length];
+		for (int i = 0; i < samples.length; ++i) {
+			for (int c = 0; c < 3; ++c) {
+				in[c][i] = samples[i][c];
+				discreteIn[c][i] = (long) samples[i][c];
+			}
+		}
+		for (UhpConverter converter : Arrays.asList(
+				registry.compile(UhpType.v3, adaptation(UhpAdapters.SCALE, UhpAdapters.SCALE_PARAM, 2,
+						UhpAdapters.OFFSET_PARAM, Arrays.asList(1, 0, -1))),
+				registry.compile(UhpType.v3, adaptation(UhpAdapters.SELECT, UhpAdapters.COMPONENTS_PARAM,
+						Arrays.asList(2, 0))),
+				registry.compile(UhpType.v3, adaptation(UhpAdapters.MAGNITUDE)),
+				registry.compile(UhpType.v3, adaptation(UhpAdapters.THRESHOLD, UhpAdapters.THRESHOLD_PARAM, 0.5)),
+				registry.compile(UhpType.v3, Arrays.asList(
+						adaptation(UhpAdapters.SCALE, UhpAdapters.SCALE_PARAM, 2),
+						adaptation(UhpAdapters.MAGNITUDE),
+						adaptation(UhpAdapters.REMAP, UhpAdapters.FROM_START_PARAM, 0, UhpAdapters.FROM_SIZE_PARAM,
+								10, UhpAdapters.TO_START_PARAM, 0, UhpAdapters.TO_SIZE_PARAM, 1))))) {
+			// Longer columns than needed, of which only the first samples count.
+			double[][] out = new double[converter.getOutputDimension()][samples.length + 1];
+			converter.applyBatch(in, out, samples.length);
+			double[] expected = new double[converter.getOutputDimension()];
+			for (int i = 0; i < samples.length; ++i) {
+				converter.apply(samples[i], expected);
+				for (int r = 0; r < expected.length; ++r)
+					assertEquals(expected[r], out[r][i], 1e-12);
+			}
+
+			// A smaller block after a larger one, and discrete columns.
+			converter.applyBatch(discreteIn, out, 2);
+			double[] sample = new double[3];
+			for (int i = 0; i < 2; ++i) {
+				for (int c = 0; c < 3; ++c)
+					sample[c] = discreteIn[c][i];
+				converter.apply(sample, expected);
+				for (int r = 0; r < expected.length; ++r)
+					assertEquals(expected[r], out[r][i], 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testApplyDiscreteBatch() {
+		UhpConverter converter = registry.compile(UhpType.discrete(0, 11),
+				adaptation(UhpAdapters.REMAP, UhpAdapters.TO_START_PARAM, 0, UhpAdapters.TO_SIZE_PARAM, 1));
+		double[][] out = new double[1][3];
+		converter.applyBatch(new long[][] { { 0, 5, 10 } }, out, 3);
+		assertArrayEquals(new double[] { 0, 0.5, 1 }, out[0], 1e-9);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForShortBatchColumn() {
+		UhpConverter converter = registry.compile(UhpType.v3, adaptation(UhpAdapters.MAGNITUDE));
+		converter.applyBatch(new double[][] { new double[4], new double[4], new double[3] },
+				new double[][] { new double[4] }, 4);
+	}
+
+	@Test
+	public void testResolve() {
+		// An accelerometer into a scalar, through its magnitude.
+		UhpType accel = UhpType.array(UhpType.continuous(-2, 4), 3);
+		UhpConverter converter = registry.resolve(accel, UhpType.continuous(0));
+		assertThat(converter.getSourceType()).isSameAs(UhpType.intern(accel));
+		assertThat(converter.convert(new double[] { 0, 0, 1.5 })).isEqualTo(1.5);
+		assertThat(registry.resolve(accel, UhpType.continuous(0))).isSameAs(converter);
+
+		// Into a bounded scalar, through its magnitude and a remap, when the
+		// source elements are bounded.
+		assertThat(registry.resolve(UhpType.v3, UhpType.uniform)).isNull();
+		converter = registry.resolve(UhpType.array(UhpType.uniform, 3), UhpType.uniform);
+		assertEquals(-1.0, (Double) converter.convert(new double[] { 0, 0, 0 }), 1e-9);
+		assertEquals(2 / Math.sqrt(3) - 1, (Double) converter.convert(new double[] { 0, -1, 0 }), 1e-9);
+		assertTrue((Double) UhpType.uniform.extractValue(converter.convert(new double[] { 1, 1, -1 })) < 1.0);
+		converter = registry.resolve(UhpType.array(UhpType.discrete(0, 11), 2), UhpType.uniform);
+		assertEquals(-1.0, (Double) converter.convert(new long[] { 0, 0 }), 1e-9);
+		assertEquals(Math.sqrt(2) - 1, (Double) converter.convert(new long[] { 6, 8 }), 1e-9);
+		assertTrue((Double) UhpType.uniform.extractValue(converter.convert(new long[] { 10, 10 })) < 1.0);
+		converter = registry.resolve(UhpType.discrete(0, 11), UhpType.uniform);
+		assertEquals(-1.0, (Double) converter.convert(0L), 1e-9);
+		assertEquals(0.0, (Double) converter.convert(5L), 1e-9);
+		assertTrue((Double) UhpType.uniform.extractValue(converter.convert(10L)) < 1.0);
+
+		// Into a bit, through a threshold.
+		converter = registry.resolve(UhpType.uniform, UhpType.bit);
+		assertThat(converter.convert(0.5)).isEqualTo(1L);
+		assertThat(converter.convert(-0.5)).isEqualTo(0L);
+
+		// Values that already fit pass unchanged.
+		converter = registry.resolve(UhpType.bit, UhpType.continuous(0, 2));
+		assertThat(converter.convert(1L)).isEqualTo(1.0);
+		assertThat(registry.resolve(UhpType.uniform, UhpType.v2)).isNull();
+	}
+
+	@Test
+	public void testResolveCacheInvalidation() {
+		UhpType source = UhpType.array(UhpType.continuous(0), 2);
+		UhpType target = UhpType.continuous(0, 10);
+		assertThat(registry.resolve(source, target)).isNull();
+		registry.register(new UhpAdapter() {
+			public String getName() {
+				return "sum";
+			}
+
+			public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+				return new UhpConverter(sourceType, UhpType.continuous(0, 2)) {
+					@Override
+					public void apply(double[] in, double[] out) {
+						out[0] = in[0] + in[1];
+					}
+				};
+			}
+
+			@Override
+			public List<UhpConverter> suggest(UhpType sourceType, UhpType targetType) {
+				return Collections.singletonList(compile(sourceType, null));
+			}
+		});
+		UhpConverter converter = registry.resolve(source, target);
+		assertThat(converter.convert(new double[] { 0.5, 0.75 })).isEqualTo(1.25);
+	}
+
+	@Test
+	public void testResolveDuringChange() {
+		UhpType source = UhpType.array(UhpType.continuous(0), 2);
+		UhpType target = UhpType.continuous(0, 10);
+		registry.register(new UhpAdapter() {
+			public String getName() {
+				return "sum";
+			}
+
+			public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+				return new UhpConverter(sourceType, UhpType.continuous(0, 2)) {
+					@Override
+					public void apply(double[] in, double[] out) {
+						out[0] = in[0] + in[1];
+					}
+				};
+			}
+
+			@Override
+			public List<UhpConverter> suggest(UhpType sourceType, UhpType targetType) {
+				// Unregistered while the search is under way.
+				registry.unregister(getName());
+				return Collections.singletonList(compile(sourceType, null));
+			}
+		});
+		assertThat(registry.resolve(source, target)).isNotNull();
+		// The path found with the old adapters is not kept.
+		assertThat(registry.resolve(source, target)).isNull();
+	}
+
+	@Test
+	public void testRegister() {
+		registry.register(new UhpAdapter() {
+			public String getName() {
+				return "negate";
+			}
+
+			public UhpConverter compile(UhpType sourceType, Map<String, Object> params) {
+				return new UhpConverter(sourceType, sourceType) {
+					@Override
+					public void apply(double[] in, double[] out) {
+						out[0] = -in[0];
+					}
+				};
+			}
+		});
+		assertThat(registry.compile(UhpType.uniform, adaptation("negate")).convert(0.5)).isEqualTo(-0.5);
+		registry.unregister("negate");
+		assertThat(registry.find("negate")).isNull();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForUnknownAdapter() {
+		registry.compile(UhpType.v3, adaptation("none"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForMissingParameter() {
+		registry.compile(UhpType.v3, adaptation(UhpAdapters.SELECT));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForStructSource() {
+		Map<String, UhpType> fields = new HashMap<String, UhpType>();
+		fields.put("a", UhpType.uniform);
+		registry.compile(UhpType.struct(fields), adaptation(UhpAdapters.MAGNITUDE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldThrowForWrongShape() {
+		registry.compile(UhpType.v3, adaptation(UhpAdapters.MAGNITUDE)).convert(new double[] { 1, 2 });
+	}
+
+	static UhpAdaptation adaptation(String adapter, Object... params) {
+		UhpAdaptation adaptation = new UhpAdaptation();
+		adaptation.setAdapter(adapter);
+		Map<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < params.length; i += 2)
+			map.put((String) params[i], params[i + 1]);
+		adaptation.setParams(map);
+		return adaptation;
+	}
+}
@@ -1,6 +1,9 @@
 package org.unbiquitous.unbihealth.core.uhp;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 
@@ -60,6 +63,63 @@ public class UhpPinTest {
 		assertThat(new UhpPin("pin1")).isNotEqualTo(new UhpPin("pin2"));
 	}
 
+	@Test
+	public void testFromJsonInternsType() throws IOException {
+		UhpPin pin = new UhpPin("pin");
+		pin.setMode(IOMode.IN);
+		pin.setType(UhpType.array(UhpType.continuous(), 3));
+		String json = mapper.writeValueAsString(pin);
+
+		UhpPin first = mapper.readValue(json, UhpPin.class);
+		UhpPin second = mapper.readValue(json, UhpPin.class);
+		assertThat(first).isEqualTo(pin);
+		assertThat(first.getType()).isSameAs(UhpType.v3);
+		assertThat(second.getType()).isSameAs(first.getType());
+	}
+
+	@Test
+	public void testBuilder() throws IOException {
+		UhpPin pin = UhpPin.builder("dummypin").mode(IOMode.INOUT).type(UhpType.continuous(-1.0, 2.0))
+				.description("description").mnemonic("mnemonic").build();
+		UhpPin expected = dummyUhpPin();
+		expected.setType(UhpType.continuous(-1.0, 2.0));
+		assertThat(pin).isEqualTo(expected);
+		assertThat(pin.hashCode()).isEqualTo(expected.hashCode());
+		assertTrue(pin.isImmutable());
+		assertFalse(expected.isImmutable());
+		assertThat(pin.getType()).isSameAs(UhpType.uniform);
+
+		String json = mapper.writeValueAsString(expected);
+		UhpPin read = mapper.readValue(json, UhpPin.Builder.class).build();
+		assertThat(read).isEqualTo(pin);
+		assertTrue(read.isImmutable());
+		assertThat(read.getType()).isSameAs(UhpType.uniform);
+		assertThat((JsonNode) mapper.valueToTree(read)).isEqualTo(mapper.readTree(json));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldThrowForBuiltPinWithNoMode() {
+		UhpPin.builder("pin").type(UhpType.v3).build();
+	}
+
+	@Test
+	public void testImmutableCopy() {
+		UhpPin pin = dummyUhpPin();
+		UhpPin copy = UhpPin.immutableCopy(pin);
+		assertThat(copy).isNotSameAs(pin);
+		assertThat(copy).isEqualTo(pin);
+		assertThat(UhpPin.immutableCopy(copy)).isSameAs(copy);
+		assertTrue(copy.getType().isInterned());
+
+		pin.setName("other");
+		assertThat(copy.getName()).isEqualTo("dummypin");
+		try {
+			copy.setName("other");
+			fail("should not change immutable pins");
+		} catch (IllegalStateException e) {
+		}
+	}
+
 	private UhpPin dummyUhpPin() {
 		UhpPin pin = new UhpPin("dummypin");
 		pin.setMode(IOMode.INOUT);
@@ -2,13 +2,16 @@ package org.unbiquitous.unbihealth.core.uhp;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.junit.Test;
@@ -396,6 +399,380 @@ public class UhpTypeTest {
 		}
 	}
 
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testExtractorCache() {
+		UhpType type = dummyExtractType();
+		UhpExtractor extractor = type.getExtractor();
+		assertThat(type.getExtractor()).isSameAs(extractor);
+
+		Map<String, Object> src = new HashMap<String, Object>();
+		src.put("array", new Integer[] { 0, 1, 0, 1, 0 });
+		src.put("uniform", 0.5);
+		assertArrayEquals(new Object[] { 0l, 1l, 0l, 1l, 0l }, (Object[]) ((Map) extractor.extract(src)).get("array"));
+
+		// Changes to other types keep the extractor.
+		UhpType.discrete().setDiscRangeStart(0l);
+		assertThat(type.getExtractor()).isSameAs(extractor);
+
+		type.getFields().get("array").setElementType(UhpType.discrete(0, 1));
+		assertThat(type.getExtractor()).isNotSameAs(extractor);
+		try {
+			type.extractValue(src);
+			fail("should see changes on nested types");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getCause().getCause().getMessage()).contains("range");
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testExtractJson() throws IOException {
+		UhpExtractor extractor = dummyExtractType().getExtractor();
+
+		Object extracted = extractor.extractJson("{\"array\":[0,1,0,1,0],\"extra\":{\"a\":[1]},\"uniform\":0.5}");
+		assertThat(extracted).isInstanceOf(Map.class);
+		Map extractedMap = (Map) extracted;
+		assertArrayEquals(new Object[] { 0l, 1l, 0l, 1l, 0l }, (Object[]) extractedMap.get("array"));
+		assertThat(extractedMap.get("uniform")).isEqualTo(0.5);
+
+		extracted = extractor.extractJson("{\"uniform\":0,\"array\":[0,1,0,1,0]}".getBytes("UTF-8"));
+		assertThat(((Map) extracted).get("uniform")).isEqualTo(0.0);
+
+		try {
+			extractor.extractJson("{\"array\":[0,1,0,1],\"uniform\":0.5}");
+			fail("should complain about array size");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getCause().getMessage()).contains("size");
+		}
+		try {
+			extractor.extractJson("{\"array\":[0,1,0,1,0,1],\"uniform\":0.5}");
+			fail("should complain about array size");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getCause().getMessage()).contains("size");
+		}
+		try {
+			extractor.extractJson("{\"array\":[0,1,0,1,0.5],\"uniform\":0.5}");
+			fail("should not extract a wrong typed array");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getCause().getMessage()).contains("array element at");
+			assertThat(e.getCause().getCause().getMessage()).contains("integral");
+		}
+		try {
+			extractor.extractJson("{\"array\":[0,1,0,1,0],\"uniform\":2}");
+			fail("should complain about range");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getCause().getMessage()).contains("range");
+		}
+		try {
+			extractor.extractJson("{\"array\":[0,1,0,1,0],\"uniform\":null}");
+			fail("should complain about missing field");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).contains("not found");
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testExtractPrimitive() throws IOException {
+		UhpExtractor extractor = UhpType.v3.getPrimitiveExtractor();
+		assertArrayEquals(new double[] { 1, 2, 3 }, (double[]) extractor.extractJson("[1, 2.0, 3]"), 0);
+		assertArrayEquals(new double[] { 1, 2, 3 }, (double[]) extractor.extract(new double[] { 1, 2, 3 }), 0);
+		assertArrayEquals(new double[] { 1, 2, 3 }, (double[]) extractor.extract(new float[] { 1, 2, 3 }), 0);
+		assertArrayEquals(new double[] { 1, 2, 3 }, (double[]) extractor.extract(new Object[] { 1, 2l, 3.0 }), 0);
+
+		assertArrayEquals(new Object[] { 1.0, 2.0, 3.0 }, (Object[]) UhpType.v3.extractValue(new double[] { 1, 2, 3 }));
+		assertArrayEquals(new Object[] { 0l, 1l }, (Object[]) UhpType.array(UhpType.bit, 2).extractValue(new int[] { 0, 1 }));
+
+		extractor = UhpType.array(UhpType.bit, 2).getPrimitiveExtractor();
+		assertArrayEquals(new long[] { 0, 1 }, (long[]) extractor.extract(new long[] { 0, 1 }));
+		assertArrayEquals(new long[] { 0, 1 }, (long[]) extractor.extractJson("[0, 1]"));
+		try {
+			extractor.extract(new long[] { 0, 2 });
+			fail("should complain about range");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).contains("array element at 1");
+			assertThat(e.getCause().getMessage()).contains("range");
+		}
+		try {
+			extractor.extract(new double[] { 0, 1 });
+			fail("should not extract a wrong typed array");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getCause().getMessage()).contains("integral");
+		}
+		try {
+			extractor.extract(new long[] { 0, 1, 0 });
+			fail("should complain about array size");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).contains("size");
+		}
+
+		Map extracted = (Map) dummyExtractType().getPrimitiveExtractor()
+				.extractJson("{\"array\":[0,1,0,1,0],\"uniform\":0.5}");
+		assertArrayEquals(new long[] { 0, 1, 0, 1, 0 }, (long[]) extracted.get("array"));
+		assertThat(extracted.get("uniform")).isEqualTo(0.5);
+	}
+
+	@Test
+	public void testBinary() throws IOException {
+		UhpType discrete = UhpType.discrete();
+		for (long value : new long[] { 0, 1, -1, 63, -64, 300, Long.MAX_VALUE, Long.MIN_VALUE })
+			assertThat(discrete.getExtractor().extractBinary(discrete.getExtractor().encode(value))).isEqualTo(value);
+		assertThat(discrete.getExtractor().encode(-1)).hasSize(1);
+
+		UhpType ranged = UhpType.discrete(1000, 200);
+		assertThat(ranged.getExtractor().encode(1100)).hasSize(1);
+		assertThat(ranged.getExtractor().extractBinary(new byte[] { 100 })).isEqualTo(1100l);
+
+		assertThat(UhpType.uniform.getExtractor().encode(0.5)).hasSize(8);
+		assertThat(UhpType.uniform.getExtractor().extractBinary(UhpType.uniform.getExtractor().encode(0.5)))
+				.isEqualTo(0.5);
+
+		byte[] v3 = UhpType.v3.getExtractor().encode(new double[] { 1, 2, 3 });
+		assertThat(v3).hasSize(24);
+		assertArrayEquals(new Object[] { 1.0, 2.0, 3.0 }, (Object[]) UhpType.v3.getExtractor().extractBinary(v3));
+		assertArrayEquals(new double[] { 1, 2, 3 },
+				(double[]) UhpType.v3.getPrimitiveExtractor().extractBinary(v3), 0);
+		assertArrayEquals(v3, UhpType.v3.getExtractor().encode(new Object[] { 1.0, 2, 3l }));
+
+		UhpType struct = dummyExtractType();
+		Map<String, Object> value = new HashMap<String, Object>();
+		value.put("array", new Object[] { 0, 1, 1, 0, 1 });
+		value.put("uniform", -0.25);
+		byte[] encoded = struct.getExtractor().encode(value);
+		assertThat(encoded).hasSize(5 + 8);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> decoded = (Map<String, Object>) struct.getExtractor().extractBinary(encoded);
+		assertArrayEquals(new Object[] { 0l, 1l, 1l, 0l, 1l }, (Object[]) decoded.get("array"));
+		assertThat(decoded.get("uniform")).isEqualTo(-0.25);
+	}
+
+	@Test
+	public void testBinaryInvalid() throws IOException {
+		try {
+			UhpType.bit.getExtractor().encode(2);
+			fail("should not encode values outside the range");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			UhpType.bit.getExtractor().extractBinary(new byte[] { 2 });
+			fail("should not decode values outside the range");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			UhpType.bit.getExtractor().extractBinary(new byte[] { 1, 0 });
+			fail("should not decode trailing data");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			UhpType.v3.getExtractor().extractBinary(new byte[16]);
+			fail("should not decode truncated data");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testSinglePrecision() throws IOException {
+		UhpType single = UhpType.continuous(0, 1, UhpType.Precision.SINGLE);
+		assertThat(single.extractValue(0.1)).isEqualTo(0.1f);
+		assertThat(single.getExtractor().extractJson("0.1")).isEqualTo(0.1f);
+		assertThat(single.getExtractor().encode(0.1)).hasSize(4);
+		assertThat(single.getExtractor().extractBinary(single.getExtractor().encode(0.1))).isEqualTo(0.1f);
+		try {
+			// Rounds up to 1.0f, out of the range.
+			single.extractValue(0.99999999);
+			fail("should not accept values rounded out of the range");
+		} catch (IllegalArgumentException e) {
+		}
+
+		UhpType array = UhpType.array(UhpType.continuous(0, 1, UhpType.Precision.SINGLE), 2);
+		assertArrayEquals(new Object[] { 0.25f, 0.5f }, (Object[]) array.extractValue(new double[] { 0.25, 0.5 }));
+		assertArrayEquals(new float[] { 0.25f, 0.5f },
+				(float[]) array.getPrimitiveExtractor().extractJson("[0.25, 0.5]"), 0);
+		byte[] encoded = array.getExtractor().encode(new float[] { 0.25f, 0.5f });
+		assertThat(encoded).hasSize(8);
+		assertArrayEquals(new float[] { 0.25f, 0.5f }, (float[]) array.getPrimitiveExtractor().extractBinary(encoded),
+				0);
+	}
+
+	@Test
+	public void testPrecisionJson() throws IOException {
+		UhpType single = UhpType.continuous(0, 1, UhpType.Precision.SINGLE);
+		ObjectNode json = (ObjectNode) mapper.valueToTree(single);
+		assertThat(json.get(UhpType.JSON_CONTINUOUS_PRECISION_KEY).asText()).isEqualTo("SINGLE");
+		assertThat(mapper.treeToValue(json, UhpType.class)).isEqualTo(single);
+
+		// Double precision is the default, and is left out.
+		UhpType explicit = UhpType.continuous(0, 1, UhpType.Precision.DOUBLE);
+		assertThat(explicit).isEqualTo(UhpType.continuous(0, 1));
+		assertThat(((ObjectNode) mapper.valueToTree(explicit)).has(UhpType.JSON_CONTINUOUS_PRECISION_KEY)).isFalse();
+		assertThat(single).isNotEqualTo(explicit);
+	}
+
+	@Test
+	public void testExtractRecord() throws IOException {
+		UhpType type = new UhpType(BaseType.STRUCTURED);
+		type.addField("position", UhpType.v3);
+		type.addField("orientation", UhpType.v3);
+		type.addField("timestamp", UhpType.discrete());
+		// Sorted by name.
+		assertThat(type.indexOfField("orientation")).isEqualTo(0);
+		assertThat(type.indexOfField("position")).isEqualTo(1);
+		assertThat(type.indexOfField("timestamp")).isEqualTo(2);
+		assertThat(type.indexOfField("other")).isEqualTo(-1);
+
+		String json = "{\"timestamp\": 7, \"position\": [1, 2, 3], \"orientation\": [0, 0, 1]}";
+		UhpRecord record = (UhpRecord) type.getExtractor().extractJson(json);
+		assertThat(record.getFieldCount()).isEqualTo(3);
+		assertThat(record.getFieldName(1)).isEqualTo("position");
+		assertArrayEquals(new Object[] { 1.0, 2.0, 3.0 }, (Object[]) record.getField(1));
+		assertThat(record.getField(2)).isEqualTo(7L);
+		assertThat(record.getField("timestamp")).isEqualTo(7L);
+		assertThat(new ArrayList<String>(record.keySet())).containsExactly("orientation", "position", "timestamp");
+
+		UhpRecord copy = (UhpRecord) type.extractValue(new HashMap<String, Object>(record));
+		assertArrayEquals((Object[]) record.getField(0), (Object[]) copy.getField(0));
+		copy = (UhpRecord) type.getExtractor().extractBinary(type.getExtractor().encode(record));
+		assertArrayEquals((Object[]) record.getField(0), (Object[]) copy.getField(0));
+		assertThat(copy.getField(2)).isEqualTo(7L);
+
+		UhpType scalars = new UhpType(BaseType.STRUCTURED);
+		scalars.addField("x", UhpType.uniform);
+		scalars.addField("n", UhpType.bit);
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("x", 0.5);
+		map.put("n", 1L);
+		// Records compare equal to any map with the same entries, both ways.
+		assertEquals(map, scalars.extractValue(map));
+		assertEquals(scalars.extractValue(map), map);
+		try {
+			record.put("timestamp", 8L);
+			fail("should not change records");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testFieldsAreOnlyChangedThroughTheType() {
+		Map<String, UhpType> fields = new HashMap<String, UhpType>();
+		fields.put("bit", UhpType.bit);
+		UhpType type = UhpType.struct(fields);
+		UhpExtractor extractor = type.getExtractor();
+		fields.put("uniform", UhpType.uniform);
+		assertThat(type.getFields()).hasSize(1);
+		try {
+			type.getFields().put("uniform", UhpType.uniform);
+			fail("should only change fields through the type");
+		} catch (UnsupportedOperationException e) {
+		}
+		assertThat(type.getExtractor()).isSameAs(extractor);
+
+		type.addField("uniform", UhpType.uniform);
+		assertThat(type.getFields()).hasSize(2);
+		assertThat(type.getExtractor()).isNotSameAs(extractor);
+	}
+
+	@Test
+	public void testFieldOrder() throws Exception {
+		UhpType first = new UhpType(BaseType.STRUCTURED);
+		first.addField("a", UhpType.bit);
+		first.addField("b", UhpType.uniform);
+		UhpType second = new UhpType(BaseType.STRUCTURED);
+		second.addField("b", UhpType.uniform);
+		second.addField("a", UhpType.bit);
+		// Fields are sorted by name, whatever the declared order.
+		assertThat(first).isEqualTo(second);
+		assertThat(first.hashCode()).isEqualTo(second.hashCode());
+		assertThat(UhpType.intern(first)).isSameAs(UhpType.intern(second));
+		assertThat(second.indexOfField("a")).isEqualTo(0);
+		assertThat(UhpType.intern(second).indexOfField("b")).isEqualTo(1);
+		assertThat(UhpType.struct(Collections.singletonMap("a", UhpType.bit))).isNotEqualTo(first);
+
+		UhpType read = mapper.readValue("{\"baseType\": \"STRUCTURED\", \"fields\": {\"b\": "
+				+ mapper.writeValueAsString(UhpType.uniform) + ", \"a\": " + mapper.writeValueAsString(UhpType.bit)
+				+ "}}", UhpType.class);
+		assertThat(read).isEqualTo(first);
+		assertThat(read.indexOfField("a")).isEqualTo(0);
+		Map<String, Object> value = new LinkedHashMap<String, Object>();
+		value.put("b", 0.5);
+		value.put("a", 1L);
+		assertArrayEquals(first.getExtractor().encode(value), read.getExtractor().encode(value));
+	}
+
+	@Test
+	public void testIntern() {
+		UhpType type = dummyExtractType();
+		UhpType interned = UhpType.intern(type);
+		assertThat(interned).isNotSameAs(type);
+		assertThat(interned).isEqualTo(type);
+		assertThat(type).isEqualTo(interned);
+		assertThat(interned.hashCode()).isEqualTo(type.hashCode());
+		assertTrue(interned.isInterned());
+		assertFalse(type.isInterned());
+		assertThat(UhpType.intern(dummyExtractType())).isSameAs(interned);
+		assertThat(UhpType.intern(interned)).isSameAs(interned);
+		assertThat(interned.getFields().get("uniform")).isSameAs(UhpType.uniform);
+		assertThat(UhpType.intern(UhpType.array(UhpType.continuous(), 3))).isSameAs(UhpType.v3);
+		assertThat(UhpType.intern(UhpType.discrete(0, 3))).isNotEqualTo(UhpType.bit);
+
+		// The source is left untouched and mutable.
+		type.addField("bit", UhpType.bit);
+		assertThat(type).isNotEqualTo(interned);
+		assertThat(interned.getFields()).hasSize(2);
+	}
+
+	@Test
+	public void testInternedIsImmutable() {
+		UhpType interned = UhpType.intern(dummyExtractType());
+		try {
+			interned.setBaseType(BaseType.DISCRETE);
+			fail("should not change interned types");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			interned.addField("bit", UhpType.bit);
+			fail("should not change interned types");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			interned.getFields().put("bit", UhpType.bit);
+			fail("should not change interned types");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			UhpType.v3.setDimension(4);
+			fail("should not change predefined types");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testBuilder() throws IOException {
+		UhpType built = UhpType.builder(BaseType.STRUCTURED).field("uniform", UhpType.uniform)
+				.field("count", UhpType.builder(BaseType.DISCRETE).discreteRange(0, 10).build()).build();
+		UhpType type = new UhpType();
+		type.setBaseType(BaseType.STRUCTURED);
+		type.addField("uniform", UhpType.uniform);
+		type.addField("count", UhpType.discrete(0, 10));
+		assertThat(built).isEqualTo(type);
+		assertTrue(built.isInterned());
+		assertThat(UhpType.intern(type)).isSameAs(built);
+
+		assertThat(UhpType.builder(BaseType.CONTINUOUS).continuousRange(-1, 2).build()).isSameAs(UhpType.uniform);
+		assertThat(UhpType.builder(BaseType.ARRAY).elementType(UhpType.continuous()).dimension(3).build())
+				.isSameAs(UhpType.v3);
+		assertThat(UhpType.builder(BaseType.CONTINUOUS).precision(UhpType.Precision.DOUBLE).build())
+				.isSameAs(UhpType.intern(UhpType.continuous()));
+
+		String json = mapper.writeValueAsString(type);
+		assertThat(mapper.readValue(json, UhpType.Builder.class).build()).isSameAs(built);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldThrowForInvalidBuiltType() {
+		UhpType.builder(BaseType.ARRAY).dimension(3).build();
+	}
+
 	@Test
 	public void testToJsonEmpty() {
 		ObjectNode node = mapper.createObjectNode();